@@ -0,0 +1,465 @@
+/*
+ * Copyright (C) 2017  Davidson Francis <davidsondfgl@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+/*
+ *    ScalabilityReport.java
+ *    Written by Davidson Francis
+ */
+
+package weka.clusterers.kvalid;
+
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.Arrays;
+import java.util.Locale;
+
+import weka.clusterers.KValid;
+import weka.clusterers.SimpleKMeans;
+import weka.core.Instances;
+import weka.core.SelectedTag;
+import weka.core.Utils;
+
+/**
+ * End-to-end scalability report: runs the KValid cascade over seeded
+ * Gaussian blobs of growing sizes, once per evaluation variant, and
+ * writes a CSV with the time, heap high-water mark and throughput of
+ * each run.
+ *
+ * Every run is also checked against the reference, i.e: a plain
+ * SimpleKMeans and SilhouetteIndex per k, computed apart from KValid.
+ * The squared errors, silhouettes and best k must match within the
+ * tolerance, otherwise the run is reported as a MISMATCH and the
+ * report exits with an error, so a faster path can never silently
+ * change the results. Estimated silhouettes (sampled or simplified)
+ * only have their squared errors checked, and the single precision
+ * ones are checked with a looser tolerance; in both cases the error
+ * is still reported.
+ *
+ * @author Davidson Francis (davidson.francis@sga.pucminas.br)
+ * @version $Revision: 0001 $
+ */
+public class ScalabilityReport {
+
+	/**
+	 * Evaluation variant: a name and the KValid options that select it.
+	 */
+	public static class Variant {
+
+		/** Variant name, as written in the report. */
+		public final String name;
+
+		/** KValid options. */
+		public final String options;
+
+		/** True if the cost grows with n^2, i.e: exact silhouette. */
+		public final boolean quadratic;
+
+		/**
+		 * Creates a new variant.
+		 *
+		 * @param name      variant name.
+		 * @param options   KValid options.
+		 * @param quadratic true if the cost grows with n^2.
+		 */
+		public Variant(String name, String options, boolean quadratic) {
+			this.name      = name;
+			this.options   = options;
+			this.quadratic = quadratic;
+		}
+	}
+
+	/** Variants run for each dataset. */
+	public static final Variant[] VARIANTS = {
+		new Variant("silhouette", "-validation " + KValid.SILHOUETTE_INDEX, true),
+		new Variant("silhouette-float", "-validation " + KValid.SILHOUETTE_INDEX + " -float", true),
+		new Variant("silhouette-all", "-validation " + KValid.SILHOUETTE_INDEX + " -all-clusters",
+			true),
+		new Variant("silhouette-offheap", "-validation " + KValid.SILHOUETTE_INDEX + " -offheap",
+			true),
+		new Variant("elbow", "-validation " + KValid.ELBOW_METHOD, false),
+		new Variant("auto", "-validation " + KValid.AUTO, false) };
+
+	/** Report header. */
+	public static final String HEADER = "n,d,variant,minK,maxK,evaluated,bestK,"
+		+ "time_ms,peak_heap_mb,throughput,check,max_sse_err,max_si_err";
+
+	/** Dataset sizes. */
+	protected int[] m_sizes = { 10000, 100000, 1000000 };
+
+	/** Dataset dimensions. */
+	protected int[] m_dims = { 2, 16 };
+
+	/** Smallest k of the cascade. */
+	protected int m_minK = 2;
+
+	/** Largest k of the cascade. */
+	protected int m_maxK = 8;
+
+	/** Number of blobs in each dataset. */
+	protected int m_blobs = 4;
+
+	/** Random seed for the datasets. */
+	protected long m_seed = 1;
+
+	/** Largest n run by quadratic variants and checked by the reference silhouette. */
+	protected int m_maxExact = 20000;
+
+	/** Tolerance of the differential check. */
+	protected double m_tolerance = 1e-6;
+
+	/** Tolerance of the silhouettes evaluated in single precision. */
+	protected double m_floatTolerance = 1e-4;
+
+	/** Number of mismatches found. */
+	protected int m_mismatches;
+
+	/**
+	 * Reference results of one dataset, computed lazily and shared by
+	 * all the variants.
+	 */
+	protected class Reference {
+
+		/** Dataset. */
+		protected Instances m_data;
+
+		/** Squared error of each k, NaN if not computed yet. */
+		protected double[] m_sse;
+
+		/** Global silhouette of each k, NaN if not computed yet. */
+		protected double[] m_si;
+
+		/** Global silhouette of each k, b(i) over all the clusters. */
+		protected double[] m_siAll;
+
+		/**
+		 * Creates the reference of a dataset.
+		 *
+		 * @param data dataset.
+		 */
+		protected Reference(Instances data) {
+			m_data = data;
+			m_sse  = new double[m_maxK + 1];
+			m_si   = new double[m_maxK + 1];
+			m_siAll = new double[m_maxK + 1];
+			Arrays.fill(m_sse, Double.NaN);
+			Arrays.fill(m_si, Double.NaN);
+			Arrays.fill(m_siAll, Double.NaN);
+		}
+
+		/**
+		 * Gets the reference silhouettes matching the settings of a
+		 * given clusterer.
+		 *
+		 * @param kvalid clusterer.
+		 * @return Returns the global silhouette of each k.
+		 */
+		protected double[] silhouettes(KValid kvalid) {
+			return (kvalid.getAllClusters()) ? m_siAll : m_si;
+		}
+
+		/**
+		 * Computes the reference of a given k, if not done yet.
+		 *
+		 * @param kvalid     clusterer whose settings are reproduced.
+		 * @param k          number of clusters.
+		 * @param silhouette true to compute the silhouette too.
+		 * @throws Exception if the reference could not be computed.
+		 */
+		protected void compute(KValid kvalid, int k, boolean silhouette) throws Exception {
+			double[] si = silhouettes(kvalid);
+			if (!Double.isNaN(m_sse[k]) && (!silhouette || !Double.isNaN(si[k])))
+				return;
+
+			SimpleKMeans skmeans = new SimpleKMeans();
+			skmeans.setInitializationMethod(new SelectedTag(kvalid.getInitializationMethod()
+				.getSelectedTag().getID(), SimpleKMeans.TAGS_SELECTION));
+			skmeans.setSeed(kvalid.getSeed());
+			skmeans.setNumClusters(k);
+			skmeans.setDistanceFunction(kvalid.getDistanceFunction());
+			skmeans.setMaxIterations(kvalid.getMaxIterations());
+			skmeans.buildClusterer(m_data);
+			m_sse[k] = skmeans.getSquaredError();
+
+			if (silhouette && kvalid.getAllClusters())
+				m_siAll[k] = definitionSilhouette(skmeans);
+			else if (silhouette) {
+				SilhouetteIndex index = new SilhouetteIndex();
+				index.evaluate(skmeans, skmeans.getClusterCentroids(), m_data,
+					skmeans.getDistanceFunction());
+				m_si[k] = index.getGlobalSilhouette();
+			}
+		}
+
+		/**
+		 * Computes the silhouette straight from its definition: for each
+		 * point, the mean distance to every cluster, a(i) the own one and
+		 * b(i) the smallest of the others; s(i) is 0 in a single point
+		 * cluster. The global silhouette is the mean of the clusters ones,
+		 * as in KValid.
+		 *
+		 * @param skmeans clusterer.
+		 * @return Returns the global silhouette.
+		 * @throws Exception if a point could not be assigned.
+		 */
+		protected double definitionSilhouette(SimpleKMeans skmeans) throws Exception {
+			int n = m_data.numInstances();
+			int k = skmeans.getNumClusters();
+			int[] cluster = new int[n];
+			int[] size = new int[k];
+			for (int i = 0; i < n; i++)
+				size[cluster[i] = skmeans.clusterInstance(m_data.instance(i))]++;
+
+			double[] clusterSum = new double[k];
+			for (int i = 0; i < n; i++) {
+				double[] mean = new double[k];
+				for (int j = 0; j < n; j++)
+					if (j != i)
+						mean[cluster[j]] += skmeans.getDistanceFunction().distance(
+							m_data.instance(i), m_data.instance(j));
+
+				int c = cluster[i];
+				if (size[c] == 1)
+					continue;
+
+				double a = mean[c] / (size[c] - 1);
+				double b = Double.MAX_VALUE;
+				for (int o = 0; o < k; o++)
+					if (o != c && size[o] > 0)
+						b = Math.min(b, mean[o] / size[o]);
+
+				if (b != Double.MAX_VALUE && Math.max(a, b) > 0)
+					clusterSum[c] += (b - a) / Math.max(a, b);
+			}
+
+			double global = 0;
+			for (int c = 0; c < k; c++)
+				global += (size[c] > 0) ? clusterSum[c] / size[c] : 0;
+			return global / k;
+		}
+	}
+
+	/**
+	 * Runs the whole report.
+	 *
+	 * @param out output, one CSV line per dataset and variant.
+	 * @throws Exception if a run fails.
+	 */
+	public void run(PrintWriter out) throws Exception {
+		m_mismatches = 0;
+		out.println(HEADER);
+		out.flush();
+
+		for (int n : m_sizes) {
+			for (int d : m_dims) {
+				Instances data = GaussianBlobs.generate(n, d, m_blobs, m_seed);
+				Reference ref  = new Reference(data);
+
+				for (Variant v : VARIANTS) {
+					out.println(runVariant(data, ref, v));
+					out.flush();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Runs and checks one variant over one dataset.
+	 *
+	 * @param data dataset.
+	 * @param ref  reference results of the dataset.
+	 * @param v    variant.
+	 * @return Returns the CSV line.
+	 * @throws Exception if the run fails.
+	 */
+	protected String runVariant(Instances data, Reference ref, Variant v) throws Exception {
+		int n = data.numInstances();
+		String prefix = n + "," + data.numAttributes() + "," + v.name + "," + m_minK + "," + m_maxK;
+
+		if (v.quadratic && n > m_maxExact)
+			return prefix + ",0,,,,,skipped,,";
+
+		KValid kvalid = new KValid();
+		kvalid.setOptions(Utils.splitOptions(v.options));
+		kvalid.setCascade(true);
+		kvalid.setMinimumK(m_minK);
+		kvalid.setMaximumK(m_maxK);
+
+		/* Runs, measuring the heap high-water mark. */
+		System.gc();
+		resetPeakHeap();
+		long time = System.nanoTime();
+		kvalid.buildClusterer(data);
+		time = System.nanoTime() - time;
+		long peak = getPeakHeap();
+
+		/* Differential check. */
+		boolean checkSilhouette = n <= m_maxExact;
+		boolean silhouette = kvalid.getValidationMethod().getSelectedTag().getID()
+			!= KValid.ELBOW_METHOD;
+		boolean exact = true;
+		double sseErr = 0;
+		double siErr  = 0;
+		double best   = 0;
+		int bestK     = 0;
+
+		for (KResult r : kvalid.getResults()) {
+			if (r == null)
+				continue;
+
+			int k = r.getK();
+			boolean si = r.getSilhouette() != null && checkSilhouette;
+			ref.compute(kvalid, k, si);
+
+			sseErr = Math.max(sseErr, Math.abs(r.getSquaredError() - ref.m_sse[k])
+				/ Math.max(1.0, Math.abs(ref.m_sse[k])));
+			if (si)
+				siErr = Math.max(siErr, Math.abs(r.getSilhouette().getGlobalSilhouette()
+					- ref.silhouettes(kvalid)[k]));
+			if (r.getSilhouette() != null && !r.getSilhouette().isExact())
+				exact = false;
+
+			/* Same choice KValid does, on the reference values. */
+			double value = (silhouette) ? ref.silhouettes(kvalid)[k] : ref.m_sse[k];
+			if (value > best) {
+				best  = value;
+				bestK = k;
+			}
+		}
+
+		/*
+		 * The silhouette and best k are only checked when the silhouette
+		 * is exact and affordable, an estimate (sampled or simplified) has
+		 * its error reported but not checked.
+		 */
+		boolean fullCheck = !silhouette || (exact && checkSilhouette);
+		double siTolerance = (kvalid.getSinglePrecision())
+			? Math.max(m_tolerance, m_floatTolerance) : m_tolerance;
+		String check;
+
+		if (sseErr > m_tolerance || (fullCheck && (siErr > siTolerance
+			|| bestK != kvalid.getNumClusters())))
+			check = "MISMATCH";
+		else if (!fullCheck)
+			check = "sse-only";
+		else
+			check = "ok";
+
+		if (check.equals("MISMATCH"))
+			m_mismatches++;
+
+		int evaluated = kvalid.numEvaluated();
+		return prefix + "," + evaluated + "," + kvalid.getNumClusters()
+			+ String.format(Locale.US, ",%.1f,%.1f,%.1f,%s,%.3g,%.3g",
+				time / 1e6, peak / (double) (1 << 20),
+				(double) n * evaluated / (time / 1e9), check, sseErr, siErr);
+	}
+
+	/** Resets the peak usage of the heap pools. */
+	protected static void resetPeakHeap() {
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+			if (pool.getType() == MemoryType.HEAP)
+				pool.resetPeakUsage();
+	}
+
+	/**
+	 * Gets the peak usage of the heap since the last reset.
+	 *
+	 * @return Returns the sum of the peak usage of the heap pools, in bytes.
+	 */
+	protected static long getPeakHeap() {
+		long peak = 0;
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+			if (pool.getType() == MemoryType.HEAP)
+				peak += pool.getPeakUsage().getUsed();
+		return peak;
+	}
+
+	/**
+	 * Parses a comma-separated list of integers.
+	 *
+	 * @param list the list.
+	 * @return Returns the integers.
+	 */
+	protected static int[] parseList(String list) {
+		String[] parts = list.split(",");
+		int[] values = new int[parts.length];
+		for (int i = 0; i < parts.length; i++)
+			values[i] = Integer.parseInt(parts[i].trim());
+		return values;
+	}
+
+	/**
+	 * Main method for running the report from the command line.
+	 *
+	 * @param args the options.
+	 */
+	public static void main(String[] args) {
+		try {
+			if (Utils.getFlag('h', args)) {
+				System.err.println("Usage: ScalabilityReport [-sizes <n,n,...>] [-dims <d,d,...>]"
+					+ " [-minK <k>] [-maxK <k>] [-blobs <n>] [-seed <s>] [-max-exact <n>]"
+					+ " [-tolerance <t>] [-float-tolerance <t>] [-o <output csv>]");
+				return;
+			}
+
+			ScalabilityReport report = new ScalabilityReport();
+			String temp;
+
+			if ((temp = Utils.getOption("sizes", args)).length() > 0)
+				report.m_sizes = parseList(temp);
+			if ((temp = Utils.getOption("dims", args)).length() > 0)
+				report.m_dims = parseList(temp);
+			if ((temp = Utils.getOption("minK", args)).length() > 0)
+				report.m_minK = Integer.parseInt(temp);
+			if ((temp = Utils.getOption("maxK", args)).length() > 0)
+				report.m_maxK = Integer.parseInt(temp);
+			if ((temp = Utils.getOption("blobs", args)).length() > 0)
+				report.m_blobs = Integer.parseInt(temp);
+			if ((temp = Utils.getOption("seed", args)).length() > 0)
+				report.m_seed = Long.parseLong(temp);
+			if ((temp = Utils.getOption("max-exact", args)).length() > 0)
+				report.m_maxExact = Integer.parseInt(temp);
+			if ((temp = Utils.getOption("tolerance", args)).length() > 0)
+				report.m_tolerance = Double.parseDouble(temp);
+			if ((temp = Utils.getOption("float-tolerance", args)).length() > 0)
+				report.m_floatTolerance = Double.parseDouble(temp);
+
+			String outFile = Utils.getOption('o', args);
+			Utils.checkForRemainingOptions(args);
+
+			PrintWriter out = new PrintWriter(new OutputStreamWriter((outFile.length() > 0)
+				? new FileOutputStream(outFile) : System.out, "UTF-8"));
+
+			report.run(out);
+			out.close();
+
+			if (report.m_mismatches > 0) {
+				System.err.println("ScalabilityReport: " + report.m_mismatches
+					+ " run(s) do not match the reference!");
+				System.exit(1);
+			}
+		}
+		catch (Exception e) {
+			e.printStackTrace();
+			System.exit(1);
+		}
+	}
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2017  Davidson Francis <davidsondfgl@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+/*
+ *    CascadeBenchmark.java
+ *    Written by Davidson Francis
+ */
+
+package weka.clusterers.kvalid.jmh;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import weka.clusterers.KValid;
+import weka.clusterers.kvalid.GaussianBlobs;
+import weka.core.Instances;
+import weka.core.SelectedTag;
+
+/**
+ * Benchmark of a full cascade buildClusterer, from minK to maxK, over
+ * Gaussian blobs. The blobs are generated with maxK / 2 centers, so the
+ * best k lies inside the range.
+ *
+ * @author Davidson Francis (davidson.francis@sga.pucminas.br)
+ * @version $Revision: 0001 $
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class CascadeBenchmark {
+
+	/** Number of instances. */
+	@Param({"1000", "5000"})
+	public int n;
+
+	/** Number of attributes. */
+	@Param({"2", "32"})
+	public int d;
+
+	/** Largest k of the cascade. */
+	@Param({"8", "16"})
+	public int maxK;
+
+	/** Distance function. */
+	@Param({"Euclidean", "Manhattan"})
+	public String distance;
+
+	/** Validation method. */
+	@Param({"Silhouette", "Elbow"})
+	public String validation;
+
+	/** Dataset. */
+	protected Instances m_data;
+
+	/**
+	 * Generates the dataset.
+	 */
+	@Setup(Level.Trial)
+	public void setup() {
+		m_data = GaussianBlobs.generate(n, d, maxK / 2, 1);
+	}
+
+	/**
+	 * Builds the whole cascade.
+	 *
+	 * @return Returns the clusterer built.
+	 * @throws Exception if the clusterer could not be built.
+	 */
+	@Benchmark
+	public KValid buildClusterer() throws Exception {
+		KValid kvalid = HotPathBenchmark.newKValid(distance);
+		kvalid.setCascade(true);
+		kvalid.setMinimumK(2);
+		kvalid.setMaximumK(maxK);
+		kvalid.setValidationMethod(new SelectedTag(validation.equals("Elbow")
+			? KValid.ELBOW_METHOD : KValid.SILHOUETTE_INDEX, KValid.VALIDATION_SELECTION));
+
+		kvalid.buildClusterer(m_data);
+		return kvalid;
+	}
+}
@@ -0,0 +1,186 @@
+/*
+ * Copyright (C) 2017  Davidson Francis <davidsondfgl@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+/*
+ *    HotPathBenchmark.java
+ *    Written by Davidson Francis
+ */
+
+package weka.clusterers.kvalid.jmh;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import weka.clusterers.KValid;
+import weka.clusterers.SimpleKMeans;
+import weka.clusterers.kvalid.KValidChebyshevDistance;
+import weka.clusterers.kvalid.CosineDistance;
+import weka.clusterers.kvalid.GaussianBlobs;
+import weka.clusterers.kvalid.SilhouetteIndex;
+import weka.core.EuclideanDistance;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.ManhattanDistance;
+import weka.core.NormalizableDistance;
+import weka.core.SelectedTag;
+
+/**
+ * Benchmarks of the per-k hot paths: Silhouette-Index evaluation, SSE
+ * and instance assignment, over a single clustering of Gaussian blobs.
+ *
+ * @author Davidson Francis (davidson.francis@sga.pucminas.br)
+ * @version $Revision: 0001 $
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HotPathBenchmark {
+
+	/** Number of instances. */
+	@Param({"1000", "10000"})
+	public int n;
+
+	/** Number of attributes. */
+	@Param({"2", "32"})
+	public int d;
+
+	/** Number of clusters (and blobs). */
+	@Param({"4", "16"})
+	public int k;
+
+	/** Distance function. */
+	@Param({"Euclidean", "Manhattan", "Cosine"})
+	public String distance;
+
+	/** Dataset. */
+	protected Instances m_data;
+
+	/** Clusterer, built with k clusters. */
+	protected KValid m_kvalid;
+
+	/** SimpleKMeans with the same setup, as evaluated by KValid. */
+	protected SimpleKMeans m_skmeans;
+
+	/**
+	 * Generates the dataset and builds the clusterer.
+	 *
+	 * @throws Exception if the clusterer could not be built.
+	 */
+	@Setup(Level.Trial)
+	public void setup() throws Exception {
+		m_data   = GaussianBlobs.generate(n, d, k, 1);
+		m_kvalid = newKValid(distance);
+		m_kvalid.setNumClusters(k);
+		m_kvalid.setValidationMethod(new SelectedTag(KValid.ELBOW_METHOD,
+			KValid.VALIDATION_SELECTION));
+		m_kvalid.buildClusterer(m_data);
+
+		m_skmeans = new SimpleKMeans();
+		m_skmeans.setNumClusters(k);
+		m_skmeans.setDistanceFunction(m_kvalid.getDistanceFunction());
+		m_skmeans.buildClusterer(m_data);
+	}
+
+	/**
+	 * Creates a KValid with the given distance function.
+	 *
+	 * @param distance distance name: "Euclidean", "Manhattan", "Chebyshev" or "Cosine".
+	 * @return Returns the clusterer.
+	 * @throws Exception if the distance is not supported.
+	 */
+	public static KValid newKValid(String distance) throws Exception {
+		KValid kvalid = new KValid();
+		NormalizableDistance df;
+
+		if (distance.equals("Euclidean"))
+			df = new EuclideanDistance();
+		else if (distance.equals("Manhattan"))
+			df = new ManhattanDistance();
+		else if (distance.equals("Chebyshev"))
+			df = new KValidChebyshevDistance();
+		else if (distance.equals("Cosine"))
+			df = new CosineDistance();
+		else
+			throw new Exception("Unknown distance: " + distance);
+
+		kvalid.setDistanceFunction(df);
+		return kvalid;
+	}
+
+	/**
+	 * Silhouette-Index of the current clustering.
+	 *
+	 * @return Returns the global silhouette.
+	 * @throws Exception if the evaluation fails.
+	 */
+	@Benchmark
+	public double silhouette() throws Exception {
+		SilhouetteIndex si = new SilhouetteIndex();
+		si.evaluate(m_skmeans, m_skmeans.getClusterCentroids(), m_data,
+			m_skmeans.getDistanceFunction());
+		return si.getGlobalSilhouette();
+	}
+
+	/**
+	 * Within cluster sum of squared errors, as SimpleKMeans computes it:
+	 * squared for Euclidean, plain distances otherwise.
+	 *
+	 * @return Returns the SSE.
+	 * @throws Exception if an instance could not be assigned.
+	 */
+	@Benchmark
+	public double squaredError() throws Exception {
+		boolean squared = m_kvalid.getDistanceFunction() instanceof EuclideanDistance;
+		double sse = 0;
+
+		for (int i = 0; i < m_data.numInstances(); i++) {
+			Instance inst = m_data.instance(i);
+			double dist = m_kvalid.distanceToCentroid(inst, m_kvalid.clusterInstance(inst));
+			sse += (squared) ? dist * dist : dist;
+		}
+		return sse;
+	}
+
+	/**
+	 * Assigns every instance of the dataset.
+	 *
+	 * @return Returns a checksum of the assignments.
+	 * @throws Exception if an instance could not be assigned.
+	 */
+	@Benchmark
+	public long clusterInstance() throws Exception {
+		long sum = 0;
+		for (int i = 0; i < m_data.numInstances(); i++)
+			sum += m_kvalid.clusterInstance(m_data.instance(i));
+		return sum;
+	}
+}
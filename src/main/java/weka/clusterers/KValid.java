@@ -22,7 +22,10 @@
 
 package weka.clusterers;
 
+import java.io.File;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Enumeration;
 import java.util.HashMap;
@@ -33,21 +36,27 @@ import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.TimeoutException;
 import java.util.Locale;
 
 import weka.classifiers.rules.DecisionTableHashKey;
+import weka.core.AdditionalMeasureProducer;
 import weka.core.Attribute;
 import weka.core.Capabilities;
 import weka.core.Capabilities.Capability;
+import weka.core.ChebyshevDistance;
 import weka.core.DenseInstance;
 import weka.core.DistanceFunction;
 import weka.core.EuclideanDistance;
 import weka.core.Instance;
 import weka.core.Instances;
 import weka.core.ManhattanDistance;
+import weka.core.NormalizableDistance;
 import weka.core.Option;
+import weka.core.Range;
 import weka.core.RevisionUtils;
 import weka.core.SelectedTag;
+import weka.core.SparseInstance;
 import weka.core.Tag;
 import weka.core.TechnicalInformation;
 import weka.core.TechnicalInformation.Field;
@@ -55,11 +64,24 @@ import weka.core.TechnicalInformation.Type;
 import weka.core.TechnicalInformationHandler;
 import weka.core.Utils;
 import weka.core.WeightedInstancesHandler;
-import weka.filters.Filter;
-import weka.filters.unsupervised.attribute.ReplaceMissingValues;
 
+import weka.clusterers.kvalid.Checkpoint;
+import weka.clusterers.kvalid.CosineDistance;
+import weka.clusterers.kvalid.DataSnapshot;
+import weka.clusterers.kvalid.EvaluationPlanner;
+import weka.clusterers.kvalid.KResult;
+import weka.clusterers.kvalid.KValidChebyshevDistance;
+import weka.clusterers.kvalid.OnlineUpdater;
+import weka.clusterers.kvalid.ResultCache;
 import weka.clusterers.kvalid.SilhouetteIndex;
+import weka.clusterers.kvalid.SilhouetteWriter;
+import weka.clusterers.kvalid.SparseEuclideanDistance;
+import weka.clusterers.kvalid.SparseManhattanDistance;
+import weka.clusterers.kvalid.StabilityIndex;
 import weka.clusterers.kvalid.GraphPlotter;
+import weka.clusterers.kvalid.ScoringModel;
+
+import org.jfree.data.category.DefaultCategoryDataset;
 
 /**
  * <!-- globalinfo-start --> KValid: SimpleKMeans with validation.
@@ -75,7 +97,8 @@ import weka.clusterers.kvalid.GraphPlotter;
  * @version $Revision: 0001 $
  */
 public class KValid extends RandomizableClusterer implements
-  NumberOfClustersRequestable, WeightedInstancesHandler {
+  NumberOfClustersRequestable, WeightedInstancesHandler, AdditionalMeasureProducer,
+  UpdateableClusterer {
 
 	/** Serialization */
 	static final long serialVersionUID = -206633168493633341L;
@@ -101,14 +124,21 @@ public class KValid extends RandomizableClusterer implements
 	/** Validation attributes. */
 	public static final int SILHOUETTE_INDEX = 0;
 	public static final int ELBOW_METHOD     = 1;
+	public static final int AUTO             = 2;
+	public static final int STABILITY        = 3;
 
     /** Validation method to use. */
     protected int m_validationMethod = SILHOUETTE_INDEX;
 
+	/** Text for the k values skipped. */
+	protected static final String SKIPPED = "   skipped (time budget exceeded or interrupted)";
+
 	/** Validation attributes. */
 	public static final Tag[] VALIDATION_SELECTION = {
 		new Tag(SILHOUETTE_INDEX, "Silhouette Index"),
-		new Tag(ELBOW_METHOD, "Elbow method") };
+		new Tag(ELBOW_METHOD, "Elbow method"),
+		new Tag(AUTO, "Automatic (planned Silhouette Index)"),
+		new Tag(STABILITY, "Bootstrap stability (ARI)") };
 
 	/** The initialization method to use */
 	protected int m_initializationMethod = weka.clusterers.SimpleKMeans.RANDOM;
@@ -125,11 +155,8 @@ public class KValid extends RandomizableClusterer implements
 	/** Cascade. */
 	protected boolean m_cascade = false;
 
-	/** SilhouetteIndex. */
-	protected ArrayList<SilhouetteIndex> m_silhouetteIdx;
-
-	/** Elbow. */
-	protected ArrayList<Double> m_elbow;
+	/** Results of each k. */
+	protected KResult[] m_results;
 
 	/** Best K. */
 	protected int m_bestK = 0;
@@ -137,6 +164,87 @@ public class KValid extends RandomizableClusterer implements
 	/** Show graph?. */
 	protected boolean m_showGraph = false;
 
+	/** Graph file, PNG or SVG, empty for none. */
+	protected String m_graphFile = "";
+
+	/** Dataset of the graph shown during a build, updated as each k is done. */
+	protected transient DefaultCategoryDataset m_liveGraph = null;
+
+	/** Use the results cache?. */
+	protected boolean m_useCache = false;
+
+	/** Results cache directory, empty for memory only. */
+	protected String m_cacheDirectory = "";
+
+	/** Results cache size on disk, in MB. */
+	protected int m_cacheSize = 256;
+
+	/** Checkpoint file, empty for none. */
+	protected String m_checkpointFile = "";
+
+	/** Resume from the checkpoint file?. */
+	protected boolean m_resume = false;
+
+	/** Time budget for the cascade, in seconds, 0 for none. */
+	protected double m_timeBudget = 0;
+
+	/** Show the instrumentation summary?. */
+	protected boolean m_showStats = false;
+
+	/** Distance function of the last build: the one set, or its sparse version. */
+	protected DistanceFunction m_buildDistance = m_distanceFunction;
+
+	/** Evaluation plan of the last build, if automatic. */
+	protected EvaluationPlanner m_plan = null;
+
+	/** Preprocessed training data, shared by all k during a build. */
+	protected transient DataSnapshot m_snapshot = null;
+
+	/** Keep the silhouette distance cache in single precision?. */
+	protected boolean m_singlePrecision = false;
+
+	/** Single precision of the last build: -1 if not applied, or the distance error bound. */
+	protected double m_precisionError = -1;
+
+	/** Single precision of the last build: rounding error of the values. */
+	protected double m_roundingError = 0;
+
+	/** Keep the silhouette distance cache outside the heap?. */
+	protected boolean m_offHeap = false;
+
+	/** Off-heap storage of the last build: -1 if not applied, or its size in bytes. */
+	protected long m_offHeapSize = -1;
+
+	/** Silhouette b(i) over all the other clusters?. */
+	protected boolean m_allClusters = false;
+
+	/** Sequential updates of the selected k, if any. */
+	protected OnlineUpdater m_updater = null;
+
+	/** Scoring snapshot of the selected k, created on demand. */
+	protected transient volatile ScoringModel m_scoringModel = null;
+
+	/** Distinct instances seeding an incremental training, at most k, null once seeded. */
+	protected Instances m_seedInstances = null;
+
+	/** Number of occurrences of each seed instance. */
+	protected double[] m_seedCounts = null;
+
+	/** Number of instances received by the incremental training while seeding. */
+	protected long m_numSeedUpdates = 0;
+
+	/** Per-point silhouettes file, empty for none. */
+	protected String m_pointsFile = "";
+
+	/** Number of bootstrap resamples of the stability validation. */
+	protected int m_numResamples = 20;
+
+	/** Threads training the bootstrap resamples, 0 for the available processors. */
+	protected int m_numThreads = 0;
+
+	/** Per-point silhouettes output, during a build. */
+	protected transient SilhouetteWriter m_pointsWriter = null;
+
 	/** Default constructor. */
 	public KValid() {
 		super();
@@ -177,13 +285,28 @@ public class KValid extends RandomizableClusterer implements
 	}
 
 	/**
-	 * Generates a clusterer.
+	 * Generates a clusterer. An empty dataset, as given by the Weka
+	 * incremental training, starts an incremental k-means instead: see
+	 * updateClusterer().
 	 * 
 	 * @param data set of instances serving as training data
 	 * @throws Exception if the clusterer has not been generated successfully
 	 */
 	@Override
 	public void buildClusterer(Instances data) throws Exception {
+		m_seedInstances  = null;
+		m_seedCounts     = null;
+		m_numSeedUpdates = 0;
+		m_scoringModel   = null;
+		if (data.numInstances() == 0) {
+			m_seedInstances = new Instances(data, m_numClusters);
+			m_seedCounts    = new double[m_numClusters];
+			m_skmeans       = null;
+			m_updater       = null;
+			m_results       = null;
+			return;
+		}
+
 		int start   = m_numClusters;
 		int end     = m_numClusters;
 		m_instances = data;
@@ -198,84 +321,507 @@ public class KValid extends RandomizableClusterer implements
 			end   = m_maximumK;
 		}
 
-		m_silhouetteIdx = new ArrayList<SilhouetteIndex>();
-		m_elbow = new ArrayList<Double>();
-
-		/* Cascade k-Means. */
-		for (int i = start; i <= end; i++) {
-
-			m_skmeans = new SimpleKMeans();
-
-			/* Setup the configs. */
-			m_skmeans.setInitializationMethod(new SelectedTag(m_initializationMethod,
-				weka.clusterers.SimpleKMeans.TAGS_SELECTION));
-
-			/* Set seed. */
-			m_skmeans.setSeed(m_SeedDefault);
-
-			/* Num clusters. */
-			m_skmeans.setNumClusters(i);
-			
-			/* Distance function. */
-			m_skmeans.setDistanceFunction(m_distanceFunction);
-			
-			/* Max iterations. */
-			m_skmeans.setMaxIterations(m_maxInteration);
+		/* Results cache and checkpoint, both keyed by the same fingerprint. */
+		ResultCache cache = null;
+		Checkpoint checkpoint = null;
+		String key = null;
+
+		if (m_useCache == true || m_checkpointFile.length() > 0)
+			key = ResultCache.fingerprint(data, getCacheOptions());
+
+		if (m_useCache == true)
+			cache = new ResultCache((m_cacheDirectory.length() > 0) ?
+				new File(m_cacheDirectory) : null, (long) m_cacheSize << 20);
+
+		if (m_checkpointFile.length() > 0)
+			checkpoint = new Checkpoint(new File(m_checkpointFile), key, m_resume);
+		else if (m_resume == true)
+			throw new Exception("Resume requires a checkpoint file!");
+
+		m_results = new KResult[end - start + 1];
+		m_skmeans = null;
+		m_updater = null;
+
+		/* Missing values, ranges and nominal codes, once for all k. */
+		m_snapshot = new DataSnapshot(data);
+		m_snapshot.setSinglePrecision(m_singlePrecision);
+		m_snapshot.setOffHeap(m_offHeap);
+		data = m_snapshot.getData();
+		m_buildDistance = buildDistance(data);
+
+		m_precisionError = -1;
+		if (m_snapshot.prepare(m_buildDistance) && m_singlePrecision) {
+			m_precisionError = m_snapshot.getDistanceErrorBound();
+			m_roundingError  = m_snapshot.getRoundingError();
+		}
+		m_offHeapSize = m_snapshot.getOffHeapSize();
+
+		/* Picks the evaluation strategy before any k is built. */
+		m_plan = null;
+		if (m_validationMethod == AUTO) {
+			m_plan = new EvaluationPlanner(m_timeBudget);
+			m_plan.setAllClusters(m_allClusters);
+			m_plan.plan(data, m_buildDistance, start, end);
+		}
 
-			/* Build clusterer. */
-			m_skmeans.buildClusterer(data);
+		if (m_pointsFile.length() > 0 && usesSilhouette())
+			m_pointsWriter = new SilhouetteWriter(new File(m_pointsFile));
 
-			/* Gets the validation, Silhouette or something else. */
-			if (m_validationMethod == SILHOUETTE_INDEX) {
+		/* Live graph, filled as each k is done. */
+		m_liveGraph = null;
+		if (m_cascade == true && m_showGraph == true && GraphPlotter.canShow()) {
+			m_liveGraph = GraphPlotter.createDataset(graphValues(), start);
+			String[] titles = graphTitles();
+			GraphPlotter.show(titles[0], GraphPlotter.createChart(m_liveGraph, titles[1],
+				titles[2], "k - value", titles[3]));
+		}
 
-				m_silhouetteIdx.add(new SilhouetteIndex());
-				
-				m_silhouetteIdx.get(i - start).evaluate(m_skmeans, m_skmeans.getClusterCentroids(),
-					m_instances, m_distanceFunction);
-			}
-			else if (m_validationMethod == ELBOW_METHOD) {
+		boolean interrupted;
+		try {
+			interrupted = buildResults(data, start, end, cache, checkpoint, key);
+		}
+		finally {
+			if (checkpoint != null)
+				checkpoint.close();
+			if (m_pointsWriter != null)
+				m_pointsWriter.close();
+			m_pointsWriter = null;
+			m_liveGraph = null;
+		}
 
-				m_elbow.add( m_skmeans.getSquaredError() );
-			}
+		/* Stopped before any k was done, nothing to return. */
+		if (numEvaluated() == 0) {
+			if (interrupted)
+				Thread.currentThread().interrupt();
+			throw new Exception("KValid: stopped before any k was evaluated!");
 		}
 
 		/* Gets the 'best' K if cascade enable. */
 		if (m_cascade == true) {
+			m_bestK = 0;
 			
-			if (m_validationMethod == SILHOUETTE_INDEX) {
+			if (usesSilhouette()) {
 				double si = 0;
-				for (int i = 0; i < m_silhouetteIdx.size(); i++) {
-					if (m_silhouetteIdx.get(i).getGlobalSilhouette() > si) {
-						si  = m_silhouetteIdx.get(i).getGlobalSilhouette();
+				for (int i = 0; i < m_results.length; i++) {
+					if (m_results[i] == null)
+						continue;
+					if (m_results[i].getSilhouette().getGlobalSilhouette() > si) {
+						si  = m_results[i].getSilhouette().getGlobalSilhouette();
+						m_bestK = i;
+					}
+				}
+			}
+			else if (m_validationMethod == STABILITY) {
+				double ari = Double.NEGATIVE_INFINITY;
+				for (int i = 0; i < m_results.length; i++) {
+					if (m_results[i] == null)
+						continue;
+					if (m_results[i].getStability().getMean() > ari) {
+						ari = m_results[i].getStability().getMean();
 						m_bestK = i;
 					}
 				}
 			}
 			else if (m_validationMethod == ELBOW_METHOD) {
 				double elb = 0.0;
-				for (int i = 0; i < m_elbow.size(); i++) {
-					if (m_elbow.get(i) > elb) {
-						elb = m_elbow.get(i);
+				for (int i = 0; i < m_results.length; i++) {
+					if (m_results[i] == null)
+						continue;
+					if (m_results[i].getSquaredError() > elb) {
+						elb = m_results[i].getSquaredError();
 						m_bestK = i;
 					}
 				}
 			}
 
-			/* Repeats the clustering for the best K. */
+			/* Repeats the clustering for the best K, if not the last one built. */
 			m_bestK += start;
-			m_skmeans = new SimpleKMeans();
-			
-			/* Initialize and run k-Means again. */
-			m_skmeans.setInitializationMethod(new SelectedTag(m_initializationMethod,
-				weka.clusterers.SimpleKMeans.TAGS_SELECTION));
-			
-			m_skmeans.setSeed(m_SeedDefault);
-			m_skmeans.setNumClusters(m_bestK);
-			m_skmeans.setDistanceFunction(m_distanceFunction);
-			m_skmeans.setMaxIterations(m_maxInteration);
-			m_skmeans.buildClusterer(data);
+			if (m_skmeans == null || m_skmeans.getNumClusters() != m_bestK)
+				m_skmeans = buildKMeans(m_bestK, data);
+
 			setNumClusters(m_bestK);
+
+			/* Saves the graph, no display needed. */
+			if (m_graphFile.length() > 0) {
+				String[] titles = graphTitles();
+				GraphPlotter.save(GraphPlotter.createChart(GraphPlotter.createDataset(
+					graphValues(), start), titles[1], titles[2], "k - value", titles[3]),
+					new File(m_graphFile));
+			}
+		}
+		else if (m_skmeans == null)
+			m_skmeans = buildKMeans(start, data);
+
+		/* The model keeps only the replacement filter, inside m_skmeans. */
+		m_snapshot = null;
+
+		/* Let the caller know about the interruption. */
+		if (interrupted)
+			Thread.currentThread().interrupt();
+	}
+
+	/**
+	 * Returns the number of k values evaluated in the last build, i.e:
+	 * not skipped by the time budget or an interruption.
+	 *
+	 * @return Returns the number of k values evaluated.
+	 */
+	public int numEvaluated() {
+		int n = 0;
+		if (m_results != null)
+			for (int i = 0; i < m_results.length; i++)
+				if (m_results[i] != null)
+					n++;
+		return n;
+	}
+
+	/**
+	 * Checks if the validation method needs the Silhouette-Index.
+	 *
+	 * @return Returns true if the silhouette is evaluated.
+	 */
+	protected boolean usesSilhouette() {
+		return m_validationMethod == SILHOUETTE_INDEX || m_validationMethod == AUTO;
+	}
+
+	/**
+	 * Checks if a result found in the checkpoint or cache can be used
+	 * as is, i.e: it has the silhouette the validation method asks for.
+	 * When the per-point silhouettes are written, every k is evaluated
+	 * again, so the file is complete.
+	 *
+	 * @param r result.
+	 * @return Returns true if it can be reused.
+	 */
+	protected boolean acceptsResult(KResult r) {
+		SilhouetteIndex si = r.getSilhouette();
+
+		if (m_validationMethod == STABILITY)
+			return r.getStability() != null;
+		if (!usesSilhouette())
+			return true;
+		if (si == null || m_pointsWriter != null)
+			return false;
+		if (m_plan != null)
+			return m_plan.accepts(si);
+		return si.isExact();
+	}
+
+	/**
+	 * Gets the evaluation plan of the last build.
+	 *
+	 * @return Returns the plan, or null if the validation is not automatic.
+	 */
+	public EvaluationPlanner getEvaluationPlan() {
+		return m_plan;
+	}
+
+	/**
+	 * Gets the per-k results of the last build, from the smallest k to
+	 * the largest; the k values skipped are null.
+	 *
+	 * @return Returns the results, or null if not built yet.
+	 */
+	public KResult[] getResults() {
+		return m_results;
+	}
+
+	/**
+	 * Gets the value plotted for a k: the silhouette, the squared error
+	 * or the mean ARI, as the validation method.
+	 *
+	 * @param r result of the k, or null if not evaluated.
+	 * @return Returns the value, or null.
+	 */
+	protected Double graphValue(KResult r) {
+		if (r == null)
+			return null;
+		if (usesSilhouette())
+			return r.getSilhouette().getGlobalSilhouette();
+		if (m_validationMethod == STABILITY)
+			return r.getStability().getMean();
+		return r.getSquaredError();
+	}
+
+	/**
+	 * Gets the values plotted for the k values of the last build.
+	 *
+	 * @return Returns the values, null for the k values not evaluated.
+	 */
+	protected ArrayList<Double> graphValues() {
+		ArrayList<Double> dataSet = new ArrayList<Double>();
+		for (int i = 0; i < m_results.length; i++)
+			dataSet.add(graphValue(m_results[i]));
+		return dataSet;
+	}
+
+	/**
+	 * Gets the graph titles of the validation method: window title,
+	 * title, subtitle and Y label.
+	 *
+	 * @return Returns the titles.
+	 */
+	protected String[] graphTitles() {
+		String subTitle = "for k ranging between " + m_minimumK + " and " + m_maximumK;
+
+		if (usesSilhouette())
+			return new String[] { "KValid - Silhouette Index", "Silhouette analysis for KMeans",
+				subTitle, "Silhouette Index" };
+		if (m_validationMethod == STABILITY)
+			return new String[] { "KValid - Bootstrap stability", "Stability analysis for KMeans",
+				subTitle, "Mean ARI" };
+		return new String[] { "KValid - Elbow method", "Elbow analysis for KMeans",
+			subTitle, "Elbow (SSE)" };
+	}
+
+	/**
+	 * Computes the results of each k in the range, reusing the ones
+	 * found in the checkpoint or in the cache.
+	 *
+	 * When a time budget is set, the k values are evaluated in a
+	 * coarse-to-fine order and the ones not reached in time are left
+	 * as null. The same happens if the thread is interrupted.
+	 *
+	 * @param data       training data.
+	 * @param start      first k.
+	 * @param end        last k.
+	 * @param cache      results cache, or null.
+	 * @param checkpoint checkpoint file, or null.
+	 * @param key        fingerprint of the dataset and options.
+	 * @return Returns true if the thread was interrupted.
+	 * @throws Exception if some k could not be built or evaluated.
+	 */
+	protected boolean buildResults(Instances data, int start, int end, ResultCache cache,
+		Checkpoint checkpoint, String key) throws Exception {
+
+		boolean budget = (m_cascade == true && m_timeBudget > 0);
+		long deadline  = System.nanoTime() + (long) (m_timeBudget * 1e9);
+
+		for (int i : evaluationOrder(start, end)) {
+			KResult r = null;
+
+			/* Stops cleanly, keeping the k values already done. */
+			if (Thread.interrupted())
+				return true;
+			if (budget && System.nanoTime() - deadline > 0)
+				return false;
+
+			if (checkpoint != null)
+				r = checkpoint.get(i);
+			if (r == null && cache != null)
+				r = cache.get(key, i);
+
+			/* Only the k values not seen yet are computed. */
+			if (r == null || !acceptsResult(r)) {
+				try {
+					r = computeResult(i, data, budget, deadline);
+				}
+				catch (InterruptedException e) {
+					Thread.interrupted();
+					return true;
+				}
+				catch (TimeoutException e) {
+					return false;
+				}
+
+				if (cache != null)
+					cache.put(key, r);
+			}
+
+			if (checkpoint != null && checkpoint.get(i) != r)
+				checkpoint.append(r);
+
+			m_results[i - start] = r;
+			if (m_liveGraph != null)
+				GraphPlotter.update(m_liveGraph, i, graphValue(r));
+		}
+		return false;
+	}
+
+	/**
+	 * Builds and evaluates a given k.
+	 *
+	 * @param k        number of clusters.
+	 * @param data     training data.
+	 * @param budget   true if there is a deadline.
+	 * @param deadline deadline, as given by System.nanoTime().
+	 * @return Returns the result of k.
+	 * @throws Exception if the k could not be built or evaluated, or
+	 * the evaluation was stopped.
+	 */
+	protected KResult computeResult(int k, Instances data, boolean budget,
+		long deadline) throws Exception {
+
+		long time = System.nanoTime();
+
+		m_skmeans = buildKMeans(k, data);
+		KResult r = new KResult(k, m_skmeans.getSquaredError(), m_skmeans.getClusterCentroids());
+
+		/* SimpleKMeans does not count its distances: one pass of n x k per iteration. */
+		r.setBuildStats(System.nanoTime() - time, m_skmeans.m_Iterations,
+			(long) m_skmeans.m_Iterations * data.numInstances() * k);
+
+		/* Gets the validation, Silhouette or something else. */
+		if (usesSilhouette()) {
+			SilhouetteIndex si = new SilhouetteIndex();
+			if (m_plan != null)
+				m_plan.configure(si);
+			if (budget)
+				si.setDeadline(deadline);
+
+			si.setSnapshot(m_snapshot);
+			si.setAllClusters(m_allClusters);
+			si.setPointsWriter(m_pointsWriter);
+			si.evaluate(m_skmeans, m_skmeans.getClusterCentroids(),
+				data, m_buildDistance);
+			r.setSilhouette(si);
+		}
+		else if (m_validationMethod == STABILITY) {
+			StabilityIndex st = new StabilityIndex();
+			st.setNumResamples(m_numResamples, getSeed());
+			st.setNumThreads(m_numThreads);
+			if (budget)
+				st.setDeadline(deadline);
+
+			st.evaluate(m_skmeans, m_skmeans.getClusterCentroids(),
+				data, m_buildDistance);
+			r.setStability(st);
+		}
+
+		r.setElapsedTime(System.nanoTime() - time);
+		return r;
+	}
+
+	/**
+	 * Gets the order in which the k values are evaluated: ascending,
+	 * or coarse-to-fine (ends, middle, quarters...) when there is a time
+	 * budget, so a partial run still spans the whole range.
+	 *
+	 * @param start first k.
+	 * @param end   last k.
+	 * @return Returns the k values, in evaluation order.
+	 */
+	protected int[] evaluationOrder(int start, int end) {
+		int[] order = new int[end - start + 1];
+		int n = 0;
+
+		if (m_cascade == false || m_timeBudget <= 0 || end - start < 2) {
+			for (int i = start; i <= end; i++)
+				order[n++] = i;
+			return order;
 		}
+
+		order[n++] = start;
+		order[n++] = end;
+
+		/* Splits the intervals, in breadth-first order. */
+		ArrayDeque<int[]> intervals = new ArrayDeque<int[]>();
+		intervals.add(new int[] { start, end });
+
+		while (!intervals.isEmpty()) {
+			int[] iv = intervals.poll();
+			if (iv[1] - iv[0] < 2)
+				continue;
+
+			int mid = (iv[0] + iv[1]) >>> 1;
+			order[n++] = mid;
+			intervals.add(new int[] { iv[0], mid });
+			intervals.add(new int[] { mid, iv[1] });
+		}
+		return order;
+	}
+
+	/**
+	 * Builds a SimpleKMeans for a given k, using the current settings.
+	 * The missing values were already replaced by the snapshot, whose
+	 * filter is then handed to the clusterer, so it assigns new instances
+	 * and describes itself as if it had replaced them.
+	 *
+	 * @param k    number of clusters.
+	 * @param data training data, from the snapshot.
+	 * @return Returns the clusterer built.
+	 * @throws Exception if the clusterer could not be built.
+	 */
+	protected SimpleKMeans buildKMeans(int k, Instances data) throws Exception {
+		SimpleKMeans skmeans = new SimpleKMeans();
+
+		/* Setup the configs. */
+		skmeans.setInitializationMethod(new SelectedTag(m_initializationMethod,
+			weka.clusterers.SimpleKMeans.TAGS_SELECTION));
+
+		/* Set seed. */
+		skmeans.setSeed(m_SeedDefault);
+
+		/* Num clusters. */
+		skmeans.setNumClusters(k);
+
+		/* Distance function. */
+		skmeans.setDistanceFunction(m_buildDistance);
+
+		/* Max iterations. */
+		skmeans.setMaxIterations(m_maxInteration);
+
+		/* Build clusterer, over the data already without missing values. */
+		skmeans.setDontReplaceMissingValues(true);
+		skmeans.buildClusterer(data);
+
+		skmeans.m_ReplaceMissingFilter = m_snapshot.getReplaceMissingFilter();
+		skmeans.setDontReplaceMissingValues(false);
+		return skmeans;
+	}
+
+	/**
+	 * Gets the distance function for a given dataset: for sparse data,
+	 * the Euclidean and Manhattan distances are replaced by versions that
+	 * compute the distances to the centroids in O(nnz) instead of O(d),
+	 * so the k-means, the assignments and the evaluation scale with the
+	 * non-zero values. The Weka Chebyshev distance, not accepted by
+	 * SimpleKMeans, is replaced by an equivalent one that is.
+	 *
+	 * @param data training data.
+	 * @return Returns the distance function to use.
+	 * @throws Exception if the distance function could not be copied.
+	 */
+	protected DistanceFunction buildDistance(Instances data) throws Exception {
+		boolean sparse = false;
+		for (int i = 0; i < data.numInstances() && !sparse; i++)
+			sparse = data.instance(i) instanceof SparseInstance;
+
+		if (sparse && m_distanceFunction.getClass() == EuclideanDistance.class)
+			return new SparseEuclideanDistance((EuclideanDistance) m_distanceFunction);
+		if (sparse && m_distanceFunction.getClass() == ManhattanDistance.class)
+			return new SparseManhattanDistance((ManhattanDistance) m_distanceFunction);
+		if (m_distanceFunction instanceof ChebyshevDistance)
+			return new KValidChebyshevDistance((ChebyshevDistance) m_distanceFunction);
+
+		return m_distanceFunction;
+	}
+
+	/**
+	 * Gets the options that change the per-k results, i.e: all the
+	 * options but the k range, the validation method and the cache
+	 * and graph settings. Used to key the results cache.
+	 *
+	 * @return Returns the options.
+	 */
+	protected String[] getCacheOptions() {
+		String[] options = getOptions();
+		Vector<String> result = new Vector<String>();
+
+		for (int i = 0; i < options.length; i++) {
+			String o = options[i];
+
+			if (o.equals("-N") || o.equals("-minK") || o.equals("-maxK")
+				|| o.equals("-validation") || o.equals("-cache-dir") || o.equals("-cache-size")
+				|| o.equals("-checkpoint") || o.equals("-time-budget") || o.equals("-points")
+				|| o.equals("-threads") || o.equals("-graph-file"))
+				i++;
+			else if (!o.equals("-cascade") && !o.equals("-show-graph") && !o.equals("-cache")
+				&& !o.equals("-resume") && !o.equals("-stats"))
+				result.add(o);
+		}
+
+		return result.toArray(new String[result.size()]);
 	}
 
 	/**
@@ -294,6 +840,240 @@ public class KValid extends RandomizableClusterer implements
 			return m_skmeans.clusterInstance(instance);
 	}
 
+	/**
+	 * Returns the distance between a given instance and the centroid of
+	 * a given cluster. It is computed by the scoring model, which
+	 * replaces the missing values as clusterInstance does without the
+	 * shared filter, so it may be called from several threads.
+	 *
+	 * @param instance the instance.
+	 * @param cluster  the cluster index.
+	 * @return Returns the distance to the cluster centroid.
+	 * @throws Exception if the clusterer was not built yet, or its
+	 *         distance function is not supported by the scoring model.
+	 */
+	public double distanceToCentroid(Instance instance, int cluster) throws Exception {
+		return getScoringModel().distanceToCentroid(instance, cluster);
+	}
+
+	/**
+	 * Adds a new instance to the clusterer built: it goes to the nearest
+	 * cluster of the selected k, whose centroid, size and squared error
+	 * are updated (sequential k-means), without another pass over the
+	 * data. The k itself is not revised.
+	 *
+	 * After an empty build (incremental training), the first k distinct
+	 * instances seed the k-means, one cluster each, and the next ones are
+	 * added as above, the normalization ranges following the stream; the
+	 * clusterer can be used after every instance, and only the seed is
+	 * kept in memory.
+	 *
+	 * @param instance the new instance.
+	 * @throws Exception if the clusterer was not built yet.
+	 */
+	@Override
+	public void updateClusterer(Instance instance) throws Exception {
+		if (m_seedInstances != null && seed(instance))
+			return;
+
+		if (m_skmeans == null)
+			throw new Exception("The clusterer was not build yet!");
+
+		if (m_updater == null) {
+			m_updater = new OnlineUpdater(m_skmeans.m_ClusterCentroids, m_skmeans.m_ClusterSizes,
+				m_skmeans.m_squaredErrors, m_skmeans.m_ClusterNominalCounts,
+				m_skmeans.getDistanceFunction());
+			m_updater.setUpdateRanges(m_results == null);
+		}
+
+		/* Same missing values replacement of clusterInstance(). */
+		Instance inst = instance;
+		if (m_skmeans.m_ReplaceMissingFilter != null) {
+			m_skmeans.m_ReplaceMissingFilter.input(inst);
+			m_skmeans.m_ReplaceMissingFilter.batchFinished();
+			inst = m_skmeans.m_ReplaceMissingFilter.output();
+		}
+
+		/* Unit rows, as the k-means was trained on. */
+		if (m_skmeans.getDistanceFunction() instanceof CosineDistance) {
+			inst = (Instance) inst.copy();
+			((CosineDistance) m_skmeans.getDistanceFunction()).unitLength(inst);
+		}
+
+		m_updater.update(inst);
+		m_scoringModel = null;
+	}
+
+	/**
+	 * Seeds the incremental training with a given instance: a new
+	 * distinct instance becomes a cluster of its own and the k-means is
+	 * rebuilt over the seed, a repeated one only counts in its cluster.
+	 * Once k distinct instances are seen, the seed is released.
+	 *
+	 * @param instance the new instance.
+	 * @return Returns true if the instance was taken by the seed, false
+	 *         if the seed is complete and the instance must be added as
+	 *         any other.
+	 * @throws Exception if the seed k-means could not be built.
+	 */
+	protected boolean seed(Instance instance) throws Exception {
+		if (m_seedInstances.numInstances() == m_seedCounts.length) {
+			m_seedInstances = null;
+			m_seedCounts    = null;
+			return false;
+		}
+
+		double[] values = instance.toDoubleArray();
+		int row = -1;
+		for (int i = 0; i < m_seedInstances.numInstances() && row < 0; i++)
+			if (Arrays.equals(values, m_seedInstances.instance(i).toDoubleArray()))
+				row = i;
+
+		m_numSeedUpdates++;
+		if (row < 0) {
+			m_seedInstances.add(new DenseInstance(1.0, values));
+			m_seedCounts[m_seedInstances.numInstances() - 1] = 1;
+		}
+		else
+			m_seedCounts[row]++;
+
+		/* One cluster per seed instance, over the seed alone. */
+		m_snapshot = new DataSnapshot(m_seedInstances);
+		try {
+			Instances data  = m_snapshot.getData();
+			m_buildDistance = buildDistance(data);
+			m_snapshot.prepare(m_buildDistance);
+			m_skmeans = buildKMeans(data.numInstances(), data);
+		}
+		finally {
+			m_snapshot = null;
+		}
+		m_updater = null;
+		m_scoringModel = null;
+
+		/* Cluster sizes and nominal counts weighted by the repetitions. */
+		double[] sizes = new double[m_skmeans.getNumClusters()];
+		for (int i = 0; i < m_seedInstances.numInstances(); i++)
+			sizes[m_skmeans.clusterInstance(m_seedInstances.instance(i))] += m_seedCounts[i];
+
+		for (int c = 0; c < sizes.length; c++) {
+			double scale = sizes[c] / m_skmeans.m_ClusterSizes[c];
+			for (double[] counts : m_skmeans.m_ClusterNominalCounts[c])
+				for (int v = 0; counts != null && v < counts.length; v++)
+					counts[v] *= scale;
+			m_skmeans.m_squaredErrors[c] *= scale;
+			m_skmeans.m_ClusterSizes[c] = sizes[c];
+		}
+		return true;
+	}
+
+	/**
+	 * Signals the end of the updates. There is nothing to do, the
+	 * clusterer and its squared error are always up to date.
+	 */
+	@Override
+	public void updateFinished() {
+	}
+
+	/**
+	 * Gets the current squared error of the selected k, updates included.
+	 *
+	 * @return Returns the squared error.
+	 * @throws Exception if the clusterer was not built yet.
+	 */
+	public double getSquaredError() throws Exception {
+		if (m_skmeans == null)
+			throw new Exception("The clusterer was not build yet!");
+		return m_skmeans.getSquaredError();
+	}
+
+	/**
+	 * Gets the number of instances added by updateClusterer() since
+	 * the last build.
+	 *
+	 * @return Returns the number of updates.
+	 */
+	public long getNumUpdates() {
+		return m_numSeedUpdates + ((m_updater != null) ? m_updater.getNumUpdates() : 0);
+	}
+
+	/**
+	 * Gets the lean scoring model: centroids, normalization ranges,
+	 * missing values replacement and distance type, nothing else.
+	 *
+	 * Unlike clusterInstance(), which goes through the filter and the
+	 * distance function of SimpleKMeans, the scoring model is immutable
+	 * and may be shared by any number of threads, assigning the same
+	 * clusters. It is created once and kept until the next build or
+	 * update, which do not change the snapshots already returned.
+	 *
+	 * @return Returns the scoring model.
+	 * @throws Exception if the clusterer was not built yet, or its
+	 *         distance function is not supported.
+	 */
+	public ScoringModel getScoringModel() throws Exception {
+		ScoringModel model = m_scoringModel;
+		if (model != null)
+			return model;
+
+		synchronized (this) {
+			if (m_scoringModel == null)
+				m_scoringModel = createScoringModel();
+			return m_scoringModel;
+		}
+	}
+
+	/**
+	 * Creates the scoring model of the selected k.
+	 *
+	 * @return Returns the scoring model.
+	 * @throws Exception if the clusterer was not built yet, or its
+	 *         distance function is not supported.
+	 */
+	protected ScoringModel createScoringModel() throws Exception {
+		if (m_skmeans == null)
+			throw new Exception("The clusterer was not build yet!");
+
+		if (ScoringModel.distanceType(m_skmeans.getDistanceFunction()) < 0)
+			throw new Exception("KValid: the scoring model does not support "
+				+ m_skmeans.getDistanceFunction().getClass().getName() + "!");
+
+		NormalizableDistance df = (NormalizableDistance) m_skmeans.getDistanceFunction();
+		Instances centroids = m_skmeans.getClusterCentroids();
+		int numAttributes   = centroids.numAttributes();
+
+		/* Attributes in use. */
+		Range range = new Range(df.getAttributeIndices());
+		range.setInvert(df.getInvertSelection());
+		range.setUpper(numAttributes - 1);
+
+		boolean[] nominal = new boolean[numAttributes];
+		boolean[] active  = new boolean[numAttributes];
+		for (int j = 0; j < numAttributes; j++) {
+			nominal[j] = centroids.attribute(j).isNominal();
+			active[j]  = range.isInRange(j) && j != df.getInstances().classIndex()
+				&& (centroids.attribute(j).isNominal() || centroids.attribute(j).isNumeric());
+		}
+
+		/* Missing values replacement: filters an instance with all values missing. */
+		double[] replacement = new double[numAttributes];
+		Arrays.fill(replacement, Utils.missingValue());
+		if (m_skmeans.m_ReplaceMissingFilter != null) {
+			Instance missing = new DenseInstance(numAttributes);
+			missing.setDataset(centroids);
+			m_skmeans.m_ReplaceMissingFilter.input(missing);
+			m_skmeans.m_ReplaceMissingFilter.batchFinished();
+			replacement = m_skmeans.m_ReplaceMissingFilter.output().toDoubleArray();
+		}
+
+		double[][] cent = new double[centroids.numInstances()][];
+		for (int i = 0; i < cent.length; i++)
+			cent[i] = centroids.instance(i).toDoubleArray();
+
+		return new ScoringModel(ScoringModel.distanceType(df), df.getDontNormalize(), nominal, active,
+			df.getRanges(), replacement, cent, centroids);
+	}
+
 	/**
 	 * Gets the tip text for this property.
 	 *
@@ -330,7 +1110,10 @@ public class KValid extends RandomizableClusterer implements
 	 * @return Property tip text.
 	 */
 	public String validationMethodTipText() {
-		return "Which validation method: Silhouette Index or Elbow method";
+		return "Which validation method: Silhouette Index, Elbow method, Automatic, i.e: "
+			+ "the Silhouette Index evaluated exactly, sampled or simplified, whatever fits "
+			+ "the time budget (60s if none), or Bootstrap stability, i.e: the mean ARI "
+			+ "between the clusterings of pairs of bootstrap resamples";
 	}
 
 	/**
@@ -434,7 +1217,8 @@ public class KValid extends RandomizableClusterer implements
 	 *         explorer/experimenter gui
 	 */
 	public String distanceFunctionTipText() {
-		return "The distance function to use for comparison";
+		return "The distance function to use for comparison: Euclidean, Manhattan, "
+			+ "Chebyshev or cosine (weka.clusterers.kvalid.CosineDistance)";
 	}
 
 	/**
@@ -453,9 +1237,10 @@ public class KValid extends RandomizableClusterer implements
 	 * @throws Exception if instances cannot be processed
 	 */
 	public void setDistanceFunction(DistanceFunction df) throws Exception {
-		if (!(df instanceof EuclideanDistance) && !(df instanceof ManhattanDistance)) {
-			throw new Exception(
-				"KValid currently only supports the Euclidean and Manhattan distances."); 
+		if (!(df instanceof EuclideanDistance) && !(df instanceof ManhattanDistance)
+			&& !(df instanceof ChebyshevDistance)) {
+			throw new Exception("KValid currently only supports the Euclidean, Manhattan, "
+				+ "Chebyshev and cosine (weka.clusterers.kvalid.CosineDistance) distances."); 
 		}
 		m_distanceFunction = df;
 	}
@@ -551,8 +1336,9 @@ public class KValid extends RandomizableClusterer implements
 	 * @return tip text for this property suitable for displaying in the
 	 *         explorer/experimenter gui
 	 */
-	public String setShowGraphTipText() {
-		return "Show graph: shows the graph representing the results when in cascade mode!";
+	public String showGraphTipText() {
+		return "Show graph: shows the graph representing the results when in cascade mode, "
+			+ "updated as each k is done!";
 	}
 
 	/**
@@ -574,19 +1360,536 @@ public class KValid extends RandomizableClusterer implements
 	}
 
 	/**
-	 * Gets the current settings of KValid.
+	 * Returns the tip text for this property.
 	 * 
-	 * @return An array of strings suitable for passing to setOptions()
+	 * @return tip text for this property suitable for displaying in the
+	 *         explorer/experimenter gui
 	 */
-	@Override
-	public String[] getOptions() {
+	public String graphFileTipText() {
+		return "Graph file: saves the graph of the cascade as SVG (name ending with .svg) or PNG, "
+			+ "no display needed. Empty for none";
+	}
 
-		Vector<String> result = new Vector<String>();
+	/**
+	 * Returns the graph file.
+	 *
+	 * @return the graph file, empty for none.
+	 */
+	public String getGraphFile() {
+		return m_graphFile;
+	}
 
-		result.add("-init");
-		result.add("" + getInitializationMethod().getSelectedTag().getID());
+	/**
+	 * Sets the graph file.
+	 *
+	 * @param file graph file, PNG or SVG, empty for none.
+	 */
+	public void setGraphFile(String file) {
+		m_graphFile = (file == null) ? "" : file;
+	}
 
-		result.add("-N");
+	/**
+	 * Returns the tip text for this property.
+	 * 
+	 * @return tip text for this property suitable for displaying in the
+	 *         explorer/experimenter gui
+	 */
+	public String useCacheTipText() {
+		return "Reuses the results of the k values already computed for the same "
+			+ "dataset and options, so only the new k values are computed";
+	}
+
+	/**
+	 * Returns the cache option selected.
+	 *
+	 * @return true if the results cache is enabled, false otherwise.
+	 */
+	public boolean getUseCache() {
+		return m_useCache;
+	}
+
+	/**
+	 * Enables/Disables the results cache.
+	 *
+	 * @param useCache Enables/Disables the results cache.
+	 */
+	public void setUseCache(boolean useCache) {
+		m_useCache = useCache;
+	}
+
+	/**
+	 * Returns the tip text for this property.
+	 * 
+	 * @return tip text for this property suitable for displaying in the
+	 *         explorer/experimenter gui
+	 */
+	public String cacheDirectoryTipText() {
+		return "Directory to keep the cached results on disk, empty for memory only";
+	}
+
+	/**
+	 * Returns the results cache directory.
+	 *
+	 * @return the cache directory, empty for memory only.
+	 */
+	public String getCacheDirectory() {
+		return m_cacheDirectory;
+	}
+
+	/**
+	 * Sets the results cache directory.
+	 *
+	 * @param dir cache directory, empty for memory only.
+	 */
+	public void setCacheDirectory(String dir) {
+		m_cacheDirectory = (dir == null) ? "" : dir;
+	}
+
+	/**
+	 * Returns the tip text for this property.
+	 * 
+	 * @return tip text for this property suitable for displaying in the
+	 *         explorer/experimenter gui
+	 */
+	public String cacheSizeTipText() {
+		return "Maximum size of the cache directory, in MB, the least recently "
+			+ "used results are evicted first";
+	}
+
+	/**
+	 * Returns the maximum size of the cache directory.
+	 *
+	 * @return the cache size, in MB.
+	 */
+	public int getCacheSize() {
+		return m_cacheSize;
+	}
+
+	/**
+	 * Sets the maximum size of the cache directory.
+	 *
+	 * @param size cache size, in MB.
+	 * @throws Exception if the size is < 1.
+	 */
+	public void setCacheSize(int size) throws Exception {
+		if (size < 1)
+			throw new Exception("Cache size should be >= 1 MB");
+
+		m_cacheSize = size;
+	}
+
+	/**
+	 * Returns the tip text for this property.
+	 * 
+	 * @return tip text for this property suitable for displaying in the
+	 *         explorer/experimenter gui
+	 */
+	public String checkpointFileTipText() {
+		return "File where the result of each k is appended as soon as it finishes, "
+			+ "empty for none";
+	}
+
+	/**
+	 * Returns the checkpoint file.
+	 *
+	 * @return the checkpoint file, empty for none.
+	 */
+	public String getCheckpointFile() {
+		return m_checkpointFile;
+	}
+
+	/**
+	 * Sets the checkpoint file.
+	 *
+	 * @param file checkpoint file, empty for none.
+	 */
+	public void setCheckpointFile(String file) {
+		m_checkpointFile = (file == null) ? "" : file;
+	}
+
+	/**
+	 * Returns the tip text for this property.
+	 * 
+	 * @return tip text for this property suitable for displaying in the
+	 *         explorer/experimenter gui
+	 */
+	public String allClustersTipText() {
+		return "Silhouette b(i) as the smallest mean distance to any other cluster, instead of "
+			+ "the mean distance to the cluster of the nearest centroid, with the means "
+			+ "divided by the number of points averaged";
+	}
+
+	/**
+	 * Returns the all clusters option selected.
+	 *
+	 * @return true if b(i) is taken over all the other clusters, false otherwise.
+	 */
+	public boolean getAllClusters() {
+		return m_allClusters;
+	}
+
+	/**
+	 * Enables/Disables the silhouette b(i) over all the other clusters.
+	 *
+	 * @param allClusters Enables/Disables the b(i) over all the clusters.
+	 */
+	public void setAllClusters(boolean allClusters) {
+		m_allClusters = allClusters;
+	}
+
+	/**
+	 * Returns the tip text for this property.
+	 * 
+	 * @return tip text for this property suitable for displaying in the
+	 *         explorer/experimenter gui
+	 */
+	public String pointsFileTipText() {
+		return "File where the silhouette, a(i), b(i) and neighbouring cluster of each point "
+			+ "are streamed as they are computed, ARFF if it ends with .arff, CSV otherwise; "
+			+ "empty for none";
+	}
+
+	/**
+	 * Returns the per-point silhouettes file.
+	 *
+	 * @return the per-point silhouettes file, empty for none.
+	 */
+	public String getPointsFile() {
+		return m_pointsFile;
+	}
+
+	/**
+	 * Sets the per-point silhouettes file.
+	 *
+	 * @param file per-point silhouettes file, empty for none.
+	 */
+	public void setPointsFile(String file) {
+		m_pointsFile = (file == null) ? "" : file;
+	}
+
+	/**
+	 * Returns the tip text for this property.
+	 * 
+	 * @return tip text for this property suitable for displaying in the
+	 *         explorer/experimenter gui
+	 */
+	public String resumeTipText() {
+		return "Resume: skips the k values already completed in the checkpoint file";
+	}
+
+	/**
+	 * Returns the resume option selected.
+	 *
+	 * @return true if resuming from the checkpoint, false otherwise.
+	 */
+	public boolean getResume() {
+		return m_resume;
+	}
+
+	/**
+	 * Enables/Disables resuming from the checkpoint file.
+	 *
+	 * @param resume Enables/Disables the resume.
+	 */
+	public void setResume(boolean resume) {
+		m_resume = resume;
+	}
+
+	/**
+	 * Returns the tip text for this property.
+	 * 
+	 * @return tip text for this property suitable for displaying in the
+	 *         explorer/experimenter gui
+	 */
+	public String timeBudgetTipText() {
+		return "Wall-clock budget for the cascade, in seconds (0 for none): the k values "
+			+ "not evaluated in time are skipped and the best K found so far is kept";
+	}
+
+	/**
+	 * Returns the time budget for the cascade.
+	 *
+	 * @return the time budget, in seconds, 0 for none.
+	 */
+	public double getTimeBudget() {
+		return m_timeBudget;
+	}
+
+	/**
+	 * Sets the time budget for the cascade.
+	 *
+	 * @param budget time budget, in seconds, 0 for none.
+	 * @throws Exception if the budget is negative.
+	 */
+	public void setTimeBudget(double budget) throws Exception {
+		if (budget < 0)
+			throw new Exception("Time budget should be >= 0");
+
+		m_timeBudget = budget;
+	}
+
+	/**
+	 * Returns the tip text for this property.
+	 * 
+	 * @return tip text for this property suitable for displaying in the
+	 *         explorer/experimenter gui
+	 */
+	public String showStatsTipText() {
+		return "Show stats: adds the per-k timings, iterations and distance counts to the output";
+	}
+
+	/**
+	 * Returns the stats option selected.
+	 *
+	 * @return true if the instrumentation summary is shown, false otherwise.
+	 */
+	public boolean getShowStats() {
+		return m_showStats;
+	}
+
+	/**
+	 * Enables/Disables the instrumentation summary.
+	 *
+	 * @param showStats Enables/Disables the summary.
+	 */
+	public void setShowStats(boolean showStats) {
+		m_showStats = showStats;
+	}
+
+	/**
+	 * Returns the tip text for this property.
+	 * 
+	 * @return tip text for this property suitable for displaying in the
+	 *         explorer/experimenter gui
+	 */
+	public String singlePrecisionTipText() {
+		return "Float cache: keeps the normalized matrix the Silhouette-Index reads its distances "
+			+ "from as floats, accumulating in double. Halves that cache only: the data, the "
+			+ "centroids and the k-means stay in double. The rounding is reported in the output";
+	}
+
+	/**
+	 * Returns the single precision option selected.
+	 *
+	 * @return true if the distance cache is kept as floats, false otherwise.
+	 */
+	public boolean getSinglePrecision() {
+		return m_singlePrecision;
+	}
+
+	/**
+	 * Enables/Disables the single precision of the distance cache.
+	 *
+	 * @param singlePrecision Enables/Disables the single precision.
+	 */
+	public void setSinglePrecision(boolean singlePrecision) {
+		m_singlePrecision = singlePrecision;
+	}
+
+	/**
+	 * Returns the tip text for this property.
+	 * 
+	 * @return tip text for this property suitable for displaying in the
+	 *         explorer/experimenter gui
+	 */
+	public String offHeapTipText() {
+		return "Off-heap cache: keeps the normalized matrix the Silhouette-Index reads its "
+			+ "distances from in direct memory, outside the heap, without the 2^31 values limit "
+			+ "(see -XX:MaxDirectMemorySize). The data stays on the heap, where the k-means reads it";
+	}
+
+	/**
+	 * Returns the off-heap option selected.
+	 *
+	 * @return true if the distance cache is kept off-heap, false otherwise.
+	 */
+	public boolean getOffHeap() {
+		return m_offHeap;
+	}
+
+	/**
+	 * Enables/Disables the off-heap storage of the distance cache.
+	 *
+	 * @param offHeap Enables/Disables the off-heap storage.
+	 */
+	public void setOffHeap(boolean offHeap) {
+		m_offHeap = offHeap;
+	}
+
+	/**
+	 * Returns the tip text for this property.
+	 * 
+	 * @return tip text for this property suitable for displaying in the
+	 *         explorer/experimenter gui
+	 */
+	public String numResamplesTipText() {
+		return "Number of bootstrap resamples of the stability validation, compared in pairs";
+	}
+
+	/**
+	 * Returns the number of bootstrap resamples.
+	 *
+	 * @return the number of resamples.
+	 */
+	public int getNumResamples() {
+		return m_numResamples;
+	}
+
+	/**
+	 * Sets the number of bootstrap resamples.
+	 *
+	 * @param numResamples number of resamples.
+	 * @throws Exception if there are less than 2 resamples.
+	 */
+	public void setNumResamples(int numResamples) throws Exception {
+		if (numResamples < 2)
+			throw new Exception("Number of resamples should be >= 2");
+
+		m_numResamples = numResamples;
+	}
+
+	/**
+	 * Returns the tip text for this property.
+	 * 
+	 * @return tip text for this property suitable for displaying in the
+	 *         explorer/experimenter gui
+	 */
+	public String numThreadsTipText() {
+		return "Threads training the bootstrap resamples in parallel, 0 for the available "
+			+ "processors. The results do not depend on it";
+	}
+
+	/**
+	 * Returns the number of threads training the resamples.
+	 *
+	 * @return the number of threads, 0 for the available processors.
+	 */
+	public int getNumThreads() {
+		return m_numThreads;
+	}
+
+	/**
+	 * Sets the number of threads training the resamples.
+	 *
+	 * @param numThreads number of threads, 0 for the available processors.
+	 * @throws Exception if the number of threads is negative.
+	 */
+	public void setNumThreads(int numThreads) throws Exception {
+		if (numThreads < 0)
+			throw new Exception("Number of threads should be >= 0");
+
+		m_numThreads = numThreads;
+	}
+
+	/**
+	 * Returns an enumeration of the additional measure names.
+	 *
+	 * @return an enumeration of the measure names.
+	 */
+	@Override
+	public Enumeration<String> enumerateMeasures() {
+		Vector<String> result = new Vector<String>();
+		result.add("measureBestK");
+		result.add("measureNumEvaluated");
+		result.add("measureTotalTime");
+		result.add("measureBuildTime");
+		result.add("measureAssignmentTime");
+		result.add("measureEvaluationTime");
+		result.add("measureIterations");
+		result.add("measureDistanceCalls");
+		result.add("measurePeakBucketSize");
+		result.add("measureSquaredError");
+		result.add("measureNumUpdates");
+		return result.elements();
+	}
+
+	/**
+	 * Returns the value of the named measure, summed over all the k
+	 * values evaluated. Times are in milliseconds.
+	 *
+	 * @param additionalMeasureName the name of the measure to query.
+	 * @return the value of the named measure.
+	 * @throws IllegalArgumentException if the named measure is not supported.
+	 */
+	@Override
+	public double getMeasure(String additionalMeasureName) {
+		double value = 0;
+
+		if (additionalMeasureName.equalsIgnoreCase("measureBestK"))
+			return (m_cascade) ? m_bestK : m_numClusters;
+		if (additionalMeasureName.equalsIgnoreCase("measureNumEvaluated"))
+			return numEvaluated();
+		if (additionalMeasureName.equalsIgnoreCase("measureSquaredError"))
+			return (m_skmeans != null) ? m_skmeans.getSquaredError() : 0;
+		if (additionalMeasureName.equalsIgnoreCase("measureNumUpdates"))
+			return getNumUpdates();
+
+		for (int i = 0; m_results != null && i < m_results.length; i++) {
+			KResult r = m_results[i];
+			if (r == null)
+				continue;
+
+			if (additionalMeasureName.equalsIgnoreCase("measureTotalTime"))
+				value += r.getElapsedTime() / 1e6;
+			else if (additionalMeasureName.equalsIgnoreCase("measureBuildTime"))
+				value += r.getBuildTime() / 1e6;
+			else if (additionalMeasureName.equalsIgnoreCase("measureAssignmentTime"))
+				value += r.getAssignmentTime() / 1e6;
+			else if (additionalMeasureName.equalsIgnoreCase("measureEvaluationTime"))
+				value += r.getEvaluationTime() / 1e6;
+			else if (additionalMeasureName.equalsIgnoreCase("measureIterations"))
+				value += r.getIterations();
+			else if (additionalMeasureName.equalsIgnoreCase("measureDistanceCalls"))
+				value += r.getDistanceCalls();
+			else if (additionalMeasureName.equalsIgnoreCase("measurePeakBucketSize"))
+				value = Math.max(value, r.getPeakBucketSize());
+			else
+				throw new IllegalArgumentException(additionalMeasureName
+					+ " not supported (KValid)");
+		}
+		return value;
+	}
+
+	/**
+	 * Returns the instrumentation summary: per-k timings, iterations,
+	 * distance evaluations and peak bucket size.
+	 *
+	 * @return Returns the summary.
+	 */
+	public String statsToString() {
+		StringBuffer text = new StringBuffer("=== Instrumentation ===\n\n");
+		text.append(String.format(Locale.US, "%6s %12s %12s %12s %8s %16s %8s%n",
+			"k", "build(ms)", "assign(ms)", "eval(ms)", "iters", "distances", "bucket"));
+
+		for (int i = 0; i < m_results.length; i++) {
+			KResult r = m_results[i];
+			if (r == null)
+				continue;
+
+			text.append(String.format(Locale.US, "%6d %12.2f %12.2f %12.2f %8d %16d %8d%n",
+				r.getK(), r.getBuildTime() / 1e6, r.getAssignmentTime() / 1e6,
+				r.getEvaluationTime() / 1e6, r.getIterations(), r.getDistanceCalls(),
+				r.getPeakBucketSize()));
+		}
+
+		text.append("\n(k-means distances are estimated as iterations x n x k)\n");
+		return text.toString();
+	}
+
+	/**
+	 * Gets the current settings of KValid.
+	 * 
+	 * @return An array of strings suitable for passing to setOptions()
+	 */
+	@Override
+	public String[] getOptions() {
+
+		Vector<String> result = new Vector<String>();
+
+		result.add("-init");
+		result.add("" + getInitializationMethod().getSelectedTag().getID());
+
+		result.add("-N");
 		result.add("" + getNumClusters());
 
 		result.add("-A");
@@ -613,6 +1916,63 @@ public class KValid extends RandomizableClusterer implements
 		if (m_showGraph)
 			result.add("-show-graph");
 
+		if (m_graphFile.length() > 0) {
+			result.add("-graph-file");
+			result.add(m_graphFile);
+		}
+
+		if (m_useCache) {
+			result.add("-cache");
+
+			if (m_cacheDirectory.length() > 0) {
+				result.add("-cache-dir");
+				result.add(m_cacheDirectory);
+			}
+
+			result.add("-cache-size");
+			result.add("" + getCacheSize());
+		}
+
+		if (m_checkpointFile.length() > 0) {
+			result.add("-checkpoint");
+			result.add(m_checkpointFile);
+		}
+
+		if (m_resume)
+			result.add("-resume");
+
+		if (m_pointsFile.length() > 0) {
+			result.add("-points");
+			result.add(m_pointsFile);
+		}
+
+		if (m_timeBudget > 0) {
+			result.add("-time-budget");
+			result.add("" + getTimeBudget());
+		}
+
+		if (m_showStats)
+			result.add("-stats");
+
+		if (m_singlePrecision)
+			result.add("-float");
+
+		if (m_offHeap)
+			result.add("-offheap");
+
+		if (m_allClusters)
+			result.add("-all-clusters");
+
+		if (m_validationMethod == STABILITY) {
+			result.add("-resamples");
+			result.add("" + getNumResamples());
+
+			if (m_numThreads > 0) {
+				result.add("-threads");
+				result.add("" + getNumThreads());
+			}
+		}
+
 		Collections.addAll(result, super.getOptions());
 
 		return result.toArray(new String[result.size()]);
@@ -680,6 +2040,45 @@ public class KValid extends RandomizableClusterer implements
 
 		/* Show graph option. */
 		m_showGraph = Utils.getFlag("show-graph", options);
+		setGraphFile(Utils.getOption("graph-file", options));
+
+		/* Results cache. */
+		m_useCache = Utils.getFlag("cache", options);
+		setCacheDirectory(Utils.getOption("cache-dir", options));
+
+		temp = Utils.getOption("cache-size", options);
+		if (temp.length() > 0)
+			setCacheSize(Integer.parseInt(temp));
+
+		/* Checkpoint and resume. */
+		setCheckpointFile(Utils.getOption("checkpoint", options));
+		m_resume = Utils.getFlag("resume", options);
+
+		/* Per-point silhouettes. */
+		setPointsFile(Utils.getOption("points", options));
+
+		/* Time budget. */
+		temp = Utils.getOption("time-budget", options);
+		setTimeBudget((temp.length() > 0) ? Double.parseDouble(temp) : 0);
+
+		/* Instrumentation summary. */
+		m_showStats = Utils.getFlag("stats", options);
+
+		/* Single precision. */
+		m_singlePrecision = Utils.getFlag("float", options);
+
+		/* Off-heap storage. */
+		m_offHeap = Utils.getFlag("offheap", options);
+
+		/* Silhouette b(i) over all the other clusters. */
+		m_allClusters = Utils.getFlag("all-clusters", options);
+
+		/* Bootstrap stability. */
+		temp = Utils.getOption("resamples", options);
+		setNumResamples((temp.length() > 0) ? Integer.parseInt(temp) : 20);
+
+		temp = Utils.getOption("threads", options);
+		setNumThreads((temp.length() > 0) ? Integer.parseInt(temp) : 0);
 
 		super.setOptions(options);
 		Utils.checkForRemainingOptions(options);
@@ -700,8 +2099,33 @@ public class KValid extends RandomizableClusterer implements
 
 		description.append("=== Clustering validation, using: " +
 			((m_validationMethod == SILHOUETTE_INDEX) ? "Silhouette Index"
+			: (m_validationMethod == AUTO) ? "Silhouette Index, automatic"
+			: (m_validationMethod == STABILITY) ? "Bootstrap stability (ARI), "
+				+ m_numResamples + " resamples"
 			: "Elbow method (SSE)") + " ===");
 
+		if (m_plan != null)
+			description.append("\n\n" + m_plan.toString());
+
+		if (m_singlePrecision) {
+			if (m_precisionError < 0)
+				description.append("\n\n=== Float cache: not applied, the data or "
+					+ "distance function is not supported ===");
+			else
+				description.append(String.format(Locale.US, "\n\n=== Float cache: values "
+					+ "rounded by at most %.3g, distances by at most %.3g ===",
+					m_roundingError, m_precisionError));
+		}
+
+		if (m_offHeap) {
+			if (m_offHeapSize < 0)
+				description.append("\n\n=== Off-heap cache: not applied, the data or distance "
+					+ "function is not supported, or there is not enough direct memory ===");
+			else
+				description.append(String.format(Locale.US, "\n\n=== Off-heap cache: %.1f MB of "
+					+ "distance cache outside the heap ===", m_offHeapSize / 1048576.0));
+		}
+
 		int start   = m_numClusters;
 		int end     = m_numClusters;
 
@@ -712,61 +2136,83 @@ public class KValid extends RandomizableClusterer implements
 
 		description.append("\n");
 
-		if (m_validationMethod == SILHOUETTE_INDEX) {
+		if (m_results == null)
+			description.append("\nIncremental training, k = " + m_numClusters
+				+ " seeded from the first distinct instances, not validated\n");
+		else if (usesSilhouette()) {
 
 			for (int i = start; i <= end; i++) {
 				description.append("\nFor k = " + i + "\n");
-				description.append( m_silhouetteIdx.get(i - start).toString() + "\n");
+				if (m_results[i - start] == null)
+					description.append(SKIPPED + "\n");
+				else
+					description.append( m_results[i - start].getSilhouette().toString() + "\n");
 			}
 
 			if (m_cascade == true) {
 				description.append("\n~~ Best K: " + m_bestK + " ~~");
+				if (numEvaluated() < m_results.length)
+					description.append("\n(among the " + numEvaluated() + " k values evaluated, "
+						+ (m_results.length - numEvaluated()) + " were skipped)");
 				description.append(
 					"\nPlease manually check your dataset to figure out if this is really the best K");
-			
-				/* Show the graph. */
-				ArrayList<Double> dataSet = new ArrayList<Double>();
-				for (int i = 0; i < m_silhouetteIdx.size(); i++)
-					dataSet.add( m_silhouetteIdx.get(i).getGlobalSilhouette() );
-
-				/* Show the graph if needed. */
-				if (m_showGraph == true) {
-					GraphPlotter gp = new GraphPlotter("KValid - Silhouette Index");
-					gp.plot(dataSet, m_minimumK, "Silhouette analysis for KMeans",
-						"for k ranging between " + m_minimumK + " and " + m_maximumK,
-						"k - value", "Silhouette Index");
-				}
 			}
 		}
-		else if (m_validationMethod == ELBOW_METHOD) {
+		else if (m_validationMethod == STABILITY) {
 
 			for (int i = start; i <= end; i++) {
 				description.append("\nFor k = " + i + "\n");
-				description.append("SSE: " + m_elbow.get(i - start) + "\n");
+				if (m_results[i - start] == null)
+					description.append(SKIPPED + "\n");
+				else
+					description.append( m_results[i - start].getStability().toString() + "\n");
 			}
 
 			if (m_cascade == true) {
-			
-				/* Show the graph. */
-				ArrayList<Double> dataSet = new ArrayList<Double>();
-				for (int i = 0; i < m_elbow.size(); i++)
-					dataSet.add( m_elbow.get(i) );
-
-				/* Show the graph if needed. */
-				if (m_showGraph == true) {
-					GraphPlotter gp = new GraphPlotter("KValid - Elbow method");
-					gp.plot(dataSet, m_minimumK, "Elbow analysis for KMeans",
-						"for k ranging between " + m_minimumK + " and " + m_maximumK,
-						"k - value", "Elbow (SSE)");
-				}
-				else {
-					description.append(
-					"\nPlease enable the showGraph option to visually figure out the best K");
-				}
-			}			
+				description.append("\n~~ Best K: " + m_bestK + " ~~");
+				if (numEvaluated() < m_results.length)
+					description.append("\n(among the " + numEvaluated() + " k values evaluated, "
+						+ (m_results.length - numEvaluated()) + " were skipped)");
+			}
+		}
+		else if (m_validationMethod == ELBOW_METHOD) {
+
+			for (int i = start; i <= end; i++) {
+				description.append("\nFor k = " + i + "\n");
+				if (m_results[i - start] == null)
+					description.append(SKIPPED + "\n");
+				else
+					description.append("SSE: " + m_results[i - start].getSquaredError() + "\n");
+			}
+
+			/* SimpleKMeans squares any distance that extends EuclideanDistance. */
+			if (m_distanceFunction instanceof ChebyshevDistance
+				|| m_distanceFunction instanceof CosineDistance) {
+				description.append("\n(SSE: sum of the squared "
+					+ ((m_distanceFunction instanceof CosineDistance) ? "cosine" : "Chebyshev")
+					+ " distances to the centroids)\n");
+			}
+
+			if (m_cascade == true && m_showGraph == false && m_graphFile.length() == 0) {
+				description.append(
+				"\nPlease enable the showGraph option to visually figure out the best K");
+			}
 		}
 		
+		if (m_cascade == true && m_showGraph == true && !GraphPlotter.canShow())
+			description.append("\n\n(no display available, the graph was not shown"
+				+ ((m_graphFile.length() > 0) ? ", see " + m_graphFile : "") + ")");
+
+		if (getNumUpdates() > 0)
+			description.append(String.format(Locale.US, "\n\n=== Online updates (k = %d): %d "
+				+ "instances added, SSE now %.4f%s ===", m_skmeans.getNumClusters(),
+				getNumUpdates(), m_skmeans.getSquaredError(),
+				(m_updater == null || m_updater.isExact()) ? "" : ", approximated"));
+
 		description.append("\n\n");
+		if (m_showStats == true)
+			description.append( statsToString() + "\n" );
+
 		description.append( m_skmeans.toString() );
 
 		return description.toString();
@@ -778,6 +2224,15 @@ public class KValid extends RandomizableClusterer implements
      * @param args use -h to list all parameters
      */
 	public static void main(String[] args) {
-		runClusterer(new KValid(), args);
+		/*
+		 * The validation needs all the data: the Weka evaluation trains an
+		 * UpdateableClusterer incrementally, so batch is forced, unless
+		 * -incremental is given.
+		 */
+		ArrayList<String> options = new ArrayList<String>(Arrays.asList(args));
+		if (!options.remove("-incremental") && !options.contains("-force-batch-training"))
+			options.add("-force-batch-training");
+
+		runClusterer(new KValid(), options.toArray(new String[options.size()]));
 	}
 }
@@ -0,0 +1,362 @@
+/*
+ * Copyright (C) 2017  Davidson Francis <davidsondfgl@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+/*
+ *    BatchRunner.java
+ *    Written by Davidson Francis
+ */
+
+package weka.clusterers.kvalid;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import weka.clusterers.KValid;
+import weka.core.Instances;
+import weka.core.Utils;
+
+/**
+ * Runs KValid over many datasets in a single JVM, so the startup and
+ * JIT warm-up are paid once for the whole batch instead of once per
+ * file, and writes one summary line per dataset: the best k and the
+ * indices of that k.
+ *
+ * The datasets come from a directory (every ARFF or CSV file in it,
+ * by name) or from a manifest, one dataset per line, optionally
+ * followed by its own KValid options. Each dataset is a job of a
+ * shared fixed pool, as large as the number of processors by default,
+ * so at most that many datasets are in memory at a time; the threads
+ * of a job (bootstrap resamples) are split among the jobs, keeping the
+ * whole batch within the cores. A failed dataset is reported in the
+ * summary and does not stop the others.
+ *
+ * @author Davidson Francis (davidson.francis@sga.pucminas.br)
+ * @version $Revision: 0001 $
+ */
+public class BatchRunner {
+
+	/**
+	 * Batch job: a dataset and the KValid options used on it.
+	 */
+	public static class Job {
+
+		/** Dataset file. */
+		public final String dataset;
+
+		/** KValid options, null for the batch ones. */
+		public final String[] options;
+
+		/**
+		 * Creates a new job.
+		 *
+		 * @param dataset dataset file.
+		 * @param options KValid options, null for the batch ones.
+		 */
+		public Job(String dataset, String[] options) {
+			this.dataset = dataset;
+			this.options = options;
+		}
+	}
+
+	/** Summary header. */
+	public static final String HEADER = "dataset,instances,attributes,validation,evaluated,"
+		+ "bestK,silhouette,squared_error,stability,time_ms,status";
+
+	/** KValid options of every job without its own. */
+	protected String[] m_options;
+
+	/** Number of jobs run at a time. */
+	protected int m_numJobs;
+
+	/** Number of jobs failed in the last run. */
+	protected int m_failures;
+
+	/** Time spent in the last run, in nanoseconds. */
+	protected long m_elapsedTime;
+
+	/**
+	 * Creates a new runner.
+	 *
+	 * @param options KValid options of every job without its own.
+	 * @param numJobs number of jobs run at a time, 0 for the number of
+	 *                processors.
+	 */
+	public BatchRunner(String[] options, int numJobs) {
+		m_options = (options == null) ? new String[0] : options;
+		m_numJobs = (numJobs > 0) ? numJobs : Runtime.getRuntime().availableProcessors();
+	}
+
+	/**
+	 * Reads the jobs of a directory or a manifest. A directory gives one
+	 * job per ARFF or CSV file, sorted by name; a manifest has one
+	 * dataset per line, relative to the manifest directory, optionally
+	 * followed by KValid options that replace the batch ones; empty lines
+	 * and lines starting with # are skipped.
+	 *
+	 * @param source directory or manifest file.
+	 * @return Returns the jobs.
+	 * @throws Exception if the source could not be read.
+	 */
+	public static List<Job> readJobs(String source) throws Exception {
+		List<Job> jobs = new ArrayList<Job>();
+		File f = new File(source);
+
+		if (f.isDirectory()) {
+			File[] files = f.listFiles();
+			if (files == null)
+				throw new Exception("BatchRunner: unable to list " + source + "!");
+
+			Arrays.sort(files);
+			for (File file : files) {
+				String name = file.getName().toLowerCase();
+				if (file.isFile() && (name.endsWith(".arff") || name.endsWith(".arff.gz")
+					|| name.endsWith(".csv")))
+					jobs.add(new Job(file.getPath(), null));
+			}
+			return jobs;
+		}
+
+		BufferedReader in = new BufferedReader(new InputStreamReader(
+			new FileInputStream(f), "UTF-8"));
+		try {
+			String line;
+			while ((line = in.readLine()) != null) {
+				line = line.trim();
+				if (line.length() == 0 || line.startsWith("#"))
+					continue;
+
+				String[] tokens = Utils.splitOptions(line);
+				File dataset = new File(tokens[0]);
+				if (!dataset.isAbsolute() && f.getParentFile() != null)
+					dataset = new File(f.getParentFile(), tokens[0]);
+
+				jobs.add(new Job(dataset.getPath(), (tokens.length > 1)
+					? Arrays.copyOfRange(tokens, 1, tokens.length) : null));
+			}
+		}
+		finally {
+			in.close();
+		}
+		return jobs;
+	}
+
+	/**
+	 * Runs the jobs, writing the summary lines in the jobs order as soon
+	 * as they are available.
+	 *
+	 * @param jobs jobs.
+	 * @param out  output, one CSV line per job.
+	 * @return Returns the number of failed jobs.
+	 * @throws Exception if the batch was interrupted.
+	 */
+	public int run(List<Job> jobs, PrintWriter out) throws Exception {
+		long start = System.nanoTime();
+		m_failures = 0;
+		out.println(HEADER);
+		out.flush();
+
+		if (jobs.isEmpty()) {
+			m_elapsedTime = System.nanoTime() - start;
+			return 0;
+		}
+
+		/* Threads left to each job, so the batch stays within the cores. */
+		final int jobThreads = Math.max(1, Runtime.getRuntime().availableProcessors()
+			/ Math.min(m_numJobs, jobs.size()));
+
+		ExecutorService workers = Executors.newFixedThreadPool(Math.min(m_numJobs, jobs.size()));
+		List<Future<String>> done = new ArrayList<Future<String>>(jobs.size());
+
+		try {
+			for (final Job job : jobs) {
+				done.add(workers.submit(new Callable<String>() {
+					public String call() throws Exception {
+						return runJob(job, jobThreads);
+					}
+				}));
+			}
+
+			for (int i = 0; i < jobs.size(); i++) {
+				String line;
+				try {
+					line = done.get(i).get();
+				}
+				catch (ExecutionException e) {
+					Throwable cause = (e.getCause() != null) ? e.getCause() : e;
+					String msg = (cause.getMessage() != null) ? cause.getMessage()
+						: cause.getClass().getName();
+					line = quote(jobs.get(i).dataset) + ",,,,,,,,,," + quote("error: " + msg);
+					m_failures++;
+				}
+				out.println(line);
+				out.flush();
+			}
+		}
+		finally {
+			workers.shutdownNow();
+		}
+
+		m_elapsedTime = System.nanoTime() - start;
+		return m_failures;
+	}
+
+	/**
+	 * Runs one job.
+	 *
+	 * @param job     job.
+	 * @param threads threads of the job, unless its options set them.
+	 * @return Returns the summary line.
+	 * @throws Exception if the dataset could not be read or clustered.
+	 */
+	protected String runJob(Job job, int threads) throws Exception {
+		Instances data = StreamScorer.getLoader(job.dataset).getDataSet();
+
+		KValid kvalid = new KValid();
+		kvalid.setOptions((job.options != null) ? job.options.clone() : m_options.clone());
+		if (kvalid.getNumThreads() == 0)
+			kvalid.setNumThreads(threads);
+
+		long time = System.nanoTime();
+		kvalid.buildClusterer(data);
+		time = System.nanoTime() - time;
+
+		int bestK = kvalid.getNumClusters();
+		KResult best = null;
+		for (KResult r : kvalid.getResults())
+			if (r != null && r.getK() == bestK)
+				best = r;
+
+		StringBuffer line = new StringBuffer(quote(job.dataset));
+		line.append("," + data.numInstances() + "," + data.numAttributes());
+		line.append("," + kvalid.getValidationMethod().getSelectedTag().getReadable()
+			.replace(',', ' '));
+		line.append("," + kvalid.numEvaluated() + "," + bestK);
+		line.append("," + ((best != null && best.getSilhouette() != null)
+			? format(best.getSilhouette().getGlobalSilhouette()) : ""));
+		line.append("," + format(kvalid.getSquaredError()));
+		line.append("," + ((best != null && best.getStability() != null)
+			? format(best.getStability().getMean()) : ""));
+		line.append(String.format(Locale.US, ",%.1f,ok", time / 1e6));
+		return line.toString();
+	}
+
+	/**
+	 * Formats an index value.
+	 *
+	 * @param value value.
+	 * @return Returns the value, with enough digits to compare runs.
+	 */
+	protected static String format(double value) {
+		return String.format(Locale.US, "%.6g", value);
+	}
+
+	/**
+	 * Quotes a CSV field if needed.
+	 *
+	 * @param field field.
+	 * @return Returns the field, quoted if it has commas or quotes.
+	 */
+	protected static String quote(String field) {
+		if (field.indexOf(',') < 0 && field.indexOf('"') < 0 && field.indexOf('\n') < 0)
+			return field;
+		return "\"" + field.replace("\"", "\"\"").replace('\n', ' ') + "\"";
+	}
+
+	/**
+	 * Gets the number of jobs failed in the last run.
+	 *
+	 * @return Returns the number of failures.
+	 */
+	public int getFailures() {
+		return m_failures;
+	}
+
+	/**
+	 * Gets the time spent in the last run.
+	 *
+	 * @return Returns the elapsed time, in nanoseconds.
+	 */
+	public long getElapsedTime() {
+		return m_elapsedTime;
+	}
+
+	/**
+	 * Main method, use -h to list all parameters. The KValid options of
+	 * the batch come after a --, i.e: -i data/ -- -cascade -maxK 10.
+	 *
+	 * @param args command line arguments.
+	 */
+	public static void main(String[] args) {
+		try {
+			if (args.length == 0 || Utils.getFlag('h', args)) {
+				System.err.println("Usage: BatchRunner -i <directory or manifest> [-o <summary csv>]"
+					+ " [-jobs <n>] [-- <KValid options>]");
+				return;
+			}
+
+			String[] options = Utils.partitionOptions(args);
+			String source    = Utils.getOption('i', args);
+			String outFile   = Utils.getOption('o', args);
+
+			if (source.length() == 0)
+				throw new Exception("BatchRunner: the datasets (-i) are required!");
+
+			int jobs = 0;
+			String temp = Utils.getOption("jobs", args);
+			if (temp.length() > 0)
+				jobs = Integer.parseInt(temp);
+
+			Utils.checkForRemainingOptions(args);
+
+			/* Checks the batch options before running anything. */
+			new KValid().setOptions(options.clone());
+
+			PrintWriter out = new PrintWriter(new OutputStreamWriter((outFile.length() > 0)
+				? new FileOutputStream(outFile) : System.out, "UTF-8"));
+
+			BatchRunner runner = new BatchRunner(options, jobs);
+			List<Job> list = readJobs(source);
+			int failures = runner.run(list, out);
+			out.close();
+
+			System.err.println("Ran " + list.size() + " datasets in "
+				+ String.format(Locale.US, "%.3f", runner.getElapsedTime() / 1e9) + " s"
+				+ ((failures > 0) ? ", " + failures + " failed" : ""));
+
+			if (failures > 0)
+				System.exit(1);
+		}
+		catch (Exception e) {
+			e.printStackTrace();
+			System.exit(1);
+		}
+	}
+}
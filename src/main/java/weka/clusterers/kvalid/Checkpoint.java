@@ -0,0 +1,181 @@
+/*
+ * Copyright (C) 2017  Davidson Francis <davidsondfgl@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+/*
+ *    Checkpoint.java
+ *    Written by Davidson Francis
+ */
+
+package weka.clusterers.kvalid;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
+import java.util.HashMap;
+
+/**
+ * Checkpoint file for long cascades: the result of each k is appended
+ * as soon as it finishes, so an interrupted run can be resumed skipping
+ * the k values already completed.
+ *
+ * The file starts with a header holding the fingerprint of the dataset
+ * and options, followed by one length-prefixed record per k. A record
+ * partially written (i.e: the process died while writing) is discarded
+ * on resume.
+ *
+ * @author Davidson Francis (davidson.francis@sga.pucminas.br)
+ * @version $Revision: 0001 $
+ */
+public class Checkpoint {
+
+	/** File magic: "KVCP". */
+	public static final int MAGIC = 0x4B564350;
+
+	/** Checkpoint file. */
+	protected RandomAccessFile m_file;
+
+	/** Results found in the file. */
+	protected HashMap<Integer, KResult> m_results;
+
+	/**
+	 * Opens a checkpoint file.
+	 *
+	 * @param file   checkpoint file.
+	 * @param key    fingerprint of the dataset and options.
+	 * @param resume true to keep the results already in the file, false
+	 *               to start a new checkpoint.
+	 * @throws IOException if the file could not be opened.
+	 */
+	public Checkpoint(File file, String key, boolean resume) throws IOException {
+		m_file    = new RandomAccessFile(file, "rw");
+		m_results = new HashMap<Integer, KResult>();
+
+		if (resume && m_file.length() > 0) {
+			if (readHeader(key))
+				readRecords();
+			else
+				System.err.println("Checkpoint: " + file + " belongs to another dataset "
+					+ "or options, starting over!");
+		}
+
+		/* Nothing to resume, starts a new file. */
+		if (m_results.isEmpty()) {
+			m_file.setLength(0);
+			m_file.writeInt(MAGIC);
+			m_file.writeUTF(key);
+		}
+	}
+
+	/**
+	 * Reads and checks the header.
+	 *
+	 * @param key expected fingerprint.
+	 * @return Returns true if the header matches the given key.
+	 * @throws IOException if the file could not be read.
+	 */
+	protected boolean readHeader(String key) throws IOException {
+		try {
+			m_file.seek(0);
+			return m_file.readInt() == MAGIC && m_file.readUTF().equals(key);
+		}
+		catch (EOFException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Reads all the complete records, truncating the file right after
+	 * the last one.
+	 *
+	 * @throws IOException if the file could not be read.
+	 */
+	protected void readRecords() throws IOException {
+		long valid = m_file.getFilePointer();
+
+		while (true) {
+			try {
+				int length = m_file.readInt();
+				if (length <= 0 || valid + 4 + length > m_file.length())
+					break;
+
+				byte[] buf = new byte[length];
+				m_file.readFully(buf);
+
+				ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(buf));
+				KResult r = (KResult) in.readObject();
+				m_results.put(r.getK(), r);
+				valid = m_file.getFilePointer();
+			}
+			catch (EOFException e) {
+				break;
+			}
+			catch (ClassNotFoundException e) {
+				break;
+			}
+			catch (IOException e) {
+				/* Corrupted or from an older version: ignores from here on. */
+				break;
+			}
+		}
+
+		m_file.setLength(valid);
+		m_file.seek(valid);
+	}
+
+	/**
+	 * Gets the result of a given k, if already completed.
+	 *
+	 * @param k number of clusters.
+	 * @return Returns the result, or null if not found.
+	 */
+	public KResult get(int k) {
+		return m_results.get(k);
+	}
+
+	/**
+	 * Appends the result of a given k and forces it to disk.
+	 *
+	 * @param r result.
+	 * @throws IOException if the result could not be written.
+	 */
+	public void append(KResult r) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ObjectOutputStream out = new ObjectOutputStream(bytes);
+		out.writeObject(r);
+		out.close();
+
+		m_file.writeInt(bytes.size());
+		m_file.write(bytes.toByteArray());
+		m_file.getFD().sync();
+
+		m_results.put(r.getK(), r);
+	}
+
+	/**
+	 * Closes the checkpoint file.
+	 *
+	 * @throws IOException if the file could not be closed.
+	 */
+	public void close() throws IOException {
+		m_file.close();
+	}
+}
@@ -0,0 +1,290 @@
+/*
+ * Copyright (C) 2017  Davidson Francis <davidsondfgl@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+/*
+ *    CosineDistance.java
+ *    Written by Davidson Francis
+ */
+
+package weka.clusterers.kvalid;
+
+import weka.core.EuclideanDistance;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.TechnicalInformation;
+import weka.core.TechnicalInformation.Field;
+import weka.core.TechnicalInformation.Type;
+import weka.core.Utils;
+import weka.core.neighboursearch.PerformanceStats;
+
+/**
+ * Cosine distance, 1 - cos(x, y), over the numeric attributes in use.
+ * The values are not normalized: the cosine is already invariant to
+ * the scale of each instance, and embeddings are usually compared as
+ * they are. Nominal attributes and missing values are ignored.
+ *
+ * It extends EuclideanDistance so SimpleKMeans accepts it, and the
+ * centroids are then the means of the clusters. For spherical k-means,
+ * the rows are scaled to unit length before the k-means (normalizeRows),
+ * so those means point to the same direction as the normalized means:
+ * the mean of raw rows would lean to the longest ones. The cosine does
+ * not depend on the length, so new instances are assigned as they are.
+ * As for the Euclidean distance, SimpleKMeans sums the squared distances
+ * into the squared error of a cluster.
+ *
+ * The dot product and both norms are accumulated in a single pass over
+ * the values stored, so a distance costs about the same as an Euclidean
+ * one, and O(nnz) for sparse instances.
+ *
+ * @author Davidson Francis (davidson.francis@sga.pucminas.br)
+ * @version $Revision: 0001 $
+ */
+public class CosineDistance extends EuclideanDistance {
+
+	/** Serialization */
+	static final long serialVersionUID = -2816403176394208836L;
+
+	/** Attributes used, computed with the active indices. */
+	protected volatile boolean[] m_used;
+
+	/** Default constructor. */
+	public CosineDistance() {
+		super();
+	}
+
+	/**
+	 * Initializes the distance function with the given instances.
+	 *
+	 * @param data the instances.
+	 */
+	public CosineDistance(Instances data) {
+		super(data);
+	}
+
+	/**
+	 * Returns a string describing this object.
+	 *
+	 * @return a description of the evaluator suitable for displaying in
+	 *         the explorer/experimenter gui
+	 */
+	@Override
+	public String globalInfo() {
+		return "Implementing the cosine distance, 1 - cos(x, y), over the numeric "
+			+ "attributes, without normalization.\n\n"
+			+ "For more information, see:\n\n" + getTechnicalInformation().toString();
+	}
+
+	/**
+	 * Returns an instance of a TechnicalInformation object, containing
+	 * detailed information about the technical background of this class.
+	 *
+	 * @return the technical information about this class
+	 */
+	@Override
+	public TechnicalInformation getTechnicalInformation() {
+		TechnicalInformation result = new TechnicalInformation(Type.MISC);
+		result.setValue(Field.AUTHOR, "Wikipedia");
+		result.setValue(Field.TITLE, "Cosine similarity");
+		result.setValue(Field.URL, "https://en.wikipedia.org/wiki/Cosine_similarity");
+		return result;
+	}
+
+	/**
+	 * Calculates the distance between two instances.
+	 *
+	 * @param first  the first instance.
+	 * @param second the second instance.
+	 * @return the distance between the two given instances.
+	 */
+	@Override
+	public double distance(Instance first, Instance second) {
+		return distance(first, second, Double.POSITIVE_INFINITY, null);
+	}
+
+	/**
+	 * Calculates the distance between two instances.
+	 *
+	 * @param first  the first instance.
+	 * @param second the second instance.
+	 * @param stats  the performance stats object.
+	 * @return the distance between the two given instances.
+	 */
+	@Override
+	public double distance(Instance first, Instance second, PerformanceStats stats) {
+		return distance(first, second, Double.POSITIVE_INFINITY, stats);
+	}
+
+	/**
+	 * Calculates the distance between two instances, merging the values
+	 * stored in each one.
+	 *
+	 * @param first       the first instance.
+	 * @param second      the second instance.
+	 * @param cutOffValue if the distance being calculated becomes larger
+	 *                    than cutOffValue then the rest of the calculation
+	 *                    is discarded.
+	 * @param stats       the performance stats object.
+	 * @return the distance between the two given instances or
+	 *         Double.POSITIVE_INFINITY if the distance being calculated
+	 *         becomes larger than cutOffValue.
+	 */
+	@Override
+	public double distance(Instance first, Instance second, double cutOffValue,
+		PerformanceStats stats) {
+
+		validate();
+		boolean[] used = usedAttributes();
+
+		int n1 = first.numValues();
+		int n2 = second.numValues();
+		double dot = 0.0, norm1 = 0.0, norm2 = 0.0;
+
+		for (int p1 = 0, p2 = 0; p1 < n1 || p2 < n2;) {
+			int i1 = (p1 < n1) ? first.index(p1) : used.length;
+			int i2 = (p2 < n2) ? second.index(p2) : used.length;
+
+			if (i1 == i2) {
+				double v1 = first.valueSparse(p1++);
+				double v2 = second.valueSparse(p2++);
+				if (!used[i1] || Utils.isMissingValue(v1) || Utils.isMissingValue(v2))
+					continue;
+
+				dot   += v1 * v2;
+				norm1 += v1 * v1;
+				norm2 += v2 * v2;
+			}
+			else if (i1 < i2) {
+				double v1 = first.valueSparse(p1++);
+				if (used[i1] && !Utils.isMissingValue(v1))
+					norm1 += v1 * v1;
+			}
+			else {
+				double v2 = second.valueSparse(p2++);
+				if (used[i2] && !Utils.isMissingValue(v2))
+					norm2 += v2 * v2;
+			}
+
+			if (stats != null)
+				stats.incrCoordCount();
+		}
+
+		double dist = cosineDistance(dot, norm1, norm2);
+		return (dist > cutOffValue) ? Double.POSITIVE_INFINITY : dist;
+	}
+
+	/**
+	 * Computes the cosine distance from the dot product and the squared
+	 * norms of two points. A zero point is at distance 1 from any other,
+	 * and 0 from another zero point.
+	 *
+	 * @param dot   dot product.
+	 * @param norm1 squared norm of the first point.
+	 * @param norm2 squared norm of the second point.
+	 * @return Returns the cosine distance, between 0 and 2.
+	 */
+	public static double cosineDistance(double dot, double norm1, double norm2) {
+		if (norm1 == 0.0 || norm2 == 0.0)
+			return (norm1 == norm2) ? 0.0 : 1.0;
+
+		double dist = 1.0 - dot / Math.sqrt(norm1 * norm2);
+		return Math.min(2.0, Math.max(0.0, dist));
+	}
+
+	/**
+	 * Scales the rows of a dataset to unit length, in place, over the
+	 * attributes used, and sets the dataset as the distance one.
+	 *
+	 * @param data the instances.
+	 */
+	public void normalizeRows(Instances data) {
+		setInstances(data);
+		for (int i = 0; i < data.numInstances(); i++)
+			unitLength(data.instance(i));
+	}
+
+	/**
+	 * Scales an instance to unit length, in place, over the attributes
+	 * used; missing values are ignored and a zero instance is left as is.
+	 *
+	 * @param inst the instance.
+	 */
+	public void unitLength(Instance inst) {
+		validate();
+		boolean[] used = usedAttributes();
+
+		double norm = 0.0;
+		for (int p = 0; p < inst.numValues(); p++) {
+			double v = inst.valueSparse(p);
+			if (used[inst.index(p)] && !Utils.isMissingValue(v))
+				norm += v * v;
+		}
+
+		if (norm == 0.0)
+			return;
+
+		norm = Math.sqrt(norm);
+		for (int p = 0; p < inst.numValues(); p++) {
+			double v = inst.valueSparse(p);
+			if (used[inst.index(p)] && !Utils.isMissingValue(v))
+				inst.setValueSparse(p, v / norm);
+		}
+	}
+
+	/**
+	 * Initializes the active indices and ranges, and then the attributes
+	 * used: active, numeric and not the class. Called again each time the
+	 * instances or the attribute indices change.
+	 */
+	@Override
+	protected void initialize() {
+		super.initialize();
+
+		boolean[] used = new boolean[m_Data.numAttributes()];
+		for (int j = 0; j < used.length; j++)
+			used[j] = m_ActiveIndices[j] && j != m_Data.classIndex()
+				&& m_Data.attribute(j).isNumeric();
+		m_used = used;
+	}
+
+	/**
+	 * Gets the attributes used: active, numeric and not the class.
+	 *
+	 * @return Returns the attributes used.
+	 */
+	protected boolean[] usedAttributes() {
+		return m_used;
+	}
+
+	/**
+	 * Does nothing, the distances are not squared.
+	 *
+	 * @param distances the distances to post-process.
+	 */
+	@Override
+	public void postProcessDistances(double[] distances) {
+	}
+
+	/**
+	 * Returns the revision string.
+	 *
+	 * @return the revision
+	 */
+	@Override
+	public String getRevision() {
+		return "$Revision: 0001 $";
+	}
+}
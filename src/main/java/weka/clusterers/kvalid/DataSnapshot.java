@@ -0,0 +1,778 @@
+/*
+ * Copyright (C) 2017  Davidson Francis <davidsondfgl@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+/*
+ *    DataSnapshot.java
+ *    Written by Davidson Francis
+ */
+
+package weka.clusterers.kvalid;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import weka.core.Attribute;
+import weka.core.DenseInstance;
+import weka.core.DistanceFunction;
+import weka.core.EuclideanDistance;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.ManhattanDistance;
+import weka.core.NormalizableDistance;
+import weka.core.Range;
+import weka.core.SparseInstance;
+import weka.core.Utils;
+import weka.filters.Filter;
+import weka.filters.unsupervised.attribute.ReplaceMissingValues;
+
+/**
+ * Preprocessed training data, built once per KValid build and shared
+ * by the k-means and the validation of every k:
+ *
+ * <ul>
+ * <li>the missing values are replaced by the means/modes, exactly as
+ * SimpleKMeans would do, so each k-means skips its own replacement. The
+ * data is copied once, with the values already replaced, instead of
+ * being copied and then filtered as a batch, which buffers and outputs
+ * two more copies;</li>
+ * <li>for the Euclidean, Manhattan, Chebyshev and cosine distances over
+ * dense data, the attributes in use are kept as a matrix: numeric values
+ * already normalized and nominal values as int codes, so a distance
+ * between two points is a plain loop with no normalization nor type
+ * checks. For the cosine, the rows are scaled to unit length instead,
+ * and a distance is a dot product. The matrix is a cache of the
+ * point-to-point distances of the Silhouette-Index, next to the data:
+ * the k-means still reads the data itself.</li>
+ * </ul>
+ *
+ * The distances computed from the matrix are exactly the ones of the
+ * distance function, summed in the same attribute order; the cosine
+ * ones are equal up to rounding.
+ *
+ * In single precision, the numeric values of the matrix are stored as
+ * floats, halving the cache, while the distances are still accumulated
+ * in double. Only the cache shrinks: the data, the centroids and the
+ * k-means stay in double precision, and the distances are not faster.
+ * The largest rounding of the values stored is kept, so the accuracy
+ * lost can be reported.
+ *
+ * Off-heap, the numeric values of the matrix are kept in direct buffers
+ * instead (see OffHeapMatrix): the cache is then neither limited to 2^31
+ * values nor by the heap, and the garbage collector never scans or
+ * copies it. The data itself stays on the heap, where the k-means reads
+ * it, so the heap must still hold it.
+ *
+ * @author Davidson Francis (davidson.francis@sga.pucminas.br)
+ * @version $Revision: 0001 $
+ */
+public class DataSnapshot {
+
+	/** Fraction of the free heap the matrix may take. */
+	public static final double MAX_HEAP_FRACTION = 0.25;
+
+	/** Missing values replacement filter. */
+	protected ReplaceMissingValues m_replaceMissing;
+
+	/** Data, without missing values. */
+	protected Instances m_data;
+
+	/** Distance function the matrix was built for, null if none. */
+	protected DistanceFunction m_distanceFunction;
+
+	/** Distance type, as in ScoringModel. */
+	protected int m_distanceType;
+
+	/** Zero rows, for the cosine. */
+	protected boolean[] m_zero;
+
+	/** Kind of each column: true if nominal. */
+	protected boolean[] m_nominal;
+
+	/** Normalized numeric values, row-major, in double precision. */
+	protected double[] m_values;
+
+	/** Normalized numeric values, row-major, in single precision. */
+	protected float[] m_floats;
+
+	/** Store the numeric values in single precision?. */
+	protected boolean m_singlePrecision = false;
+
+	/** Largest difference between a value and its float, in single precision. */
+	protected double m_roundingError;
+
+	/** Normalized numeric values, outside the heap. */
+	protected OffHeapMatrix m_offHeap;
+
+	/** Store the numeric values outside the heap?. */
+	protected boolean m_useOffHeap = false;
+
+	/** Nominal codes, row-major. */
+	protected int[] m_codes;
+
+	/** Numeric and nominal columns per row. */
+	protected int m_numNumeric;
+	protected int m_numNominal;
+
+	/**
+	 * Replaces the missing values of a given dataset.
+	 *
+	 * @param data training data.
+	 * @throws Exception if the filter could not be applied.
+	 */
+	public DataSnapshot(Instances data) throws Exception {
+		m_data = new Instances(data, data.numInstances());
+		m_data.setClassIndex(-1);
+
+		/*
+		 * The filter buffers a copy of its whole batch, so it is set up
+		 * with a single instance holding the means/modes instead: each
+		 * one of them is then its own mean/mode, exactly.
+		 */
+		Instances summary = new Instances(m_data, 1);
+		summary.add(new DenseInstance(1.0, modesAndMeans(data)));
+
+		m_replaceMissing = new ReplaceMissingValues();
+		m_replaceMissing.setInputFormat(m_data);
+		Filter.useFilter(summary, m_replaceMissing);
+
+		/* The copy is filtered, as the class of the caller's data is not replaced. */
+		for (int i = 0; i < data.numInstances(); i++) {
+			m_data.add(data.instance(i));
+			if (hasMissing(data.instance(i))) {
+				m_replaceMissing.input(m_data.lastInstance());
+				m_data.set(i, m_replaceMissing.output());
+			}
+		}
+		m_replaceMissing.batchFinished();
+	}
+
+	/**
+	 * Computes the means/modes of a dataset as the ReplaceMissingValues
+	 * filter does, in the same order, so they are the same to the bit:
+	 * weighted, 0 for a numeric attribute without values and missing for
+	 * a nominal one without labels.
+	 *
+	 * @param data dataset.
+	 * @return Returns the mean/mode of each attribute, missing for the
+	 *         attributes neither numeric nor nominal.
+	 */
+	protected static double[] modesAndMeans(Instances data) {
+		int m = data.numAttributes();
+		double sumOfWeights = data.sumOfWeights();
+		double[] sums = new double[m];
+		double[] counts = new double[m];
+		double[][] nominalCounts = new double[m][];
+
+		for (int j = 0; j < m; j++) {
+			counts[j] = sumOfWeights;
+			if (data.attribute(j).isNominal()) {
+				nominalCounts[j] = new double[data.attribute(j).numValues()];
+				if (nominalCounts[j].length > 0)
+					nominalCounts[j][0] = sumOfWeights;
+			}
+		}
+
+		for (int i = 0; i < data.numInstances(); i++) {
+			Instance inst = data.instance(i);
+			double w = inst.weight();
+
+			for (int p = 0; p < inst.numValues(); p++) {
+				int j = inst.index(p);
+				boolean missing = inst.isMissingSparse(p);
+
+				if (nominalCounts[j] != null) {
+					if (nominalCounts[j].length == 0)
+						continue;
+					if (!missing)
+						nominalCounts[j][(int) inst.valueSparse(p)] += w;
+					nominalCounts[j][0] -= w;
+				}
+				else if (data.attribute(j).isNumeric()) {
+					if (!missing)
+						sums[j] += w * inst.valueSparse(p);
+					else
+						counts[j] -= w;
+				}
+			}
+		}
+
+		double[] values = new double[m];
+		for (int j = 0; j < m; j++) {
+			if (nominalCounts[j] != null)
+				values[j] = (nominalCounts[j].length == 0) ? Utils.missingValue()
+					: Utils.maxIndex(nominalCounts[j]);
+			else if (data.attribute(j).isNumeric())
+				values[j] = Utils.gr(counts[j], 0) ? sums[j] / counts[j] : 0;
+			else
+				values[j] = Utils.missingValue();
+		}
+		return values;
+	}
+
+	/**
+	 * Checks if an instance has some missing value, the class included.
+	 *
+	 * @param inst instance.
+	 * @return Returns true if some value is missing.
+	 */
+	protected static boolean hasMissing(Instance inst) {
+		for (int p = 0; p < inst.numValues(); p++)
+			if (inst.isMissingSparse(p))
+				return true;
+		return false;
+	}
+
+	/**
+	 * Gets the data without missing values.
+	 *
+	 * @return Returns the data.
+	 */
+	public Instances getData() {
+		return m_data;
+	}
+
+	/**
+	 * Gets the missing values replacement filter, already set up with
+	 * the training data means/modes.
+	 *
+	 * @return Returns the filter.
+	 */
+	public ReplaceMissingValues getReplaceMissingFilter() {
+		return m_replaceMissing;
+	}
+
+	/**
+	 * Enables/Disables the single precision storage of the numeric
+	 * values, for the next prepare().
+	 *
+	 * @param singlePrecision Enables/Disables the single precision.
+	 */
+	public void setSinglePrecision(boolean singlePrecision) {
+		m_singlePrecision = singlePrecision;
+	}
+
+	/**
+	 * Gets the single precision option.
+	 *
+	 * @return Returns true if the numeric values are stored as floats.
+	 */
+	public boolean getSinglePrecision() {
+		return m_singlePrecision;
+	}
+
+	/**
+	 * Enables/Disables the off-heap storage of the numeric values, for
+	 * the next prepare().
+	 *
+	 * @param offHeap Enables/Disables the off-heap storage.
+	 */
+	public void setOffHeap(boolean offHeap) {
+		m_useOffHeap = offHeap;
+	}
+
+	/**
+	 * Gets the off-heap storage option.
+	 *
+	 * @return Returns true if the numeric values are stored off-heap.
+	 */
+	public boolean getOffHeap() {
+		return m_useOffHeap;
+	}
+
+	/**
+	 * Gets the memory taken outside the heap by the matrix.
+	 *
+	 * @return Returns the size in bytes, or -1 if the matrix is not
+	 *         stored off-heap.
+	 */
+	public long getOffHeapSize() {
+		return (m_offHeap != null) ? m_offHeap.size() : -1;
+	}
+
+	/**
+	 * Builds the matrix for a given distance function, if it is exactly
+	 * one of the supported distances, the data is dense, all the
+	 * attributes in use are numeric or nominal and the matrix fits in
+	 * the heap (or in the direct memory, off-heap). The ranges of the
+	 * distance function are set to the ones of the data.
+	 *
+	 * @param df distance function.
+	 * @return Returns true if the matrix was built.
+	 * @throws Exception if the ranges could not be computed.
+	 */
+	public boolean prepare(DistanceFunction df) throws Exception {
+		m_distanceFunction = null;
+		m_values = null;
+		m_floats = null;
+		m_offHeap = null;
+		m_codes  = null;
+		m_zero   = null;
+		m_roundingError = 0.0;
+
+		/* Spherical k-means: unit rows, so the k-means means are the normalized means. */
+		if (df instanceof CosineDistance)
+			((CosineDistance) df).normalizeRows(m_data);
+
+		if (df.getClass() != EuclideanDistance.class && df.getClass() != ManhattanDistance.class
+			&& df.getClass() != KValidChebyshevDistance.class && df.getClass() != CosineDistance.class)
+			return false;
+
+		int distanceType = ScoringModel.distanceType(df);
+		boolean cosine   = (distanceType == ScoringModel.COSINE);
+
+		int n = m_data.numInstances();
+		for (int i = 0; i < n; i++)
+			if (m_data.instance(i) instanceof SparseInstance)
+				return false;
+
+		NormalizableDistance nd = (NormalizableDistance) df;
+		nd.setInstances(m_data);
+		double[][] ranges = nd.getRanges();
+
+		/* Attributes in use, in the same order the distance walks them. */
+		Range range = new Range(nd.getAttributeIndices());
+		range.setInvert(nd.getInvertSelection());
+		range.setUpper(m_data.numAttributes() - 1);
+
+		int[] columns = new int[m_data.numAttributes()];
+		boolean[] nominal = new boolean[columns.length];
+		int numColumns = 0, numNominal = 0;
+
+		for (int j = 0; j < m_data.numAttributes(); j++) {
+			if (j == m_data.classIndex() || !range.isInRange(j))
+				continue;
+
+			int type = m_data.attribute(j).type();
+			if (type != Attribute.NUMERIC && type != Attribute.NOMINAL)
+				return false;
+
+			/* The cosine only uses the numeric attributes. */
+			if (cosine && type != Attribute.NUMERIC)
+				continue;
+
+			nominal[numColumns] = (type == Attribute.NOMINAL);
+			if (nominal[numColumns])
+				numNominal++;
+			columns[numColumns++] = j;
+		}
+
+		int numNumeric = numColumns - numNominal;
+		int numOnHeap  = (m_useOffHeap) ? numNominal : numColumns;
+		if ((long) n * numOnHeap > Integer.MAX_VALUE)
+			return false;
+
+		Runtime rt = Runtime.getRuntime();
+		long free = rt.maxMemory() - (rt.totalMemory() - rt.freeMemory());
+		int valueSize = (m_singlePrecision) ? 4 : 8;
+		double onHeap = (m_useOffHeap) ? 0.0 : valueSize * (double) numNumeric;
+		if ((onHeap + 4.0 * numNominal) * n > free * MAX_HEAP_FRACTION)
+			return false;
+
+		if (m_useOffHeap) {
+			try {
+				m_offHeap = new OffHeapMatrix(n, numNumeric, m_singlePrecision);
+			} catch (OutOfMemoryError e) {
+				/* Not enough direct memory. */
+				return false;
+			}
+		}
+		else if (m_singlePrecision)
+			m_floats = new float[n * numNumeric];
+		else
+			m_values = new double[n * numNumeric];
+
+		m_codes = new int[n * numNominal];
+		if (cosine)
+			m_zero = new boolean[n];
+
+		double[] row = new double[numNumeric];
+		for (int i = 0, c = 0; i < n; i++) {
+			int v = 0;
+			for (int p = 0; p < numColumns; p++) {
+				int j = columns[p];
+				double x = m_data.instance(i).value(j);
+
+				if (nominal[p])
+					m_codes[c++] = (int) x;
+				else if (nd.getDontNormalize() || cosine)
+					row[v++] = x;
+				else
+					row[v++] = normalize(x, ranges[j]);
+			}
+
+			if (cosine)
+				m_zero[i] = !unitRow(row);
+
+			store(i, row);
+		}
+
+		m_nominal          = Arrays.copyOf(nominal, numColumns);
+		m_numNumeric       = numNumeric;
+		m_numNominal       = numNominal;
+		m_distanceType     = distanceType;
+		m_distanceFunction = df;
+		return true;
+	}
+
+	/**
+	 * Scales a row to unit length.
+	 *
+	 * @param row row values.
+	 * @return Returns false if the row is all zeros, and was left as is.
+	 */
+	protected static boolean unitRow(double[] row) {
+		double norm = 0.0;
+		for (int p = 0; p < row.length; p++)
+			norm += row[p] * row[p];
+
+		if (norm == 0.0)
+			return false;
+
+		norm = Math.sqrt(norm);
+		for (int p = 0; p < row.length; p++)
+			row[p] /= norm;
+		return true;
+	}
+
+	/**
+	 * Stores the numeric values of a row, keeping the largest rounding
+	 * in single precision.
+	 *
+	 * @param i   row index.
+	 * @param row row values.
+	 */
+	protected void store(int i, double[] row) {
+		if (m_offHeap != null) {
+			for (int p = 0; p < row.length; p++) {
+				m_offHeap.set(i, p, row[p]);
+				m_roundingError = Math.max(m_roundingError, Math.abs(row[p] - m_offHeap.get(i, p)));
+			}
+			return;
+		}
+
+		int offset = i * row.length;
+		if (!m_singlePrecision) {
+			System.arraycopy(row, 0, m_values, offset, row.length);
+			return;
+		}
+
+		for (int p = 0; p < row.length; p++) {
+			m_floats[offset + p] = (float) row[p];
+			m_roundingError = Math.max(m_roundingError, Math.abs(row[p] - m_floats[offset + p]));
+		}
+	}
+
+	/**
+	 * Gets a numeric value of the matrix.
+	 *
+	 * @param i row index.
+	 * @param p numeric column index.
+	 * @return Returns the value.
+	 */
+	protected double value(int i, int p) {
+		if (m_offHeap != null)
+			return m_offHeap.get(i, p);
+
+		int index = i * m_numNumeric + p;
+		return (m_floats != null) ? m_floats[index] : m_values[index];
+	}
+
+	/**
+	 * Gets the largest difference between a value and its float, i.e:
+	 * the rounding of the single precision, in normalized units (unit
+	 * rows for the cosine).
+	 *
+	 * @return Returns the rounding error, 0 in double precision.
+	 */
+	public double getRoundingError() {
+		return m_roundingError;
+	}
+
+	/**
+	 * Gets an upper bound of the error of a distance taken from the
+	 * matrix, due to the single precision: each difference between two
+	 * values is off by at most twice the rounding error.
+	 *
+	 * @return Returns the error bound, 0 in double precision.
+	 */
+	public double getDistanceErrorBound() {
+		double diff = 2.0 * m_roundingError;
+
+		switch (m_distanceType) {
+		case ScoringModel.MANHATTAN:
+			return diff * m_numNumeric;
+		case ScoringModel.CHEBYSHEV:
+			return diff;
+		default:
+			return diff * Math.sqrt(m_numNumeric);
+		}
+	}
+
+	/**
+	 * Normalizes a value, as the distance functions do.
+	 *
+	 * @param x     value.
+	 * @param range minimum, maximum and width of the attribute.
+	 * @return Returns the normalized value.
+	 */
+	protected static double normalize(double x, double[] range) {
+		if (Double.isNaN(range[NormalizableDistance.R_MIN])
+			|| range[NormalizableDistance.R_MAX] == range[NormalizableDistance.R_MIN])
+			return 0;
+		return (x - range[NormalizableDistance.R_MIN]) / range[NormalizableDistance.R_WIDTH];
+	}
+
+	/**
+	 * Checks if the distances between the points of a given dataset can
+	 * be taken from the matrix.
+	 *
+	 * @param data dataset.
+	 * @param df   distance function.
+	 * @return Returns true if the matrix covers them.
+	 */
+	public boolean covers(Instances data, DistanceFunction df) {
+		return m_distanceFunction != null && data == m_data && df == m_distanceFunction;
+	}
+
+	/**
+	 * Computes the distance between two points of the data.
+	 *
+	 * @param a first point index.
+	 * @param b second point index.
+	 * @return Returns the distance.
+	 */
+	public double distance(int a, int b) {
+		double dist = 0.0;
+
+		switch (m_distanceType) {
+		case ScoringModel.COSINE:
+			if (m_zero[a] || m_zero[b])
+				return (m_zero[a] == m_zero[b]) ? 0.0 : 1.0;
+
+			if (m_offHeap != null)
+				dist = offHeapDot(a, b);
+			else if (m_floats != null)
+				for (int p = 0, va = a * m_numNumeric, vb = b * m_numNumeric; p < m_numNumeric; p++)
+					dist += (double) m_floats[va + p] * m_floats[vb + p];
+			else
+				for (int p = 0, va = a * m_numNumeric, vb = b * m_numNumeric; p < m_numNumeric; p++)
+					dist += m_values[va + p] * m_values[vb + p];
+			return Math.min(2.0, Math.max(0.0, 1.0 - dist));
+		}
+
+		/* Numeric only: plain loops over the rows. */
+		if (m_numNominal == 0) {
+			if (m_offHeap != null)
+				return offHeapDistance(a, b);
+
+			int va = a * m_numNumeric, vb = b * m_numNumeric;
+			return (m_floats != null) ? numericDistanceFloat(va, vb) : numericDistance(va, vb);
+		}
+
+		int ca = a * m_numNominal, cb = b * m_numNominal;
+		int v = 0;
+
+		switch (m_distanceType) {
+		case ScoringModel.EUCLIDEAN:
+			for (int p = 0; p < m_nominal.length; p++) {
+				double diff = (m_nominal[p]) ? ((m_codes[ca++] != m_codes[cb++]) ? 1 : 0)
+					: value(a, v) - value(b, v++);
+				dist += diff * diff;
+			}
+			return Math.sqrt(dist);
+
+		case ScoringModel.MANHATTAN:
+			for (int p = 0; p < m_nominal.length; p++) {
+				double diff = (m_nominal[p]) ? ((m_codes[ca++] != m_codes[cb++]) ? 1 : 0)
+					: value(a, v) - value(b, v++);
+				dist += Math.abs(diff);
+			}
+			return dist;
+
+		default:
+			for (int p = 0; p < m_nominal.length; p++) {
+				double diff = (m_nominal[p]) ? ((m_codes[ca++] != m_codes[cb++]) ? 1 : 0)
+					: value(a, v) - value(b, v++);
+				dist = Math.max(dist, Math.abs(diff));
+			}
+			return dist;
+		}
+	}
+
+	/**
+	 * Computes the distance between two rows without nominal columns.
+	 *
+	 * @param va first row offset.
+	 * @param vb second row offset.
+	 * @return Returns the distance.
+	 */
+	protected double numericDistance(int va, int vb) {
+		double[] values = m_values;
+		double dist = 0.0;
+
+		if (m_distanceType == ScoringModel.EUCLIDEAN) {
+			for (int p = 0; p < m_numNumeric; p++) {
+				double diff = values[va + p] - values[vb + p];
+				dist += diff * diff;
+			}
+			return Math.sqrt(dist);
+		}
+
+		if (m_distanceType == ScoringModel.MANHATTAN) {
+			for (int p = 0; p < m_numNumeric; p++)
+				dist += Math.abs(values[va + p] - values[vb + p]);
+			return dist;
+		}
+
+		for (int p = 0; p < m_numNumeric; p++) {
+			double diff = Math.abs(values[va + p] - values[vb + p]);
+			if (diff > dist)
+				dist = diff;
+		}
+		return dist;
+	}
+
+	/**
+	 * Computes the distance between two rows without nominal columns,
+	 * stored in single precision. The differences and sums are done in
+	 * double.
+	 *
+	 * @param va first row offset.
+	 * @param vb second row offset.
+	 * @return Returns the distance.
+	 */
+	protected double numericDistanceFloat(int va, int vb) {
+		float[] values = m_floats;
+		double dist = 0.0;
+
+		if (m_distanceType == ScoringModel.EUCLIDEAN) {
+			for (int p = 0; p < m_numNumeric; p++) {
+				double diff = (double) values[va + p] - values[vb + p];
+				dist += diff * diff;
+			}
+			return Math.sqrt(dist);
+		}
+
+		if (m_distanceType == ScoringModel.MANHATTAN) {
+			for (int p = 0; p < m_numNumeric; p++)
+				dist += Math.abs((double) values[va + p] - values[vb + p]);
+			return dist;
+		}
+
+		for (int p = 0; p < m_numNumeric; p++) {
+			double diff = Math.abs((double) values[va + p] - values[vb + p]);
+			if (diff > dist)
+				dist = diff;
+		}
+		return dist;
+	}
+
+	/**
+	 * Computes the dot product of two rows stored off-heap.
+	 *
+	 * @param a first row index.
+	 * @param b second row index.
+	 * @return Returns the dot product.
+	 */
+	protected double offHeapDot(int a, int b) {
+		ByteBuffer ba = m_offHeap.block(a), bb = m_offHeap.block(b);
+		int oa = m_offHeap.offset(a), ob = m_offHeap.offset(b);
+		double dot = 0.0;
+
+		if (m_offHeap.isSinglePrecision())
+			for (int p = 0; p < m_numNumeric; p++, oa += 4, ob += 4)
+				dot += (double) ba.getFloat(oa) * bb.getFloat(ob);
+		else
+			for (int p = 0; p < m_numNumeric; p++, oa += 8, ob += 8)
+				dot += ba.getDouble(oa) * bb.getDouble(ob);
+		return dot;
+	}
+
+	/**
+	 * Computes the distance between two rows without nominal columns,
+	 * stored off-heap. As in the heap, the differences and sums are done
+	 * in double and in the attribute order.
+	 *
+	 * @param a first row index.
+	 * @param b second row index.
+	 * @return Returns the distance.
+	 */
+	protected double offHeapDistance(int a, int b) {
+		ByteBuffer ba = m_offHeap.block(a), bb = m_offHeap.block(b);
+		int oa = m_offHeap.offset(a), ob = m_offHeap.offset(b);
+		double dist = 0.0;
+
+		if (m_offHeap.isSinglePrecision())
+			return offHeapDistanceFloat(ba, oa, bb, ob);
+
+		if (m_distanceType == ScoringModel.EUCLIDEAN) {
+			for (int p = 0; p < m_numNumeric; p++, oa += 8, ob += 8) {
+				double diff = ba.getDouble(oa) - bb.getDouble(ob);
+				dist += diff * diff;
+			}
+			return Math.sqrt(dist);
+		}
+
+		if (m_distanceType == ScoringModel.MANHATTAN) {
+			for (int p = 0; p < m_numNumeric; p++, oa += 8, ob += 8)
+				dist += Math.abs(ba.getDouble(oa) - bb.getDouble(ob));
+			return dist;
+		}
+
+		for (int p = 0; p < m_numNumeric; p++, oa += 8, ob += 8) {
+			double diff = Math.abs(ba.getDouble(oa) - bb.getDouble(ob));
+			if (diff > dist)
+				dist = diff;
+		}
+		return dist;
+	}
+
+	/**
+	 * Computes the distance between two rows without nominal columns,
+	 * stored off-heap in single precision.
+	 *
+	 * @param ba first row block.
+	 * @param oa first row offset, in bytes.
+	 * @param bb second row block.
+	 * @param ob second row offset, in bytes.
+	 * @return Returns the distance.
+	 */
+	protected double offHeapDistanceFloat(ByteBuffer ba, int oa, ByteBuffer bb, int ob) {
+		double dist = 0.0;
+
+		if (m_distanceType == ScoringModel.EUCLIDEAN) {
+			for (int p = 0; p < m_numNumeric; p++, oa += 4, ob += 4) {
+				double diff = (double) ba.getFloat(oa) - bb.getFloat(ob);
+				dist += diff * diff;
+			}
+			return Math.sqrt(dist);
+		}
+
+		if (m_distanceType == ScoringModel.MANHATTAN) {
+			for (int p = 0; p < m_numNumeric; p++, oa += 4, ob += 4)
+				dist += Math.abs((double) ba.getFloat(oa) - bb.getFloat(ob));
+			return dist;
+		}
+
+		for (int p = 0; p < m_numNumeric; p++, oa += 4, ob += 4) {
+			double diff = Math.abs((double) ba.getFloat(oa) - bb.getFloat(ob));
+			if (diff > dist)
+				dist = diff;
+		}
+		return dist;
+	}
+}
@@ -0,0 +1,338 @@
+/*
+ * Copyright (C) 2017  Davidson Francis <davidsondfgl@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+/*
+ *    EvaluationPlanner.java
+ *    Written by Davidson Francis
+ */
+
+package weka.clusterers.kvalid;
+
+import java.io.Serializable;
+import java.util.Locale;
+import java.util.Random;
+
+import weka.core.DistanceFunction;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.SerializedObject;
+
+/**
+ * Plans the silhouette evaluation of a cascade before it starts: the
+ * cost of each strategy is estimated from the dataset size, the k range
+ * and the measured cost of a distance evaluation, and the most accurate
+ * strategy that fits the time budget and the free heap is chosen:
+ *
+ * <ul>
+ * <li>exact: every point against every other, O(n^2) per k;</li>
+ * <li>sampled: a random sample of the points against every other,
+ * O(s.n) per k;</li>
+ * <li>simplified: every point against the centroids, O(n.k) per k.</li>
+ * </ul>
+ *
+ * @author Davidson Francis (davidson.francis@sga.pucminas.br)
+ * @version $Revision: 0001 $
+ */
+public class EvaluationPlanner implements Serializable {
+
+	/** Serialization */
+	static final long serialVersionUID = -4120843291937301561L;
+
+	/** Strategies. */
+	public static final int EXACT      = 0;
+	public static final int SAMPLED    = 1;
+	public static final int SIMPLIFIED = 2;
+
+	/** Strategy names. */
+	public static final String[] STRATEGY_NAMES = { "exact", "sampled", "simplified" };
+
+	/** Default time budget, in seconds, when the cascade has none. */
+	public static final double DEFAULT_BUDGET = 60;
+
+	/** Smallest sample worth using, below that the simplified silhouette is used. */
+	public static final int MIN_SAMPLE_SIZE = 1000;
+
+	/** k-means iterations assumed by the estimate. */
+	public static final int EXPECTED_ITERATIONS = 10;
+
+	/**
+	 * Margin over the measured distance cost: the evaluation loops also
+	 * walk the clusters and miss the caches the calibration hits.
+	 */
+	public static final double SAFETY_FACTOR = 2.0;
+
+	/** Number of distance evaluations timed, per round. */
+	protected static final int CALIBRATION_CALLS = 10000;
+
+	/** Minimum number of calibration rounds. */
+	protected static final int CALIBRATION_ROUNDS = 8;
+
+	/** Minimum calibration time, in nanoseconds. */
+	protected static final long CALIBRATION_TIME = 200000000L;
+
+	/** Result of the calibration loop, so it is not optimized away. */
+	protected static volatile double s_sink;
+
+	/** Time budget, in seconds. */
+	protected double m_budget;
+
+	/** Strategy chosen. */
+	protected int m_strategy = EXACT;
+
+	/** Sample size, if sampled. */
+	protected int m_sampleSize;
+
+	/** Measured cost of one distance evaluation, in nanoseconds. */
+	protected double m_distanceCost;
+
+	/** Estimated time of the strategy chosen, in seconds. */
+	protected double m_estimatedTime;
+
+	/** Estimated time of the exact strategy, in seconds. */
+	protected double m_exactTime;
+
+	/** Estimated heap needed by the strategy chosen, in bytes. */
+	protected long m_estimatedMemory;
+
+	/** Free heap when planned, in bytes. */
+	protected long m_availableHeap;
+
+	/** Silhouette b(i) over all the other clusters?. */
+	protected boolean m_allClusters = false;
+
+	/** Dataset size. */
+	protected int m_numInstances;
+
+	/** Number of attributes. */
+	protected int m_numAttributes;
+
+	/** k range. */
+	protected int m_minK;
+	protected int m_maxK;
+
+	/**
+	 * Creates a new planner.
+	 *
+	 * @param budget time budget, in seconds, 0 for the default one.
+	 */
+	public EvaluationPlanner(double budget) {
+		m_budget = (budget > 0) ? budget : DEFAULT_BUDGET;
+	}
+
+	/**
+	 * Plans for the silhouette with b(i) over all the other clusters,
+	 * i.e: each point against all the others.
+	 *
+	 * @param allClusters true for b(i) over all the other clusters.
+	 */
+	public void setAllClusters(boolean allClusters) {
+		m_allClusters = allClusters;
+	}
+
+	/**
+	 * Plans the evaluation of a cascade.
+	 *
+	 * @param data dataset.
+	 * @param df   distance function used by the evaluation.
+	 * @param minK first k.
+	 * @param maxK last k.
+	 * @throws Exception if the distance cost could not be measured.
+	 */
+	public void plan(Instances data, DistanceFunction df, int minK, int maxK) throws Exception {
+		Runtime rt = Runtime.getRuntime();
+
+		m_numInstances  = data.numInstances();
+		m_numAttributes = data.numAttributes();
+		m_minK          = minK;
+		m_maxK          = maxK;
+		m_availableHeap = rt.maxMemory() - (rt.totalMemory() - rt.freeMemory());
+		m_distanceCost  = measureDistanceCost(data, df);
+
+		long n = m_numInstances;
+
+		/* Distance evaluations of each strategy, over the whole range. */
+		double build = 0, assign = 0, perPoint = 0;
+		for (int k = minK; k <= maxK; k++) {
+			build    += (double) EXPECTED_ITERATIONS * n * k;
+			assign   += (double) n * k;
+			/* Balanced clusters: own cluster, centroids and nearest cluster. */
+			perPoint += (m_allClusters) ? n - 1 : 2.0 * n / k + k;
+		}
+
+		/* What is left of the budget once the k-means are built. */
+		double budget = m_budget - seconds(build);
+
+		m_exactTime = seconds(assign + n * perPoint);
+		long bucketsMemory = 16 * n;
+
+		if (m_exactTime <= budget && bucketsMemory < m_availableHeap / 2) {
+			m_strategy        = EXACT;
+			m_sampleSize      = 0;
+			m_estimatedTime   = m_exactTime;
+			m_estimatedMemory = bucketsMemory;
+			return;
+		}
+
+		/* Largest sample that fits. */
+		double sample = (budget / seconds(1) - assign) / perPoint;
+		if (sample >= MIN_SAMPLE_SIZE && bucketsMemory < m_availableHeap / 2) {
+			m_strategy        = SAMPLED;
+			m_sampleSize      = (int) Math.min(n - 1, (long) sample);
+			m_estimatedTime   = seconds(assign + m_sampleSize * perPoint);
+			m_estimatedMemory = bucketsMemory + 4L * m_sampleSize;
+			return;
+		}
+
+		m_strategy        = SIMPLIFIED;
+		m_sampleSize      = 0;
+		m_estimatedTime   = seconds(2 * assign);
+		m_estimatedMemory = bucketsMemory;
+	}
+
+	/**
+	 * Converts a number of distance evaluations into seconds.
+	 *
+	 * @param calls number of distance evaluations.
+	 * @return Returns the estimated time, in seconds.
+	 */
+	protected double seconds(double calls) {
+		return calls * m_distanceCost * SAFETY_FACTOR * 1e-9;
+	}
+
+	/**
+	 * Measures the mean cost of a distance evaluation over random pairs
+	 * of the dataset, using a copy of the distance function.
+	 *
+	 * @param data dataset.
+	 * @param df   distance function.
+	 * @return Returns the cost, in nanoseconds.
+	 * @throws Exception if the distance function could not be copied.
+	 */
+	protected static double measureDistanceCost(Instances data, DistanceFunction df)
+		throws Exception {
+
+		DistanceFunction copy = (DistanceFunction) new SerializedObject(df).getObject();
+		copy.setInstances(data);
+
+		int n = data.numInstances();
+		Random rand = new Random(1);
+		Instance[] first  = new Instance[CALIBRATION_CALLS];
+		Instance[] second = new Instance[CALIBRATION_CALLS];
+		for (int i = 0; i < CALIBRATION_CALLS; i++) {
+			first[i]  = data.instance(rand.nextInt(n));
+			second[i] = data.instance(rand.nextInt(n));
+		}
+
+		/* The first rounds warm up the JIT, so keeps the fastest one. */
+		long time  = Long.MAX_VALUE;
+		long start = System.nanoTime();
+		double sink = 0;
+		for (int round = 0; round < CALIBRATION_ROUNDS
+			|| System.nanoTime() - start < CALIBRATION_TIME; round++) {
+
+			long t = System.nanoTime();
+			for (int i = 0; i < CALIBRATION_CALLS; i++)
+				sink += copy.distance(first[i], second[i]);
+			time = Math.min(time, System.nanoTime() - t);
+		}
+
+		/* Keeps the loop alive. */
+		s_sink = sink;
+
+		return Math.max(1.0, (double) time / CALIBRATION_CALLS);
+	}
+
+	/**
+	 * Configures a silhouette evaluator with the strategy chosen.
+	 *
+	 * @param si evaluator.
+	 */
+	public void configure(SilhouetteIndex si) {
+		si.setSimplified(m_strategy == SIMPLIFIED);
+		si.setSampleSize((m_strategy == SAMPLED) ? m_sampleSize : 0, 1);
+	}
+
+	/**
+	 * Checks if a silhouette already evaluated (i.e: cached) is as
+	 * good as the one this plan would give.
+	 *
+	 * @param si evaluator.
+	 * @return Returns true if it can be reused.
+	 */
+	public boolean accepts(SilhouetteIndex si) {
+		if (si.isExact())
+			return true;
+		if (m_strategy == SIMPLIFIED)
+			return si.getSimplified();
+		if (m_strategy == SAMPLED)
+			return !si.getSimplified() && si.getSampleSize() >= m_sampleSize;
+		return false;
+	}
+
+	/**
+	 * Gets the strategy chosen.
+	 *
+	 * @return Returns the strategy.
+	 */
+	public int getStrategy() {
+		return m_strategy;
+	}
+
+	/**
+	 * Gets the sample size.
+	 *
+	 * @return Returns the sample size, 0 if not sampled.
+	 */
+	public int getSampleSize() {
+		return m_sampleSize;
+	}
+
+	/**
+	 * Gets the estimated evaluation time.
+	 *
+	 * @return Returns the estimated time, in seconds.
+	 */
+	public double getEstimatedTime() {
+		return m_estimatedTime;
+	}
+
+	/**
+	 * Returns a string describing the plan.
+	 *
+	 * @return Returns the plan and its estimate.
+	 */
+	@Override
+	public String toString() {
+		StringBuffer text = new StringBuffer();
+
+		text.append("=== Evaluation plan: " + STRATEGY_NAMES[m_strategy]);
+		if (m_strategy == SAMPLED)
+			text.append(" (" + m_sampleSize + " points)");
+		text.append(" ===\n");
+
+		text.append(String.format(Locale.US,
+			"   n = %d, attributes = %d, k = %d..%d, distance = %.1f ns\n",
+			m_numInstances, m_numAttributes, m_minK, m_maxK, m_distanceCost));
+		text.append(String.format(Locale.US,
+			"   estimated: %.1f s (exact would take %.1f s), %.1f MB of %.1f MB free heap\n",
+			m_estimatedTime, m_exactTime, m_estimatedMemory / 1048576.0,
+			m_availableHeap / 1048576.0));
+		text.append(String.format(Locale.US, "   budget: %.1f s\n", m_budget));
+
+		return text.toString();
+	}
+}
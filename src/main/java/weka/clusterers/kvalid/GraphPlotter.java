@@ -22,18 +22,26 @@
 
 package weka.clusterers.kvalid;
 
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
 import java.io.Serializable;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Locale;
 
 import java.awt.Color;
 import java.awt.Dimension;
-import java.awt.Font;
-import javax.swing.JPanel;
+import java.awt.GraphicsEnvironment;
+import javax.swing.SwingUtilities;
 
 import org.jfree.chart.ChartFactory;
 import org.jfree.chart.ChartPanel;
+import org.jfree.chart.ChartUtilities;
 import org.jfree.chart.JFreeChart;
-import org.jfree.chart.axis.NumberAxis;
 import org.jfree.chart.plot.CategoryPlot;
 import org.jfree.chart.plot.PlotOrientation;
 import org.jfree.chart.renderer.category.LineAndShapeRenderer;
@@ -41,13 +49,16 @@ import org.jfree.chart.title.TextTitle;
 import org.jfree.data.category.CategoryDataset;
 import org.jfree.data.category.DefaultCategoryDataset;
 import org.jfree.ui.ApplicationFrame;
-import org.jfree.ui.HorizontalAlignment;
-import org.jfree.ui.RectangleEdge;
 import org.jfree.ui.RefineryUtilities;
 
 /**
  * GraphPlotter class.
  *
+ * The windows are built on the Swing event thread, so plotting never
+ * blocks the caller, and are not built at all without a display. The
+ * charts can also be saved as PNG or SVG, which works headless, and a
+ * live chart can be updated as each k is evaluated.
+ *
  * @author Davidson Francis (davidson.francis@sga.pucminas.br)
  * @version $Revision: 0001 $
  */
@@ -56,6 +67,13 @@ public class GraphPlotter extends ApplicationFrame implements Serializable {
 	/** Serialization */
 	static final long serialVersionUID = -401133168492661320L;
 
+	/** Series of the k values. */
+	protected static final String SERIES = "k";
+
+	/** Size of the windows and of the files saved. */
+	public static final int WIDTH  = 412;
+	public static final int HEIGHT = 323;
+
 	/** Default constructor. */
 	public GraphPlotter(String windowTitle){
 		super(windowTitle);
@@ -75,10 +93,51 @@ public class GraphPlotter extends ApplicationFrame implements Serializable {
 	public void plot(ArrayList<Double> dataSet, int startK, String title,
 		String subTitle, String xLabel, String yLabel) {
 
-		/* Mounts the dataset. */
+		display(createChart(createDataset(dataSet, startK), title, subTitle, xLabel, yLabel));
+	}
+
+	/**
+	 * Shows a chart in this window.
+	 *
+	 * @param chart chart.
+	 */
+	protected void display(JFreeChart chart) {
+		ChartPanel chartPanel = new ChartPanel(chart);
+		chartPanel.setPreferredSize(new Dimension(WIDTH, HEIGHT));
+		setContentPane(chartPanel);
+
+		pack();
+		RefineryUtilities.centerFrameOnScreen(this);
+		setVisible(true);
+	}
+
+	/**
+	 * Mounts the dataset of a chart; the k values not evaluated are
+	 * null.
+	 *
+	 * @param dataSet Y value of each k.
+	 * @param startK  first k.
+	 * @return Returns the dataset.
+	 */
+	public static DefaultCategoryDataset createDataset(ArrayList<Double> dataSet, int startK) {
 		DefaultCategoryDataset data = new DefaultCategoryDataset();
 		for (int i = 0; i < dataSet.size(); i++)
-			data.addValue( dataSet.get(i), "k",  "" + (startK + i) );
+			data.addValue( dataSet.get(i), SERIES,  "" + (startK + i) );
+		return data;
+	}
+
+	/**
+	 * Creates the line chart of a dataset.
+	 *
+	 * @param data     dataset.
+	 * @param title    Graph title.
+	 * @param subTitle Graph subtitle.
+	 * @param xLabel   Graph X label.
+	 * @param yLabel   Graph Y label.
+	 * @return Returns the chart.
+	 */
+	public static JFreeChart createChart(CategoryDataset data, String title, String subTitle,
+		String xLabel, String yLabel) {
 
 		JFreeChart chart = ChartFactory.createLineChart(title, xLabel, yLabel,
 			data, PlotOrientation.VERTICAL, false, true, false);
@@ -97,13 +156,201 @@ public class GraphPlotter extends ApplicationFrame implements Serializable {
 		renderer.setDrawOutlines(true);
 		renderer.setUseFillPaint(true);
 
-		/* Shows the chart. */
-		ChartPanel chartPanel = new ChartPanel(chart);
-		chartPanel.setPreferredSize(new Dimension(412, 323));
-		setContentPane(chartPanel);
+		return chart;
+	}
 
-		pack();
-		RefineryUtilities.centerFrameOnScreen(this);
-		setVisible(true);
+	/**
+	 * Checks if windows can be shown, i.e: there is a display.
+	 *
+	 * @return Returns true if not headless.
+	 */
+	public static boolean canShow() {
+		return !GraphicsEnvironment.isHeadless();
+	}
+
+	/**
+	 * Shows a chart in a new window, built later on the Swing event
+	 * thread; returns at once.
+	 *
+	 * @param windowTitle window title.
+	 * @param chart       chart.
+	 * @return Returns false if there is no display.
+	 */
+	public static boolean show(final String windowTitle, final JFreeChart chart) {
+		if (!canShow())
+			return false;
+
+		SwingUtilities.invokeLater(new Runnable() {
+			public void run() {
+				new GraphPlotter(windowTitle).display(chart);
+			}
+		});
+		return true;
+	}
+
+	/**
+	 * Sets the value of a k in a chart being shown; the chart repaints
+	 * itself, on the Swing event thread.
+	 *
+	 * @param data  dataset of the chart.
+	 * @param k     k value.
+	 * @param value Y value.
+	 */
+	public static void update(final DefaultCategoryDataset data, final int k, final Double value) {
+		SwingUtilities.invokeLater(new Runnable() {
+			public void run() {
+				data.setValue(value, SERIES, "" + k);
+			}
+		});
+	}
+
+	/**
+	 * Saves a chart to a file, as SVG if its name ends with '.svg',
+	 * PNG otherwise. No display is needed.
+	 *
+	 * @param chart chart.
+	 * @param file  output file.
+	 * @throws IOException if the file could not be written.
+	 */
+	public static void save(JFreeChart chart, File file) throws IOException {
+		if (file.getName().toLowerCase().endsWith(".svg"))
+			saveSVG(chart, file);
+		else
+			ChartUtilities.saveChartAsPNG(file, chart, WIDTH, HEIGHT);
+	}
+
+	/**
+	 * Saves a chart as SVG: JFreeChart 1.0 has no SVG output, so the
+	 * same line chart is drawn from its dataset and titles.
+	 *
+	 * @param chart chart.
+	 * @param file  output file.
+	 * @throws IOException if the file could not be written.
+	 */
+	protected static void saveSVG(JFreeChart chart, File file) throws IOException {
+		CategoryPlot plot = (CategoryPlot) chart.getPlot();
+		CategoryDataset data = plot.getDataset();
+		int n = data.getColumnCount();
+
+		/* Plot area and Y range, over the values present. */
+		double left = 60, right = WIDTH - 15, top = 60, bottom = HEIGHT - 45;
+		double min = Double.MAX_VALUE, max = -Double.MAX_VALUE;
+		for (int i = 0; i < n; i++) {
+			Number v = data.getValue(0, i);
+			if (v != null) {
+				min = Math.min(min, v.doubleValue());
+				max = Math.max(max, v.doubleValue());
+			}
+		}
+		if (min > max)
+			min = max = 0;
+		if (max - min < 1e-12) {
+			min -= 0.5;
+			max += 0.5;
+		}
+
+		Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file),
+			StandardCharsets.UTF_8));
+		try {
+			out.write(String.format(Locale.US, "<svg xmlns=\"http://www.w3.org/2000/svg\" "
+				+ "width=\"%d\" height=\"%d\" font-family=\"sans-serif\">%n", WIDTH, HEIGHT));
+			out.write(String.format(Locale.US, "<rect width=\"%d\" height=\"%d\" fill=\"white\"/>%n"
+				+ "<rect x=\"%.1f\" y=\"%.1f\" width=\"%.1f\" height=\"%.1f\" fill=\"lightgray\"/>%n",
+				WIDTH, HEIGHT, left, top, right - left, bottom - top));
+
+			/* Titles. */
+			text(out, WIDTH / 2.0, 20, 14, "bold", chart.getTitle().getText(), 0);
+			if (chart.getSubtitleCount() > 0 && chart.getSubtitle(0) instanceof TextTitle)
+				text(out, WIDTH / 2.0, 38, 11, "normal",
+					((TextTitle) chart.getSubtitle(0)).getText(), 0);
+			text(out, (left + right) / 2, HEIGHT - 8, 11, "normal",
+				plot.getDomainAxis().getLabel(), 0);
+			text(out, 14, (top + bottom) / 2, 11, "normal", plot.getRangeAxis().getLabel(), -90);
+
+			/* Y grid lines and ticks. */
+			for (int t = 0; t <= 4; t++) {
+				double v = min + (max - min) * t / 4;
+				double y = bottom - (bottom - top) * t / 4;
+				out.write(String.format(Locale.US, "<line x1=\"%.1f\" y1=\"%.1f\" x2=\"%.1f\" "
+					+ "y2=\"%.1f\" stroke=\"white\"/>%n", left, y, right, y));
+				text(out, left - 4, y + 4, 9, "normal", String.format(Locale.US, "%.4g", v), 0,
+					"end");
+			}
+
+			/* X labels, line and points. */
+			StringBuilder line = new StringBuilder();
+			StringBuilder points = new StringBuilder();
+			double step = (right - left) / Math.max(1, n);
+
+			for (int i = 0; i < n; i++) {
+				double x = left + step * (i + 0.5);
+				text(out, x, bottom + 14, 9, "normal", data.getColumnKey(i).toString(), 0);
+
+				Number v = data.getValue(0, i);
+				if (v == null) {
+					line.append(' ');
+					continue;
+				}
+
+				double y = bottom - (bottom - top) * (v.doubleValue() - min) / (max - min);
+				line.append(String.format(Locale.US, "%s%.1f,%.1f",
+					(line.length() == 0 || line.charAt(line.length() - 1) == ' ') ? "M" : "L", x, y));
+				points.append(String.format(Locale.US, "<circle cx=\"%.1f\" cy=\"%.1f\" r=\"3\" "
+					+ "fill=\"blue\"/>%n", x, y));
+			}
+
+			if (line.toString().trim().length() > 0)
+				out.write("<path d=\"" + line.toString().trim() + "\" fill=\"none\" "
+					+ "stroke=\"blue\"/>\n");
+			out.write(points.toString());
+			out.write("</svg>\n");
+		}
+		finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Writes a centered text element.
+	 *
+	 * @param out    output.
+	 * @param x      x coordinate.
+	 * @param y      y coordinate.
+	 * @param size   font size.
+	 * @param weight font weight.
+	 * @param text   text.
+	 * @param rotate rotation, in degrees.
+	 * @throws IOException if the text could not be written.
+	 */
+	protected static void text(Writer out, double x, double y, int size, String weight,
+		String text, int rotate) throws IOException {
+
+		text(out, x, y, size, weight, text, rotate, "middle");
+	}
+
+	/**
+	 * Writes a text element.
+	 *
+	 * @param out    output.
+	 * @param x      x coordinate.
+	 * @param y      y coordinate.
+	 * @param size   font size.
+	 * @param weight font weight.
+	 * @param text   text.
+	 * @param rotate rotation, in degrees.
+	 * @param anchor text anchor: start, middle or end.
+	 * @throws IOException if the text could not be written.
+	 */
+	protected static void text(Writer out, double x, double y, int size, String weight,
+		String text, int rotate, String anchor) throws IOException {
+
+		if (text == null)
+			return;
+
+		String escaped = text.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;");
+		out.write(String.format(Locale.US, "<text x=\"%.1f\" y=\"%.1f\" font-size=\"%d\" "
+			+ "font-weight=\"%s\" text-anchor=\"%s\"%s>%s</text>%n", x, y, size, weight, anchor,
+			(rotate != 0) ? String.format(Locale.US, " transform=\"rotate(%d %.1f %.1f)\"",
+			rotate, x, y) : "", escaped));
 	}
 }
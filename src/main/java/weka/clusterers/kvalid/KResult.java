@@ -0,0 +1,252 @@
+/*
+ * Copyright (C) 2017  Davidson Francis <davidsondfgl@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+/*
+ *    KResult.java
+ *    Written by Davidson Francis
+ */
+
+package weka.clusterers.kvalid;
+
+import java.io.Serializable;
+
+import weka.core.Instances;
+
+/**
+ * Results of a single k in the cascade: the centroids found, the
+ * squared error, the time spent and, if evaluated, the Silhouette-Index.
+ *
+ * @author Davidson Francis (davidson.francis@sga.pucminas.br)
+ * @version $Revision: 0001 $
+ */
+public class KResult implements Serializable {
+
+	/** Serialization */
+	static final long serialVersionUID = -608833168493683320L;
+
+	/** Number of clusters. */
+	protected int m_k;
+
+	/** Within cluster sum of squared errors. */
+	protected double m_squaredError;
+
+	/** Cluster centroids. */
+	protected double[][] m_centroids;
+
+	/** Silhouette-Index, null if not evaluated. */
+	protected SilhouetteIndex m_silhouette;
+
+	/** Bootstrap stability, null if not evaluated. */
+	protected StabilityIndex m_stability;
+
+	/** Time spent to build and evaluate, in nanoseconds. */
+	protected long m_elapsedTime;
+
+	/** Time spent building the k-means, in nanoseconds. */
+	protected long m_buildTime;
+
+	/** Number of k-means iterations. */
+	protected int m_iterations;
+
+	/** Number of distance evaluations done by the k-means. */
+	protected long m_buildDistanceCalls;
+
+	/**
+	 * Creates a new result.
+	 *
+	 * @param k            number of clusters.
+	 * @param squaredError within cluster sum of squared errors.
+	 * @param centroids    cluster centroids.
+	 */
+	public KResult(int k, double squaredError, Instances centroids) {
+		m_k            = k;
+		m_squaredError = squaredError;
+		m_centroids    = new double[centroids.numInstances()][];
+
+		for (int i = 0; i < m_centroids.length; i++)
+			m_centroids[i] = centroids.instance(i).toDoubleArray();
+	}
+
+	/**
+	 * Gets the number of clusters.
+	 *
+	 * @return Returns the number of clusters.
+	 */
+	public int getK() {
+		return m_k;
+	}
+
+	/**
+	 * Gets the within cluster sum of squared errors.
+	 *
+	 * @return Returns the squared error.
+	 */
+	public double getSquaredError() {
+		return m_squaredError;
+	}
+
+	/**
+	 * Gets the cluster centroids.
+	 *
+	 * @return Returns the centroids.
+	 */
+	public double[][] getCentroids() {
+		return m_centroids;
+	}
+
+	/**
+	 * Gets the Silhouette-Index.
+	 *
+	 * @return Returns the Silhouette-Index, or null if not evaluated.
+	 */
+	public SilhouetteIndex getSilhouette() {
+		return m_silhouette;
+	}
+
+	/**
+	 * Sets the Silhouette-Index.
+	 *
+	 * @param silhouette Silhouette-Index.
+	 */
+	public void setSilhouette(SilhouetteIndex silhouette) {
+		m_silhouette = silhouette;
+	}
+
+	/**
+	 * Gets the bootstrap stability.
+	 *
+	 * @return Returns the stability, or null if not evaluated.
+	 */
+	public StabilityIndex getStability() {
+		return m_stability;
+	}
+
+	/**
+	 * Sets the bootstrap stability.
+	 *
+	 * @param stability bootstrap stability.
+	 */
+	public void setStability(StabilityIndex stability) {
+		m_stability = stability;
+	}
+
+	/**
+	 * Gets the time spent to build and evaluate this k.
+	 *
+	 * @return Returns the elapsed time, in nanoseconds.
+	 */
+	public long getElapsedTime() {
+		return m_elapsedTime;
+	}
+
+	/**
+	 * Sets the time spent to build and evaluate this k.
+	 *
+	 * @param elapsedTime elapsed time, in nanoseconds.
+	 */
+	public void setElapsedTime(long elapsedTime) {
+		m_elapsedTime = elapsedTime;
+	}
+
+	/**
+	 * Sets the k-means statistics.
+	 *
+	 * @param buildTime     time spent building the k-means, in nanoseconds.
+	 * @param iterations    number of iterations.
+	 * @param distanceCalls number of distance evaluations.
+	 */
+	public void setBuildStats(long buildTime, int iterations, long distanceCalls) {
+		m_buildTime          = buildTime;
+		m_iterations         = iterations;
+		m_buildDistanceCalls = distanceCalls;
+	}
+
+	/**
+	 * Gets the time spent building the k-means.
+	 *
+	 * @return Returns the build time, in nanoseconds.
+	 */
+	public long getBuildTime() {
+		return m_buildTime;
+	}
+
+	/**
+	 * Gets the time spent assigning the instances for the evaluation.
+	 *
+	 * @return Returns the assignment time, in nanoseconds.
+	 */
+	public long getAssignmentTime() {
+		return (m_silhouette == null) ? 0 : m_silhouette.getAssignmentTime();
+	}
+
+	/**
+	 * Gets the time spent in the evaluation itself.
+	 *
+	 * @return Returns the evaluation time, in nanoseconds.
+	 */
+	public long getEvaluationTime() {
+		if (m_stability != null)
+			return m_stability.getEvaluationTime();
+		return (m_silhouette == null) ? 0 : m_silhouette.getEvaluationTime();
+	}
+
+	/**
+	 * Gets the number of k-means iterations.
+	 *
+	 * @return Returns the number of iterations.
+	 */
+	public int getIterations() {
+		return m_iterations;
+	}
+
+	/**
+	 * Gets the number of distance evaluations, k-means and evaluation.
+	 *
+	 * @return Returns the number of distance evaluations.
+	 */
+	public long getDistanceCalls() {
+		return m_buildDistanceCalls
+			+ ((m_silhouette == null) ? 0 : m_silhouette.getDistanceCalls());
+	}
+
+	/**
+	 * Gets the size of the largest cluster walked by the evaluation.
+	 *
+	 * @return Returns the peak bucket size.
+	 */
+	public int getPeakBucketSize() {
+		return (m_silhouette == null) ? 0 : m_silhouette.getMaxClusterSize();
+	}
+
+	/**
+	 * Estimates the memory used by this result.
+	 *
+	 * @return Returns the approximated size, in bytes.
+	 */
+	public long estimateSize() {
+		long size = 64;
+		for (int i = 0; i < m_centroids.length; i++)
+			size += 16 + 8L * m_centroids[i].length;
+
+		if (m_silhouette != null)
+			size += 64 + 8L * m_silhouette.getClustersSilhouetteValues().length;
+		if (m_stability != null)
+			size += 64 + 8L * m_stability.getScores().length;
+
+		return size;
+	}
+}
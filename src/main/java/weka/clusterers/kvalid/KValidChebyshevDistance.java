@@ -0,0 +1,150 @@
+/*
+ * Copyright (C) 2017  Davidson Francis <davidsondfgl@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+/*
+ *    KValidChebyshevDistance.java
+ *    Written by Davidson Francis
+ */
+
+package weka.clusterers.kvalid;
+
+import weka.core.EuclideanDistance;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.TechnicalInformation;
+import weka.core.neighboursearch.PerformanceStats;
+
+/**
+ * Chebyshev distance, the largest difference between two attributes,
+ * with the same normalization and nominal/missing values rules as
+ * weka.core.ChebyshevDistance, which KValid replaces by this one.
+ *
+ * It extends EuclideanDistance so SimpleKMeans accepts it: the
+ * centroids are then the means of the clusters, and the squared error
+ * of a cluster is, as for the Euclidean distance, the sum of the
+ * squared distances to its centroid.
+ *
+ * @author Davidson Francis (davidson.francis@sga.pucminas.br)
+ * @version $Revision: 0001 $
+ */
+public class KValidChebyshevDistance extends EuclideanDistance {
+
+	/** Serialization */
+	static final long serialVersionUID = 4467109355612860318L;
+
+	/** Default constructor. */
+	public KValidChebyshevDistance() {
+		super();
+	}
+
+	/**
+	 * Initializes the distance function with the given instances.
+	 *
+	 * @param data the instances.
+	 */
+	public KValidChebyshevDistance(Instances data) {
+		super(data);
+	}
+
+	/**
+	 * Creates a copy of a given Weka Chebyshev distance, options included.
+	 *
+	 * @param df distance function.
+	 * @throws Exception if the options could not be copied.
+	 */
+	public KValidChebyshevDistance(weka.core.ChebyshevDistance df) throws Exception {
+		setOptions(df.getOptions());
+	}
+
+	/**
+	 * Returns a string describing this object.
+	 *
+	 * @return a description of the evaluator suitable for displaying in
+	 *         the explorer/experimenter gui
+	 */
+	@Override
+	public String globalInfo() {
+		return new weka.core.ChebyshevDistance().globalInfo();
+	}
+
+	/**
+	 * Returns an instance of a TechnicalInformation object, containing
+	 * detailed information about the technical background of this class.
+	 *
+	 * @return the technical information about this class
+	 */
+	@Override
+	public TechnicalInformation getTechnicalInformation() {
+		return new weka.core.ChebyshevDistance().getTechnicalInformation();
+	}
+
+	/**
+	 * Calculates the distance between two instances.
+	 *
+	 * @param first  the first instance.
+	 * @param second the second instance.
+	 * @return the distance between the two given instances.
+	 */
+	@Override
+	public double distance(Instance first, Instance second) {
+		return distance(first, second, Double.POSITIVE_INFINITY, null);
+	}
+
+	/**
+	 * Calculates the distance between two instances.
+	 *
+	 * @param first  the first instance.
+	 * @param second the second instance.
+	 * @param stats  the performance stats object.
+	 * @return the distance between the two given instances.
+	 */
+	@Override
+	public double distance(Instance first, Instance second, PerformanceStats stats) {
+		return distance(first, second, Double.POSITIVE_INFINITY, stats);
+	}
+
+	/**
+	 * Updates the distance with the difference of one attribute.
+	 *
+	 * @param currDist the current distance.
+	 * @param diff     the difference.
+	 * @return the updated distance.
+	 */
+	@Override
+	protected double updateDistance(double currDist, double diff) {
+		return Math.max(currDist, Math.abs(diff));
+	}
+
+	/**
+	 * Does nothing, the distances are not squared.
+	 *
+	 * @param distances the distances to post-process.
+	 */
+	@Override
+	public void postProcessDistances(double[] distances) {
+	}
+
+	/**
+	 * Returns the revision string.
+	 *
+	 * @return the revision
+	 */
+	@Override
+	public String getRevision() {
+		return "$Revision: 0001 $";
+	}
+}
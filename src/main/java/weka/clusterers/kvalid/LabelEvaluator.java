@@ -0,0 +1,502 @@
+/*
+ * Copyright (C) 2017  Davidson Francis <davidsondfgl@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+/*
+ *    LabelEvaluator.java
+ *    Written by Davidson Francis
+ */
+
+package weka.clusterers.kvalid;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Locale;
+
+import weka.core.DenseInstance;
+import weka.core.DistanceFunction;
+import weka.core.EuclideanDistance;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.ManhattanDistance;
+import weka.core.Utils;
+import weka.core.converters.AbstractFileLoader;
+import weka.filters.Filter;
+import weka.filters.unsupervised.attribute.Remove;
+
+/**
+ * Evaluate-only mode: validates cluster assignments computed elsewhere,
+ * i.e: by a production run, without any k-means work. The assignments
+ * come from an attribute of the dataset or from a label file, one
+ * cluster number per row, and the centroids, if not given, are derived
+ * from them as SimpleKMeans does (means/modes, medians for Manhattan).
+ * The squared error and the Silhouette-Index, exact, sampled or
+ * simplified, are then evaluated over the assignments as they are.
+ *
+ * Rows whose label is missing or negative (noise) are left out.
+ *
+ * @author Davidson Francis (davidson.francis@sga.pucminas.br)
+ * @version $Revision: 0001 $
+ */
+public class LabelEvaluator {
+
+	/** Distance function. */
+	protected DistanceFunction m_distanceFunction = new EuclideanDistance();
+
+	/** Evaluates the Silhouette-Index?. */
+	protected boolean m_useSilhouette = true;
+
+	/** Silhouette-Index settings: sample size, seed, simplified and all clusters. */
+	protected int m_sampleSize = 0;
+	protected long m_seed = 1;
+	protected boolean m_simplified = false;
+	protected boolean m_allClusters = false;
+
+	/** Centroids given, null to derive them. */
+	protected Instances m_givenCentroids = null;
+
+	/** Centroids of the last evaluation. */
+	protected Instances m_centroids;
+
+	/** Squared error of each cluster. */
+	protected double[] m_squaredErrors;
+
+	/** Size of each cluster. */
+	protected int[] m_sizes;
+
+	/** Silhouette-Index, null if not evaluated. */
+	protected SilhouetteIndex m_silhouette;
+
+	/** Rows left out, without a label. */
+	protected int m_numUnlabeled;
+
+	/** Time spent in the last evaluation, in nanoseconds. */
+	protected long m_elapsedTime;
+
+	/**
+	 * Sets the distance function.
+	 *
+	 * @param df distance function.
+	 */
+	public void setDistanceFunction(DistanceFunction df) {
+		m_distanceFunction = df;
+	}
+
+	/**
+	 * Enables/Disables the Silhouette-Index, the squared error is always
+	 * evaluated.
+	 *
+	 * @param useSilhouette Enables/Disables the Silhouette-Index.
+	 */
+	public void setUseSilhouette(boolean useSilhouette) {
+		m_useSilhouette = useSilhouette;
+	}
+
+	/**
+	 * Sets the Silhouette-Index variant.
+	 *
+	 * @param sampleSize  number of points sampled, 0 for all.
+	 * @param seed        seed of the sample.
+	 * @param simplified  distances to the centroids only?.
+	 * @param allClusters b(i) over all the other clusters?.
+	 */
+	public void setSilhouette(int sampleSize, long seed, boolean simplified,
+		boolean allClusters) {
+
+		m_sampleSize  = sampleSize;
+		m_seed        = seed;
+		m_simplified  = simplified;
+		m_allClusters = allClusters;
+	}
+
+	/**
+	 * Sets the centroids, one per cluster number, instead of deriving
+	 * them from the assignments. They must have the attributes of the
+	 * data evaluated, without the label attribute.
+	 *
+	 * @param centroids centroids, null to derive them.
+	 */
+	public void setCentroids(Instances centroids) {
+		m_givenCentroids = centroids;
+	}
+
+	/**
+	 * Evaluates the assignments given by an attribute of the dataset,
+	 * which is not used by the distances.
+	 *
+	 * @param data       dataset.
+	 * @param labelIndex index of the label attribute, nominal or numeric.
+	 * @throws Exception if the evaluation failed.
+	 */
+	public void evaluate(Instances data, int labelIndex) throws Exception {
+		double[] labels = new double[data.numInstances()];
+		for (int i = 0; i < labels.length; i++)
+			labels[i] = data.instance(i).value(labelIndex);
+
+		Remove remove = new Remove();
+		remove.setAttributeIndicesArray(new int[] { labelIndex });
+		remove.setInputFormat(data);
+		evaluate(Filter.useFilter(data, remove), labels);
+	}
+
+	/**
+	 * Evaluates the assignments given, one cluster number per instance.
+	 *
+	 * @param data   dataset.
+	 * @param labels cluster of each instance, missing or negative to
+	 *               leave it out.
+	 * @throws Exception if the evaluation failed.
+	 */
+	public void evaluate(Instances data, double[] labels) throws Exception {
+		if (labels.length != data.numInstances())
+			throw new Exception("LabelEvaluator: " + labels.length + " labels given for "
+				+ data.numInstances() + " instances!");
+
+		long time = System.nanoTime();
+
+		/* Labeled rows only. */
+		Instances labeled = new Instances(data, data.numInstances());
+		ArrayList<Integer> assigned = new ArrayList<Integer>(data.numInstances());
+		int k = 0;
+
+		for (int i = 0; i < labels.length; i++) {
+			if (Utils.isMissingValue(labels[i]) || labels[i] < 0)
+				continue;
+			if (labels[i] != Math.rint(labels[i]))
+				throw new Exception("LabelEvaluator: label " + labels[i] + " is not a cluster number!");
+
+			labeled.add(data.instance(i));
+			assigned.add((int) labels[i]);
+			k = Math.max(k, (int) labels[i] + 1);
+		}
+
+		m_numUnlabeled = data.numInstances() - labeled.numInstances();
+		if (labeled.numInstances() == 0)
+			throw new Exception("LabelEvaluator: no labeled instances!");
+
+		int[] assignments = new int[assigned.size()];
+		for (int i = 0; i < assignments.length; i++)
+			assignments[i] = assigned.get(i);
+
+		/* Missing values replaced and ranges set, as KValid does before the k-means. */
+		DataSnapshot snapshot = new DataSnapshot(labeled);
+		Instances values = snapshot.getData();
+		if (!snapshot.prepare(m_distanceFunction))
+			m_distanceFunction.setInstances(values);
+
+		if (m_givenCentroids != null) {
+			if (m_givenCentroids.numInstances() < k)
+				throw new Exception("LabelEvaluator: " + m_givenCentroids.numInstances()
+					+ " centroids given for " + k + " clusters!");
+
+			/* Same attributes as the data, the label (if any) already removed. */
+			Instances header = new Instances(data, 0);
+			Instances given  = new Instances(m_givenCentroids, 0);
+			header.setClassIndex(-1);
+			given.setClassIndex(-1);
+			String msg = header.equalHeadersMsg(given);
+			if (msg != null)
+				throw new Exception("LabelEvaluator: the centroids given do not match the data "
+					+ "(without the label attribute), " + msg);
+			m_centroids = m_givenCentroids;
+		}
+		else
+			m_centroids = deriveCentroids(values, assignments, k);
+
+		/* Squared error, with the SimpleKMeans convention. */
+		boolean squared = m_distanceFunction instanceof EuclideanDistance;
+		m_squaredErrors = new double[m_centroids.numInstances()];
+		m_sizes = new int[m_centroids.numInstances()];
+
+		for (int i = 0; i < assignments.length; i++) {
+			double dist = m_distanceFunction.distance(values.instance(i),
+				m_centroids.instance(assignments[i]));
+			m_squaredErrors[assignments[i]] += (squared) ? dist * dist : dist;
+			m_sizes[assignments[i]]++;
+		}
+
+		m_silhouette = null;
+		if (m_useSilhouette) {
+			SilhouetteIndex si = new SilhouetteIndex();
+			if (m_sampleSize > 0)
+				si.setSampleSize(m_sampleSize, m_seed);
+			si.setSimplified(m_simplified);
+			si.setAllClusters(m_allClusters);
+			si.setSnapshot(snapshot);
+			si.setAssignments(assignments);
+			si.evaluate(null, m_centroids, values, m_distanceFunction);
+			m_silhouette = si;
+		}
+
+		m_elapsedTime = System.nanoTime() - time;
+	}
+
+	/**
+	 * Derives the centroids from the assignments, as the SimpleKMeans
+	 * moves them: the means, or medians for the Manhattan distance, of
+	 * the numeric attributes and the modes of the nominal ones.
+	 *
+	 * @param data        dataset, without missing values.
+	 * @param assignments cluster of each instance.
+	 * @param k           number of clusters.
+	 * @return Returns the centroids.
+	 */
+	protected Instances deriveCentroids(Instances data, int[] assignments, int k) {
+		Instances[] members = new Instances[k];
+		for (int c = 0; c < k; c++)
+			members[c] = new Instances(data, 0);
+		for (int i = 0; i < assignments.length; i++)
+			members[assignments[i]].add(data.instance(i));
+
+		boolean median = m_distanceFunction instanceof ManhattanDistance;
+		Instances centroids = new Instances(data, k);
+
+		for (int c = 0; c < k; c++) {
+			double[] vals = new double[data.numAttributes()];
+			int n = members[c].numInstances();
+
+			for (int j = 0; j < vals.length; j++) {
+				if (n == 0)
+					vals[j] = Utils.missingValue();
+				else if (median && data.attribute(j).isNumeric()) {
+					int middle = (n - 1) / 2;
+					vals[j] = (n % 2 == 0) ? (members[c].kthSmallestValue(j, middle + 1)
+						+ members[c].kthSmallestValue(j, middle + 2)) / 2
+						: members[c].kthSmallestValue(j, middle + 1);
+				}
+				else
+					vals[j] = members[c].meanOrMode(j);
+			}
+			centroids.add(new DenseInstance(1.0, vals));
+		}
+		return centroids;
+	}
+
+	/**
+	 * Reads a label file: one cluster number per line, or a CSV file
+	 * with a header, whose 'cluster' column is used (the first column if
+	 * there is none), as written by the StreamScorer. Empty labels and
+	 * '?' are missing.
+	 *
+	 * @param fileName label file.
+	 * @return Returns the labels.
+	 * @throws IOException if the file could not be read.
+	 */
+	public static double[] readLabels(String fileName) throws IOException {
+		BufferedReader in = new BufferedReader(new InputStreamReader(
+			new FileInputStream(fileName), StandardCharsets.UTF_8), 1 << 16);
+		ArrayList<Double> labels = new ArrayList<Double>();
+
+		try {
+			String line = in.readLine();
+			int column = 0;
+
+			/* Header?. */
+			if (line != null && !isLabel(line.split(",", -1)[0].trim())) {
+				String[] names = line.split(",", -1);
+				for (int j = 0; j < names.length; j++)
+					if (names[j].trim().equalsIgnoreCase("cluster"))
+						column = j;
+				line = in.readLine();
+			}
+
+			for (; line != null; line = in.readLine()) {
+				String[] fields = line.split(",", -1);
+				String v = (column < fields.length) ? fields[column].trim() : "";
+
+				if (v.length() == 0 || v.equals("?"))
+					labels.add(Utils.missingValue());
+				else
+					labels.add(Double.parseDouble(v));
+			}
+		}
+		finally {
+			in.close();
+		}
+
+		double[] result = new double[labels.size()];
+		for (int i = 0; i < result.length; i++)
+			result[i] = labels.get(i);
+		return result;
+	}
+
+	/**
+	 * Checks if a field is a label, i.e: a number or missing.
+	 *
+	 * @param field field.
+	 * @return Returns true if the field is a label.
+	 */
+	protected static boolean isLabel(String field) {
+		if (field.length() == 0 || field.equals("?"))
+			return true;
+		try {
+			Double.parseDouble(field);
+			return true;
+		}
+		catch (NumberFormatException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Gets the centroids of the last evaluation.
+	 *
+	 * @return Returns the centroids.
+	 */
+	public Instances getCentroids() {
+		return m_centroids;
+	}
+
+	/**
+	 * Gets the squared error, over all the clusters.
+	 *
+	 * @return Returns the squared error.
+	 */
+	public double getSquaredError() {
+		return Utils.sum(m_squaredErrors);
+	}
+
+	/**
+	 * Gets the Silhouette-Index.
+	 *
+	 * @return Returns the Silhouette-Index, or null if not evaluated.
+	 */
+	public SilhouetteIndex getSilhouette() {
+		return m_silhouette;
+	}
+
+	/**
+	 * Gets the time spent in the last evaluation.
+	 *
+	 * @return Returns the elapsed time, in nanoseconds.
+	 */
+	public long getElapsedTime() {
+		return m_elapsedTime;
+	}
+
+	/**
+	 * Returns a string describing the results.
+	 *
+	 * @return a string describing the evaluation.
+	 */
+	@Override
+	public String toString() {
+		StringBuffer text = new StringBuffer();
+		text.append("=== Evaluation of the given assignments (k = " + m_sizes.length + ", "
+			+ Utils.sum(m_sizes) + " instances");
+		if (m_numUnlabeled > 0)
+			text.append(", " + m_numUnlabeled + " unlabeled left out");
+		text.append(") ===\n\n");
+
+		text.append("Centroids: " + ((m_givenCentroids != null) ? "given"
+			: "derived from the assignments") + "\n\n");
+
+		for (int c = 0; c < m_sizes.length; c++)
+			text.append(String.format(Locale.US, "   Cluster %d: %d instances, SSE %.4f%n",
+				c, m_sizes[c], m_squaredErrors[c]));
+		text.append("SSE: " + getSquaredError() + "\n");
+
+		if (m_silhouette != null)
+			text.append("\nSilhouette Index\n" + m_silhouette.toString() + "\n");
+
+		return text.toString();
+	}
+
+	/**
+	 * Main method, use -h to list all parameters.
+	 *
+	 * @param args command line arguments.
+	 */
+	public static void main(String[] args) {
+		try {
+			if (args.length == 0 || Utils.getFlag('h', args)) {
+				System.err.println("Usage: LabelEvaluator -i <arff/csv file>"
+					+ " (-label <attribute name or index> | -labels <label file>)"
+					+ " [-centroids <arff/csv file>] [-A <distance function>] [-sample <n>]"
+					+ " [-seed <n>] [-simplified] [-all-clusters] [-no-silhouette]");
+				return;
+			}
+
+			String inputFile = Utils.getOption('i', args);
+			String label     = Utils.getOption("label", args);
+			String labelFile = Utils.getOption("labels", args);
+			String centroids = Utils.getOption("centroids", args);
+
+			if (inputFile.length() == 0 || (label.length() == 0) == (labelFile.length() == 0))
+				throw new Exception("LabelEvaluator: the input (-i) and either a label attribute "
+					+ "(-label) or a label file (-labels) are required!");
+
+			LabelEvaluator evaluator = new LabelEvaluator();
+			String temp;
+
+			String distance = Utils.getOption('A', args);
+			if (distance.length() > 0) {
+				String[] spec = Utils.splitOptions(distance);
+				String className = spec[0];
+				spec[0] = "";
+				evaluator.setDistanceFunction((DistanceFunction) Utils.forName(
+					DistanceFunction.class, className, spec));
+			}
+
+			int sample = 0;
+			if ((temp = Utils.getOption("sample", args)).length() > 0)
+				sample = Integer.parseInt(temp);
+
+			long seed = 1;
+			if ((temp = Utils.getOption("seed", args)).length() > 0)
+				seed = Long.parseLong(temp);
+
+			evaluator.setSilhouette(sample, seed, Utils.getFlag("simplified", args),
+				Utils.getFlag("all-clusters", args));
+			evaluator.setUseSilhouette(!Utils.getFlag("no-silhouette", args));
+			Utils.checkForRemainingOptions(args);
+
+			AbstractFileLoader loader = StreamScorer.getLoader(inputFile);
+			Instances data = loader.getDataSet();
+
+			if (centroids.length() > 0)
+				evaluator.setCentroids(StreamScorer.getLoader(centroids).getDataSet());
+
+			if (labelFile.length() > 0)
+				evaluator.evaluate(data, readLabels(labelFile));
+			else {
+				int index;
+				if (data.attribute(label) != null)
+					index = data.attribute(label).index();
+				else if (label.equals("first"))
+					index = 0;
+				else if (label.equals("last"))
+					index = data.numAttributes() - 1;
+				else
+					index = Integer.parseInt(label) - 1;
+
+				evaluator.evaluate(data, index);
+			}
+
+			System.out.println(evaluator);
+			System.err.println("Evaluated in " + String.format(Locale.US, "%.3f",
+				evaluator.getElapsedTime() / 1e9) + " s");
+		}
+		catch (Exception e) {
+			e.printStackTrace();
+			System.exit(1);
+		}
+	}
+}
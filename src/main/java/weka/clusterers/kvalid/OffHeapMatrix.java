@@ -0,0 +1,162 @@
+/*
+ * Copyright (C) 2017  Davidson Francis <davidsondfgl@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+/*
+ *    OffHeapMatrix.java
+ *    Written by Davidson Francis
+ */
+
+package weka.clusterers.kvalid;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Row-major matrix of doubles or floats kept outside the Java heap, in
+ * direct buffers. The rows are split in blocks of whole rows, each one
+ * smaller than 2 GB, so the matrix is not limited to 2^31 values and a
+ * row never crosses two blocks.
+ *
+ * On the heap, the matrix takes only its block buffers (one small object
+ * per 2 GB block), and the garbage collector never copies nor scans the
+ * values. The memory is released once the buffers are garbage collected;
+ * the direct memory available is limited by the JVM option
+ * -XX:MaxDirectMemorySize (the maximum heap size by default).
+ *
+ * @author Davidson Francis (davidson.francis@sga.pucminas.br)
+ * @version $Revision: 0001 $
+ */
+public class OffHeapMatrix {
+
+	/** Largest block, in bytes. */
+	public static final int MAX_BLOCK_SIZE = Integer.MAX_VALUE - 7;
+
+	/** Row blocks. */
+	protected final ByteBuffer[] m_blocks;
+
+	/** Rows per block. */
+	protected final int m_rowsPerBlock;
+
+	/** Row size, in bytes. */
+	protected final int m_rowSize;
+
+	/** Values per row. */
+	protected final int m_numColumns;
+
+	/** Number of rows. */
+	protected final long m_numRows;
+
+	/** Values stored as floats?. */
+	protected final boolean m_singlePrecision;
+
+	/**
+	 * Allocates a new matrix, filled with zeros.
+	 *
+	 * @param numRows         number of rows.
+	 * @param numColumns      values per row.
+	 * @param singlePrecision true to store the values as floats.
+	 * @throws OutOfMemoryError if there is not enough direct memory.
+	 */
+	public OffHeapMatrix(long numRows, int numColumns, boolean singlePrecision) {
+		int valueSize = (singlePrecision) ? 4 : 8;
+		if ((long) numColumns * valueSize > MAX_BLOCK_SIZE)
+			throw new IllegalArgumentException("Row too large: " + numColumns + " values!");
+
+		m_numRows         = numRows;
+		m_numColumns      = numColumns;
+		m_singlePrecision = singlePrecision;
+		m_rowSize         = numColumns * valueSize;
+		m_rowsPerBlock    = (m_rowSize == 0) ? Integer.MAX_VALUE : MAX_BLOCK_SIZE / m_rowSize;
+
+		int numBlocks = (int) ((numRows + m_rowsPerBlock - 1) / m_rowsPerBlock);
+		m_blocks = new ByteBuffer[numBlocks];
+
+		for (int b = 0; b < numBlocks; b++) {
+			long rows = Math.min(m_rowsPerBlock, numRows - (long) b * m_rowsPerBlock);
+			m_blocks[b] = ByteBuffer.allocateDirect((int) (rows * m_rowSize))
+				.order(ByteOrder.nativeOrder());
+		}
+	}
+
+	/**
+	 * Gets the size of the matrix.
+	 *
+	 * @return Returns the size, in bytes.
+	 */
+	public long size() {
+		return m_numRows * m_rowSize;
+	}
+
+	/**
+	 * Gets the block of a given row.
+	 *
+	 * @param row row index.
+	 * @return Returns the block.
+	 */
+	public ByteBuffer block(int row) {
+		return m_blocks[row / m_rowsPerBlock];
+	}
+
+	/**
+	 * Gets the offset of a given row inside its block.
+	 *
+	 * @param row row index.
+	 * @return Returns the offset, in bytes.
+	 */
+	public int offset(int row) {
+		return (row % m_rowsPerBlock) * m_rowSize;
+	}
+
+	/**
+	 * Gets a value.
+	 *
+	 * @param row row index.
+	 * @param p   column index.
+	 * @return Returns the value.
+	 */
+	public double get(int row, int p) {
+		ByteBuffer block = block(row);
+		int offset = offset(row);
+		return (m_singlePrecision) ? block.getFloat(offset + 4 * p)
+			: block.getDouble(offset + 8 * p);
+	}
+
+	/**
+	 * Sets a value, rounded to a float in single precision.
+	 *
+	 * @param row row index.
+	 * @param p   column index.
+	 * @param x   value.
+	 */
+	public void set(int row, int p, double x) {
+		ByteBuffer block = block(row);
+		int offset = offset(row);
+		if (m_singlePrecision)
+			block.putFloat(offset + 4 * p, (float) x);
+		else
+			block.putDouble(offset + 8 * p, x);
+	}
+
+	/**
+	 * Checks if the values are stored as floats.
+	 *
+	 * @return Returns true in single precision.
+	 */
+	public boolean isSinglePrecision() {
+		return m_singlePrecision;
+	}
+}
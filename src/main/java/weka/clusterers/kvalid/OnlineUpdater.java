@@ -0,0 +1,253 @@
+/*
+ * Copyright (C) 2017  Davidson Francis <davidsondfgl@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+/*
+ *    OnlineUpdater.java
+ *    Written by Davidson Francis
+ */
+
+package weka.clusterers.kvalid;
+
+import java.io.Serializable;
+
+import weka.core.DenseInstance;
+import weka.core.DistanceFunction;
+import weka.core.EuclideanDistance;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.NormalizableDistance;
+import weka.core.Range;
+import weka.core.Utils;
+
+/**
+ * Sequential (MacQueen) k-means over a built clusterer: each new
+ * instance goes to its nearest centroid, which then moves to the mean
+ * of its points, c += (x - c) / (n + 1), or takes the new mode for the
+ * nominal attributes. The cluster sizes, nominal counts and squared
+ * errors of the clusterer are updated in place, so the SSE is always
+ * current without another pass over the data.
+ *
+ * For the Euclidean distance, the squared error of a cluster is kept
+ * exact (as long as the k-means converged, i.e: its centroids are the
+ * means/modes of their points): a new point adds n / (n + 1) of its
+ * squared numeric distance to the old mean, and the nominal attributes
+ * add their change of mismatches against the mode. For the other
+ * distances, the numeric centroid is still the running mean (not the
+ * Manhattan median) and each point adds its distance to the updated
+ * centroid, so the SSE is a sequential approximation.
+ *
+ * The normalization ranges stay the ones of the training data, unless
+ * they follow the stream (setUpdateRanges), as in an incremental
+ * training where the data is not known upfront; the squared error is
+ * then approximated too, its older terms were measured with the older
+ * ranges.
+ *
+ * @author Davidson Francis (davidson.francis@sga.pucminas.br)
+ * @version $Revision: 0001 $
+ */
+public class OnlineUpdater implements Serializable {
+
+	/** Serialization */
+	static final long serialVersionUID = 6352017384426930172L;
+
+	/** Cluster centroids, updated in place. */
+	protected Instances m_centroids;
+
+	/** Cluster sizes, updated in place. */
+	protected double[] m_sizes;
+
+	/** Squared errors of each cluster, updated in place. */
+	protected double[] m_squaredErrors;
+
+	/** Nominal counts of each cluster and attribute, updated in place. */
+	protected double[][][] m_nominalCounts;
+
+	/** Distance function. */
+	protected DistanceFunction m_distanceFunction;
+
+	/** Attributes used by the distance. */
+	protected boolean[] m_active;
+
+	/** Exact squared errors, i.e: Euclidean distance?. */
+	protected boolean m_exact;
+
+	/** Squared distances in the errors?. */
+	protected boolean m_squared;
+
+	/** Extend the normalization ranges with each instance?. */
+	protected boolean m_updateRanges;
+
+	/** Number of instances added. */
+	protected long m_numUpdates;
+
+	/**
+	 * Creates an updater over the state of a built clusterer.
+	 *
+	 * @param centroids        cluster centroids.
+	 * @param sizes            cluster sizes.
+	 * @param squaredErrors    squared errors of each cluster.
+	 * @param nominalCounts    nominal counts of each cluster and attribute.
+	 * @param distanceFunction distance function of the clusterer.
+	 */
+	public OnlineUpdater(Instances centroids, double[] sizes, double[] squaredErrors,
+		double[][][] nominalCounts, DistanceFunction distanceFunction) {
+
+		m_centroids        = centroids;
+		m_sizes            = sizes;
+		m_squaredErrors    = squaredErrors;
+		m_nominalCounts    = nominalCounts;
+		m_distanceFunction = distanceFunction;
+
+		/* Same convention of SimpleKMeans: Euclidean distances are squared. */
+		m_squared = distanceFunction instanceof EuclideanDistance;
+		m_exact   = distanceFunction.getClass() == EuclideanDistance.class
+			|| distanceFunction.getClass() == SparseEuclideanDistance.class;
+
+		NormalizableDistance nd = (NormalizableDistance) distanceFunction;
+		Range range = new Range(nd.getAttributeIndices());
+		range.setInvert(nd.getInvertSelection());
+		range.setUpper(centroids.numAttributes() - 1);
+
+		m_active = new boolean[centroids.numAttributes()];
+		for (int j = 0; j < m_active.length; j++)
+			m_active[j] = range.isInRange(j) && j != nd.getInstances().classIndex();
+	}
+
+	/**
+	 * Adds an instance, without missing values, to its nearest cluster.
+	 *
+	 * @param inst instance.
+	 * @return Returns the cluster the instance was added to.
+	 */
+	public int update(Instance inst) {
+		if (m_updateRanges)
+			((NormalizableDistance) m_distanceFunction).update(inst);
+
+		int cluster = 0;
+		double minDist = Double.MAX_VALUE;
+
+		for (int c = 0; c < m_centroids.numInstances(); c++) {
+			double dist = m_distanceFunction.distance(inst, m_centroids.instance(c));
+			if (dist < minDist) {
+				minDist = dist;
+				cluster = c;
+			}
+		}
+
+		Instance centroid = m_centroids.instance(cluster);
+		double n = m_sizes[cluster];
+		double[] values = centroid.toDoubleArray();
+		double mismatches = 0, modeChange = 0;
+
+		for (int j = 0; j < values.length; j++) {
+			if (m_centroids.attribute(j).isNumeric())
+				values[j] += (inst.value(j) - values[j]) / (n + 1);
+
+			else if (m_centroids.attribute(j).isNominal()) {
+				double[] counts = nominalCounts(cluster, j, n, (int) values[j]);
+				int v = (int) inst.value(j);
+
+				if (m_active[j] && v != (int) values[j])
+					mismatches++;
+
+				double max = counts[Utils.maxIndex(counts)];
+				counts[v]++;
+				values[j] = Utils.maxIndex(counts);
+
+				/* Mismatches against the mode: n - max before, n + 1 - max after. */
+				if (m_active[j])
+					modeChange += 1 - (counts[(int) values[j]] - max);
+			}
+		}
+
+		m_centroids.set(cluster, new DenseInstance(centroid.weight(), values));
+
+		if (isExact()) {
+			/* Squared numeric distance to the old mean. */
+			double numeric = Math.max(0.0, minDist * minDist - mismatches);
+			m_squaredErrors[cluster] += numeric * n / (n + 1) + modeChange;
+		}
+		else {
+			double dist = m_distanceFunction.distance(inst, m_centroids.instance(cluster));
+			m_squaredErrors[cluster] += (m_squared) ? dist * dist : dist;
+		}
+
+		m_sizes[cluster] = n + 1;
+		m_numUpdates++;
+		return cluster;
+	}
+
+	/**
+	 * Gets the value counts of a nominal attribute in a cluster; if the
+	 * clusterer did not keep them, all the points are assumed to have
+	 * the mode.
+	 *
+	 * @param cluster cluster.
+	 * @param j       attribute index.
+	 * @param n       cluster size.
+	 * @param mode    current mode.
+	 * @return Returns the counts.
+	 */
+	protected double[] nominalCounts(int cluster, int j, double n, int mode) {
+		double[] counts = m_nominalCounts[cluster][j];
+		int numValues = m_centroids.attribute(j).numValues();
+
+		if (counts == null || counts.length < numValues) {
+			counts = new double[numValues];
+			counts[mode] = n;
+			m_nominalCounts[cluster][j] = counts;
+		}
+		return counts;
+	}
+
+	/**
+	 * Gets the current squared error, over all the clusters.
+	 *
+	 * @return Returns the squared error.
+	 */
+	public double getSquaredError() {
+		return Utils.sum(m_squaredErrors);
+	}
+
+	/**
+	 * Sets whether the normalization ranges are extended with each new
+	 * instance.
+	 *
+	 * @param updateRanges true to extend the ranges.
+	 */
+	public void setUpdateRanges(boolean updateRanges) {
+		m_updateRanges = updateRanges;
+	}
+
+	/**
+	 * Checks if the squared error is kept exact.
+	 *
+	 * @return Returns true for the Euclidean distance, with fixed ranges.
+	 */
+	public boolean isExact() {
+		return m_exact && !m_updateRanges;
+	}
+
+	/**
+	 * Gets the number of instances added.
+	 *
+	 * @return Returns the number of updates.
+	 */
+	public long getNumUpdates() {
+		return m_numUpdates;
+	}
+}
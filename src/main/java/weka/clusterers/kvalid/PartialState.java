@@ -0,0 +1,483 @@
+/*
+ * Copyright (C) 2017  Davidson Francis <davidsondfgl@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+/*
+ *    PartialState.java
+ *    Written by Davidson Francis
+ */
+
+package weka.clusterers.kvalid;
+
+import java.io.Serializable;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import weka.core.Instance;
+
+/**
+ * Mergeable validation statistics of a model over a part of the data:
+ * the size, squared error, numeric sums and simplified silhouette sum of
+ * each cluster, and optionally the partial sums of a sampled silhouette.
+ * The states of disjoint parts merge into the exact statistics of their
+ * union, whatever the order, so each part may be assigned by a different
+ * process or machine: a map task builds one state per split and a reduce
+ * task merges them, as in the Weka distributed packages.
+ *
+ * The sampled silhouette takes two passes. In the first, every state
+ * keeps a bottom-m sample of its part (the m points of smallest random
+ * key), and the merge of those samples is a uniform sample of the whole
+ * data. In the second, the states start with that sample and sum, for
+ * each sample point, its distances to the points of each cluster; once
+ * merged, a(i) and b(i) of the sample points are exact.
+ *
+ * @author Davidson Francis (davidson.francis@sga.pucminas.br)
+ * @version $Revision: 0001 $
+ */
+public class PartialState implements Serializable {
+
+	/** Serialization */
+	static final long serialVersionUID = 2265401381029717665L;
+
+	/** Model whose clusters are evaluated. */
+	protected ScoringModel m_model;
+
+	/** Size of each cluster. */
+	protected long[] m_counts;
+
+	/** Squared error of each cluster, with the SimpleKMeans convention. */
+	protected double[] m_squaredErrors;
+
+	/** Sums of the numeric attributes of each cluster. */
+	protected double[][] m_sums;
+
+	/** Sum of the simplified silhouettes of each cluster. */
+	protected double[] m_silhouetteSums;
+
+	/** Bottom-m sample: capacity, size, keys and points. */
+	protected int m_sampleCapacity;
+	protected int m_reservoirSize;
+	protected double[] m_keys;
+	protected double[][] m_reservoir;
+
+	/** Seed of the sample keys. */
+	protected long m_seed = 1;
+
+	/** Generator of the sample keys of the current part. */
+	protected Random m_random;
+
+	/** Sample points of the silhouette pass and their clusters. */
+	protected double[][] m_sample;
+	protected int[] m_sampleClusters;
+
+	/** Sum of the distances of each sample point to each cluster. */
+	protected double[][] m_sampleSums;
+
+	/** Distances buffer. */
+	protected transient double[] m_distances;
+
+	/**
+	 * Creates an empty state for a given model.
+	 *
+	 * @param model model whose clusters are evaluated.
+	 */
+	public PartialState(ScoringModel model) {
+		int k = model.numberOfClusters();
+
+		m_model          = model;
+		m_counts         = new long[k];
+		m_squaredErrors  = new double[k];
+		m_sums           = new double[k][model.numAttributes()];
+		m_silhouetteSums = new double[k];
+	}
+
+	/**
+	 * Keeps a uniform sample of the points added, to be used by the
+	 * silhouette pass.
+	 *
+	 * @param capacity number of points sampled.
+	 * @param seed     seed of the sample.
+	 */
+	public void setSampleCapacity(int capacity, long seed) {
+		m_sampleCapacity = capacity;
+		m_seed           = seed;
+		m_reservoirSize  = 0;
+		m_keys           = new double[capacity];
+		m_reservoir      = new double[capacity][];
+	}
+
+	/**
+	 * Starts a given part of the data: the sample keys of each part come
+	 * from their own generator, so the sample depends only on the seed
+	 * and on how the data is split.
+	 *
+	 * @param part part index.
+	 */
+	public void startPart(int part) {
+		m_random = new Random(m_seed * 0x9E3779B97F4A7C15L + part);
+	}
+
+	/**
+	 * Sets the sample points of the silhouette pass.
+	 *
+	 * @param sample sample points, as returned by getSample().
+	 */
+	public void setSample(double[][] sample) {
+		int k = m_model.numberOfClusters();
+		double[] distances = new double[k];
+
+		m_sample           = sample;
+		m_sampleClusters   = new int[sample.length];
+		m_sampleSums       = new double[sample.length][k];
+
+		for (int s = 0; s < sample.length; s++) {
+			int cluster = 0;
+			for (int c = 0; c < k; c++) {
+				distances[c] = distance(sample[s], m_model.m_centroids[c]);
+				if (distances[c] < distances[cluster])
+					cluster = c;
+			}
+			m_sampleClusters[s] = cluster;
+		}
+	}
+
+	/**
+	 * Adds an instance of the part.
+	 *
+	 * @param instance the instance.
+	 * @return Returns the cluster of the instance.
+	 */
+	public int add(Instance instance) {
+		if (m_distances == null)
+			m_distances = new double[m_counts.length];
+
+		int cluster = m_model.distances(instance, m_distances);
+		double dist = m_distances[cluster];
+
+		m_counts[cluster]++;
+		m_squaredErrors[cluster] += (m_model.getDistanceType() == ScoringModel.MANHATTAN)
+			? dist : dist * dist;
+		m_silhouetteSums[cluster] += simplifiedSilhouette(cluster);
+
+		double[] values = m_model.replaceMissing(instance);
+		double[] sums = m_sums[cluster];
+		for (int j = 0; j < values.length; j++)
+			if (!m_model.m_nominal[j])
+				sums[j] += values[j];
+
+		if (m_sampleCapacity > 0)
+			offer(values);
+
+		for (int s = 0; m_sample != null && s < m_sample.length; s++)
+			m_sampleSums[s][cluster] += distance(m_sample[s], values);
+
+		return cluster;
+	}
+
+	/**
+	 * Simplified silhouette of the instance whose distances are in the
+	 * buffer: its own centroid against the nearest other one.
+	 *
+	 * @param cluster assigned cluster.
+	 * @return Returns the silhouette.
+	 */
+	protected double simplifiedSilhouette(int cluster) {
+		double own   = m_distances[cluster];
+		double other = Double.MAX_VALUE;
+
+		for (int c = 0; c < m_distances.length; c++)
+			if (c != cluster)
+				other = Math.min(other, m_distances[c]);
+
+		double max = Math.max(own, other);
+		return (m_distances.length > 1 && max > 0) ? (other - own) / max : 0.0;
+	}
+
+	/**
+	 * Distance between two points, as the model computes it.
+	 *
+	 * @param a first point, missing values replaced.
+	 * @param b second point, missing values replaced.
+	 * @return Returns the distance.
+	 */
+	protected double distance(double[] a, double[] b) {
+		double dist = m_model.accumulate(a, b);
+		return (m_model.getDistanceType() == ScoringModel.EUCLIDEAN) ? Math.sqrt(dist) : dist;
+	}
+
+	/**
+	 * Offers a point to the bottom-m sample.
+	 *
+	 * @param values point values.
+	 */
+	protected void offer(double[] values) {
+		if (m_random == null)
+			startPart(0);
+		keep(m_random.nextDouble(), values);
+	}
+
+	/**
+	 * Keeps a point in the sample if its key is among the smallest ones.
+	 *
+	 * @param key    random key.
+	 * @param values point values.
+	 */
+	protected void keep(double key, double[] values) {
+		if (m_sampleCapacity == 0)
+			return;
+
+		if (m_reservoirSize < m_sampleCapacity) {
+			m_keys[m_reservoirSize]      = key;
+			m_reservoir[m_reservoirSize] = values;
+			m_reservoirSize++;
+			return;
+		}
+
+		/* Replaces the largest key; rare once the sample is full. */
+		int largest = 0;
+		for (int i = 1; i < m_reservoirSize; i++)
+			if (m_keys[i] > m_keys[largest])
+				largest = i;
+
+		if (key < m_keys[largest]) {
+			m_keys[largest]      = key;
+			m_reservoir[largest] = values;
+		}
+	}
+
+	/**
+	 * Merges the state of another, disjoint, part of the data into this
+	 * one.
+	 *
+	 * @param other state of the other part.
+	 * @return Returns this state.
+	 * @throws Exception if the states are not of the same model and sample.
+	 */
+	public PartialState merge(PartialState other) throws Exception {
+		if (other.m_counts.length != m_counts.length
+			|| other.m_model.numAttributes() != m_model.numAttributes())
+			throw new Exception("PartialState: the states are not of the same model!");
+		if ((m_sample == null) != (other.m_sample == null)
+			|| (m_sample != null && m_sample.length != other.m_sample.length))
+			throw new Exception("PartialState: the states are not of the same sample!");
+
+		for (int c = 0; c < m_counts.length; c++) {
+			m_counts[c]         += other.m_counts[c];
+			m_squaredErrors[c]  += other.m_squaredErrors[c];
+			m_silhouetteSums[c] += other.m_silhouetteSums[c];
+
+			for (int j = 0; j < m_sums[c].length; j++)
+				m_sums[c][j] += other.m_sums[c][j];
+		}
+
+		for (int s = 0; m_sample != null && s < m_sample.length; s++)
+			for (int c = 0; c < m_counts.length; c++)
+				m_sampleSums[s][c] += other.m_sampleSums[s][c];
+
+		for (int i = 0; i < other.m_reservoirSize; i++)
+			keep(other.m_keys[i], other.m_reservoir[i]);
+
+		return this;
+	}
+
+	/**
+	 * Merges the states of disjoint parts, in the given order.
+	 *
+	 * @param states states of the parts.
+	 * @return Returns the state of the union, the first one.
+	 * @throws Exception if the states are not of the same model and sample.
+	 */
+	public static PartialState merge(List<PartialState> states) throws Exception {
+		PartialState result = states.get(0);
+		for (int i = 1; i < states.size(); i++)
+			result.merge(states.get(i));
+		return result;
+	}
+
+	/**
+	 * Gets the sample kept, to start the silhouette pass.
+	 *
+	 * @return Returns the sample points.
+	 */
+	public double[][] getSample() {
+		double[][] sample = new double[m_reservoirSize][];
+		System.arraycopy(m_reservoir, 0, sample, 0, m_reservoirSize);
+		return sample;
+	}
+
+	/**
+	 * Gets the number of instances added, over all the parts merged.
+	 *
+	 * @return Returns the number of instances.
+	 */
+	public long getNumInstances() {
+		long n = 0;
+		for (int c = 0; c < m_counts.length; c++)
+			n += m_counts[c];
+		return n;
+	}
+
+	/**
+	 * Gets the size of each cluster.
+	 *
+	 * @return Returns the cluster sizes.
+	 */
+	public long[] getCounts() {
+		return m_counts;
+	}
+
+	/**
+	 * Gets the squared error of each cluster.
+	 *
+	 * @return Returns the squared errors.
+	 */
+	public double[] getSquaredErrors() {
+		return m_squaredErrors;
+	}
+
+	/**
+	 * Gets the squared error over all the clusters.
+	 *
+	 * @return Returns the squared error.
+	 */
+	public double getSquaredError() {
+		double sse = 0;
+		for (int c = 0; c < m_squaredErrors.length; c++)
+			sse += m_squaredErrors[c];
+		return sse;
+	}
+
+	/**
+	 * Gets the means of the numeric attributes of each cluster, i.e: the
+	 * centroids one more k-means iteration would move to; NaN for the
+	 * other attributes and the empty clusters.
+	 *
+	 * @return Returns the means.
+	 */
+	public double[][] getMeans() {
+		double[][] means = new double[m_sums.length][m_sums[0].length];
+		for (int c = 0; c < means.length; c++)
+			for (int j = 0; j < means[c].length; j++)
+				means[c][j] = (m_model.m_nominal[j] || m_counts[c] == 0) ? Double.NaN
+					: m_sums[c][j] / m_counts[c];
+		return means;
+	}
+
+	/**
+	 * Gets the mean simplified silhouette, over all the instances.
+	 *
+	 * @return Returns the simplified silhouette.
+	 */
+	public double getSimplifiedSilhouette() {
+		double sum = 0;
+		for (int c = 0; c < m_silhouetteSums.length; c++)
+			sum += m_silhouetteSums[c];
+		return sum / Math.max(1, getNumInstances());
+	}
+
+	/**
+	 * Checks if the state has the sums of the silhouette pass.
+	 *
+	 * @return Returns true if a sample was set.
+	 */
+	public boolean hasSample() {
+		return m_sample != null && m_sample.length > 0;
+	}
+
+	/**
+	 * Gets the silhouette of the sample points, against all the points
+	 * merged, with the definition of the SilhouetteIndex: each cluster
+	 * averages its sample points, extrapolated to the cluster size, and
+	 * the index is the mean over the clusters, so a sample of all the
+	 * points gives the exact index. By default b(i) is taken from the
+	 * cluster of the nearest other centroid with some point; with all
+	 * clusters, it is the smallest mean distance to any other cluster,
+	 * as Rousseeuw defines it. A point alone in its cluster scores 0.
+	 *
+	 * @param allClusters b(i) over all the other clusters?.
+	 * @return Returns the sampled silhouette, NaN if there is no sample.
+	 */
+	public double getSampledSilhouette(boolean allClusters) {
+		if (!hasSample())
+			return Double.NaN;
+
+		int k = m_counts.length;
+		double[] sums = new double[k];
+		int[] points  = new int[k];
+
+		for (int s = 0; s < m_sample.length; s++) {
+			int own = m_sampleClusters[s];
+			points[own]++;
+			if (m_counts[own] < 2)
+				continue;
+
+			/* The point itself is in its cluster, at distance 0. */
+			double a = m_sampleSums[s][own] / (m_counts[own] - 1);
+			double b = Double.MAX_VALUE;
+			double nearest = Double.MAX_VALUE;
+
+			for (int c = 0; c < k; c++) {
+				if (c == own || m_counts[c] == 0)
+					continue;
+				if (allClusters)
+					b = Math.min(b, m_sampleSums[s][c] / m_counts[c]);
+				else {
+					double dist = distance(m_sample[s], m_model.m_centroids[c]);
+					if (dist < nearest) {
+						nearest = dist;
+						b = m_sampleSums[s][c] / m_counts[c];
+					}
+				}
+			}
+
+			double max = Math.max(a, b);
+			if (b != Double.MAX_VALUE && max > 0)
+				sums[own] += (b - a) / max;
+		}
+
+		/* Mean of each cluster sample points, as the SilhouetteIndex. */
+		double global = 0;
+		for (int c = 0; c < k; c++)
+			if (points[c] > 0)
+				global += sums[c] / points[c];
+		return global / k;
+	}
+
+	/**
+	 * Returns a string describing the statistics.
+	 *
+	 * @return a string describing the statistics.
+	 */
+	@Override
+	public String toString() {
+		StringBuffer text = new StringBuffer();
+
+		for (int c = 0; c < m_counts.length; c++)
+			text.append(String.format(Locale.US, "   Cluster %d: %d instances, SSE %.4f%n",
+				c, m_counts[c], m_squaredErrors[c]));
+
+		text.append(String.format(Locale.US, "   Instances: %d, SSE: %.6f, simplified "
+			+ "silhouette: %.4f", getNumInstances(), getSquaredError(), getSimplifiedSilhouette()));
+
+		if (hasSample())
+			text.append(String.format(Locale.US, "%n   Silhouette: %.4f, all clusters: %.4f "
+				+ "(sample of %d points)", getSampledSilhouette(false),
+				getSampledSilhouette(true), m_sample.length));
+
+		return text.toString();
+	}
+}
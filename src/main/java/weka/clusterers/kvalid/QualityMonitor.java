@@ -0,0 +1,470 @@
+/*
+ * Copyright (C) 2017  Davidson Francis <davidsondfgl@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+/*
+ *    QualityMonitor.java
+ *    Written by Davidson Francis
+ */
+
+package weka.clusterers.kvalid;
+
+import java.util.Locale;
+
+import weka.clusterers.AbstractClusterer;
+import weka.core.DistanceFunction;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.Utils;
+import weka.core.converters.AbstractFileLoader;
+
+/**
+ * Sliding window monitor of the quality of a trained model over a
+ * stream of instances: the mean squared error and the mean simplified
+ * silhouette of the instances in the window.
+ *
+ * Each instance is compared against the k centroids only, O(k.d), and
+ * its error and silhouette enter the window sums while the ones of the
+ * evicted instances leave, so the window is never evaluated again. The
+ * sums are recomputed from the window once per window length, so the
+ * rounding does not drift. The window holds the last instances (count)
+ * or the ones of the last milliseconds (time), or both.
+ *
+ * The window is compared against a baseline, i.e: the same measures
+ * over the training data (see evaluate()), or the first full window if
+ * none was given. Once the silhouette drops or the error grows past the
+ * thresholds, a re-cluster signal is raised.
+ *
+ * @author Davidson Francis (davidson.francis@sga.pucminas.br)
+ * @version $Revision: 0001 $
+ */
+public class QualityMonitor implements ClusterEvaluator {
+
+	/** Default count window. */
+	public static final int DEFAULT_WINDOW_SIZE = 10000;
+
+	/** Model monitored. */
+	protected ScoringModel m_model;
+
+	/** Count window, 0 for none. */
+	protected int m_windowSize = DEFAULT_WINDOW_SIZE;
+
+	/** Time window, in milliseconds, 0 for none. */
+	protected long m_windowTime = 0;
+
+	/** Instances needed in the window before any signal. */
+	protected int m_minCount = 100;
+
+	/** Largest drop of the mean silhouette, from the baseline. */
+	protected double m_maxSilhouetteDrop = 0.1;
+
+	/** Largest ratio between the mean error and the baseline one. */
+	protected double m_maxErrorRatio = 1.5;
+
+	/** Baseline mean error and silhouette, NaN until known. */
+	protected double m_baselineError = Double.NaN;
+	protected double m_baselineSilhouette = Double.NaN;
+
+	/** Window, a ring buffer: arrival times, errors and silhouettes. */
+	protected long[] m_times;
+	protected double[] m_errors;
+	protected double[] m_silhouettes;
+
+	/** Oldest position and number of instances in the window. */
+	protected int m_head;
+	protected int m_count;
+
+	/** Window sums. */
+	protected double m_sumError;
+	protected double m_sumSilhouette;
+
+	/** Evictions since the sums were last recomputed. */
+	protected int m_evictions;
+
+	/** Instances seen. */
+	protected long m_numInstances;
+
+	/** Is the quality degraded?. */
+	protected boolean m_degraded;
+
+	/** Distances buffer, one per cluster. */
+	protected double[] m_distances;
+
+	/**
+	 * Creates a monitor for a given model.
+	 *
+	 * @param model trained scoring model.
+	 */
+	public QualityMonitor(ScoringModel model) {
+		m_model     = model;
+		m_distances = new double[model.numberOfClusters()];
+		allocate(16);
+	}
+
+	/**
+	 * Sets the count window.
+	 *
+	 * @param windowSize number of instances, 0 for none.
+	 */
+	public void setWindowSize(int windowSize) {
+		m_windowSize = Math.max(0, windowSize);
+		clear();
+	}
+
+	/**
+	 * Sets the time window.
+	 *
+	 * @param windowTime length, in milliseconds, 0 for none.
+	 */
+	public void setWindowTime(long windowTime) {
+		m_windowTime = Math.max(0, windowTime);
+		clear();
+	}
+
+	/**
+	 * Sets the number of instances needed in the window before any
+	 * signal, and to take the first window as the baseline.
+	 *
+	 * @param minCount number of instances.
+	 */
+	public void setMinCount(int minCount) {
+		m_minCount = Math.max(1, minCount);
+	}
+
+	/**
+	 * Sets the thresholds of the re-cluster signal.
+	 *
+	 * @param maxSilhouetteDrop largest drop of the mean silhouette.
+	 * @param maxErrorRatio     largest ratio between the mean error and
+	 *                          the baseline one.
+	 */
+	public void setThresholds(double maxSilhouetteDrop, double maxErrorRatio) {
+		m_maxSilhouetteDrop = maxSilhouetteDrop;
+		m_maxErrorRatio     = maxErrorRatio;
+	}
+
+	/**
+	 * Sets the baseline.
+	 *
+	 * @param meanError      mean error of the instances.
+	 * @param meanSilhouette mean simplified silhouette of the instances.
+	 */
+	public void setBaseline(double meanError, double meanSilhouette) {
+		m_baselineError      = meanError;
+		m_baselineSilhouette = meanSilhouette;
+	}
+
+	/**
+	 * Sets the baseline from a dataset, usually the training one: its
+	 * mean error and simplified silhouette against the model monitored,
+	 * so the centroids and distance function given are not used. The
+	 * window is cleared.
+	 *
+	 * @param clusterer        given clusterer.
+	 * @param centroids        cluster centroids.
+	 * @param instances        dataset.
+	 * @param distanceFunction distance function.
+	 */
+	public void evaluate(AbstractClusterer clusterer, Instances centroids,
+		Instances instances, DistanceFunction distanceFunction) throws Exception {
+
+		if (instances == null || instances.numInstances() == 0)
+			throw new Exception("QualityMonitor: no instances for the baseline!");
+		m_model.checkHeader(instances);
+
+		double error = 0, silhouette = 0;
+		for (int i = 0; i < instances.numInstances(); i++) {
+			int cluster = m_model.distances(instances.instance(i), m_distances);
+			error      += error(m_distances[cluster]);
+			silhouette += silhouette(cluster);
+		}
+
+		setBaseline(error / instances.numInstances(), silhouette / instances.numInstances());
+		clear();
+	}
+
+	/**
+	 * Adds an instance that arrived now.
+	 *
+	 * @param instance the instance.
+	 * @return Returns true if the re-cluster signal was raised by it.
+	 */
+	public boolean add(Instance instance) {
+		return add(instance, System.currentTimeMillis());
+	}
+
+	/**
+	 * Adds an instance that arrived at a given time; the times must not
+	 * decrease.
+	 *
+	 * @param instance the instance.
+	 * @param time     arrival time, in milliseconds.
+	 * @return Returns true if the re-cluster signal was raised by it.
+	 */
+	public boolean add(Instance instance, long time) {
+		int cluster = m_model.distances(instance, m_distances);
+		double error      = error(m_distances[cluster]);
+		double silhouette = silhouette(cluster);
+
+		/* Evicts the instances out of the window. */
+		if (m_windowTime > 0)
+			while (m_count > 0 && m_times[m_head] <= time - m_windowTime)
+				evict();
+		if (m_windowSize > 0 && m_count == m_windowSize)
+			evict();
+
+		if (m_count == m_errors.length)
+			allocate(2 * m_errors.length);
+
+		int tail = (m_head + m_count) % m_errors.length;
+		m_times[tail]       = time;
+		m_errors[tail]      = error;
+		m_silhouettes[tail] = silhouette;
+		m_count++;
+		m_numInstances++;
+
+		m_sumError      += error;
+		m_sumSilhouette += silhouette;
+
+		if (m_count < m_minCount)
+			return false;
+
+		/* No baseline given: the first window is the reference. */
+		if (Double.isNaN(m_baselineError))
+			setBaseline(getMeanError(), getMeanSilhouette());
+
+		boolean degraded = getMeanSilhouette() < m_baselineSilhouette - m_maxSilhouetteDrop
+			|| getMeanError() > m_baselineError * m_maxErrorRatio;
+
+		boolean raised = degraded && !m_degraded;
+		m_degraded = degraded;
+		return raised;
+	}
+
+	/**
+	 * Squared error of an instance, with the SimpleKMeans convention:
+	 * all but the Manhattan distances are squared.
+	 *
+	 * @param distance distance to the assigned centroid.
+	 * @return Returns the error.
+	 */
+	protected double error(double distance) {
+		return (m_model.getDistanceType() == ScoringModel.MANHATTAN)
+			? distance : distance * distance;
+	}
+
+	/**
+	 * Simplified silhouette of the instance whose distances are in the
+	 * buffer: its own centroid against the nearest other one.
+	 *
+	 * @param cluster assigned cluster.
+	 * @return Returns the silhouette.
+	 */
+	protected double silhouette(int cluster) {
+		double own   = m_distances[cluster];
+		double other = Double.MAX_VALUE;
+
+		for (int k = 0; k < m_distances.length; k++)
+			if (k != cluster)
+				other = Math.min(other, m_distances[k]);
+
+		double max = Math.max(own, other);
+		return (m_distances.length > 1 && max > 0) ? (other - own) / max : 0.0;
+	}
+
+	/** Evicts the oldest instance of the window. */
+	protected void evict() {
+		m_sumError      -= m_errors[m_head];
+		m_sumSilhouette -= m_silhouettes[m_head];
+		m_head = (m_head + 1) % m_errors.length;
+		m_count--;
+
+		/* Once per window length, sums the window again. */
+		if (++m_evictions >= Math.max(m_count, m_minCount)) {
+			m_sumError = m_sumSilhouette = 0;
+			for (int i = 0, p = m_head; i < m_count; i++, p = (p + 1) % m_errors.length) {
+				m_sumError      += m_errors[p];
+				m_sumSilhouette += m_silhouettes[p];
+			}
+			m_evictions = 0;
+		}
+	}
+
+	/**
+	 * Resizes the window buffers, keeping the instances in it.
+	 *
+	 * @param capacity new capacity.
+	 */
+	protected void allocate(int capacity) {
+		if (m_windowSize > 0 && m_windowTime == 0)
+			capacity = m_windowSize;
+
+		long[] times        = new long[capacity];
+		double[] errors      = new double[capacity];
+		double[] silhouettes = new double[capacity];
+
+		for (int i = 0, p = m_head; i < m_count; i++, p = (p + 1) % m_errors.length) {
+			times[i]       = m_times[p];
+			errors[i]      = m_errors[p];
+			silhouettes[i] = m_silhouettes[p];
+		}
+
+		m_times       = times;
+		m_errors      = errors;
+		m_silhouettes = silhouettes;
+		m_head        = 0;
+	}
+
+	/** Empties the window; the baseline is kept. */
+	public void clear() {
+		m_count = m_head = m_evictions = 0;
+		m_sumError = m_sumSilhouette = 0;
+		m_degraded = false;
+		allocate((m_windowSize > 0) ? m_windowSize : 16);
+	}
+
+	/**
+	 * Gets the mean error of the window.
+	 *
+	 * @return Returns the mean error, NaN if the window is empty.
+	 */
+	public double getMeanError() {
+		return (m_count > 0) ? m_sumError / m_count : Double.NaN;
+	}
+
+	/**
+	 * Gets the mean simplified silhouette of the window.
+	 *
+	 * @return Returns the mean silhouette, NaN if the window is empty.
+	 */
+	public double getMeanSilhouette() {
+		return (m_count > 0) ? m_sumSilhouette / m_count : Double.NaN;
+	}
+
+	/**
+	 * Gets the number of instances in the window.
+	 *
+	 * @return Returns the window count.
+	 */
+	public int getWindowCount() {
+		return m_count;
+	}
+
+	/**
+	 * Gets the number of instances seen since the monitor was created.
+	 *
+	 * @return Returns the number of instances.
+	 */
+	public long getNumInstances() {
+		return m_numInstances;
+	}
+
+	/**
+	 * Checks if the quality of the window is past the thresholds.
+	 *
+	 * @return Returns true if the model should be clustered again.
+	 */
+	public boolean isDegraded() {
+		return m_degraded;
+	}
+
+	/**
+	 * Returns a string describing the window.
+	 *
+	 * @return a string describing the window.
+	 */
+	@Override
+	public String toString() {
+		return String.format(Locale.US, "Window: %d instances, mean error %.4f (baseline %.4f), "
+			+ "mean simplified silhouette %.4f (baseline %.4f)%s", m_count, getMeanError(),
+			m_baselineError, getMeanSilhouette(), m_baselineSilhouette,
+			(m_degraded) ? ", re-cluster needed!" : "");
+	}
+
+	/**
+	 * Monitors a file as a stream, writing the window state every given
+	 * number of instances as CSV (row, count, error, silhouette,
+	 * degraded) and the re-cluster signals to the error output.
+	 *
+	 * @param args the options.
+	 */
+	public static void main(String[] args) {
+		try {
+			if (args.length == 0 || Utils.getFlag('h', args)) {
+				System.err.println("Usage: QualityMonitor -l <KValid or scoring model> -i <arff/csv file>"
+					+ " [-baseline <arff/csv file>] [-window <n>] [-min <n>] [-report <n>]"
+					+ " [-silhouette-drop <x>] [-error-ratio <x>]");
+				return;
+			}
+
+			String modelFile = Utils.getOption('l', args);
+			String inputFile = Utils.getOption('i', args);
+			String baseFile  = Utils.getOption("baseline", args);
+
+			if (modelFile.length() == 0 || inputFile.length() == 0)
+				throw new Exception("QualityMonitor: both the model (-l) and input (-i) are required!");
+
+			QualityMonitor monitor = new QualityMonitor(ScoringModel.loadAny(modelFile));
+			String temp;
+
+			if ((temp = Utils.getOption("window", args)).length() > 0)
+				monitor.setWindowSize(Integer.parseInt(temp));
+			if ((temp = Utils.getOption("min", args)).length() > 0)
+				monitor.setMinCount(Integer.parseInt(temp));
+
+			int report = 1000;
+			if ((temp = Utils.getOption("report", args)).length() > 0)
+				report = Math.max(1, Integer.parseInt(temp));
+
+			double drop = monitor.m_maxSilhouetteDrop, ratio = monitor.m_maxErrorRatio;
+			if ((temp = Utils.getOption("silhouette-drop", args)).length() > 0)
+				drop = Double.parseDouble(temp);
+			if ((temp = Utils.getOption("error-ratio", args)).length() > 0)
+				ratio = Double.parseDouble(temp);
+			monitor.setThresholds(drop, ratio);
+
+			Utils.checkForRemainingOptions(args);
+
+			if (baseFile.length() > 0) {
+				AbstractFileLoader base = StreamScorer.getLoader(baseFile);
+				monitor.evaluate(null, null, base.getDataSet(), null);
+			}
+
+			/* The row number is the time, so only the count window applies. */
+			AbstractFileLoader loader = StreamScorer.getLoader(inputFile);
+			Instances header = loader.getStructure();
+			monitor.m_model.checkHeader(header);
+			long row = 0;
+
+			System.out.println("row,count,mean_error,mean_silhouette,degraded");
+			Instance inst;
+			while ((inst = loader.getNextInstance(header)) != null) {
+				if (monitor.add(inst, row))
+					System.err.println("Row " + row + ": re-cluster needed! " + monitor);
+
+				if (++row % report == 0)
+					System.out.println(String.format(Locale.US, "%d,%d,%.6f,%.6f,%b", row,
+						monitor.getWindowCount(), monitor.getMeanError(),
+						monitor.getMeanSilhouette(), monitor.isDegraded()));
+			}
+			System.err.println(monitor);
+		}
+		catch (Exception e) {
+			e.printStackTrace();
+			System.exit(1);
+		}
+	}
+}
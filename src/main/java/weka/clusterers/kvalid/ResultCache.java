@@ -0,0 +1,300 @@
+/*
+ * Copyright (C) 2017  Davidson Francis <davidsondfgl@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+/*
+ *    ResultCache.java
+ *    Written by Davidson Francis
+ */
+
+package weka.clusterers.kvalid;
+
+import java.io.File;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.SerializationHelper;
+import weka.core.SerializedObject;
+import weka.core.Utils;
+
+/**
+ * Cache of the per-k results, keyed by a fingerprint of the dataset
+ * contents and of the options that change the clustering.
+ *
+ * The results are always kept in memory (shared by the whole JVM, so
+ * re-running KValid in the Explorer reuses them) and, optionally, in a
+ * directory on disk. Both levels are bounded and evict the least
+ * recently used results first.
+ *
+ * KResult is mutable, so the memory level keeps the results serialized
+ * and every get returns a new copy: KValid instances sharing the cache,
+ * e.g: the jobs of a BatchRunner, never see each other's changes.
+ *
+ * @author Davidson Francis (davidson.francis@sga.pucminas.br)
+ * @version $Revision: 0001 $
+ */
+public class ResultCache {
+
+	/**
+	 * In-memory entry: a serialized result and its estimated size.
+	 */
+	protected static class Entry {
+
+		/** Serialized result. */
+		public final SerializedObject result;
+
+		/** Estimated size of the result, in bytes. */
+		public final long size;
+
+		/**
+		 * Creates a new entry.
+		 *
+		 * @param r result.
+		 * @throws Exception if the result could not be serialized.
+		 */
+		public Entry(KResult r) throws Exception {
+			result = new SerializedObject(r);
+			size   = r.estimateSize();
+		}
+	}
+
+	/** Default memory size bound, in bytes. */
+	public static final long DEFAULT_MEMORY_SIZE = 64L << 20;
+
+	/** Results file extension. */
+	public static final String EXTENSION = ".kres";
+
+	/** In-memory results, in access order. */
+	protected static final LinkedHashMap<String, Entry> s_memory =
+		new LinkedHashMap<String, Entry>(16, 0.75f, true);
+
+	/** Memory currently used by the in-memory results. */
+	protected static long s_memorySize = 0;
+
+	/** Cache directory, null if memory only. */
+	protected File m_directory;
+
+	/** Disk size bound, in bytes. */
+	protected long m_maxDiskSize;
+
+	/**
+	 * Creates a new cache.
+	 *
+	 * @param directory   cache directory, null for memory only.
+	 * @param maxDiskSize disk size bound, in bytes.
+	 */
+	public ResultCache(File directory, long maxDiskSize) {
+		m_directory   = directory;
+		m_maxDiskSize = maxDiskSize;
+
+		if (m_directory != null)
+			m_directory.mkdirs();
+	}
+
+	/**
+	 * Computes the fingerprint of a dataset plus a set of options.
+	 *
+	 * @param data    dataset.
+	 * @param options options that change the results.
+	 * @return Returns the fingerprint, as an hex string.
+	 * @throws Exception if the digest is not available.
+	 */
+	public static String fingerprint(Instances data, String[] options) throws Exception {
+		MessageDigest md = MessageDigest.getInstance("SHA-256");
+		Charset utf8 = Charset.forName("UTF-8");
+		byte[] buf = new byte[8];
+
+		md.update(Utils.joinOptions(options).getBytes(utf8));
+		md.update(data.stringFreeStructure().toString().getBytes(utf8));
+
+		for (int i = 0; i < data.numInstances(); i++) {
+			Instance inst = data.instance(i);
+			for (int j = 0; j < inst.numValues(); j++) {
+				putLong(buf, inst.index(j));
+				md.update(buf);
+				putLong(buf, Double.doubleToLongBits(inst.valueSparse(j)));
+				md.update(buf);
+			}
+			putLong(buf, Double.doubleToLongBits(inst.weight()));
+			md.update(buf);
+		}
+
+		StringBuffer hex = new StringBuffer();
+		for (byte b : md.digest())
+			hex.append(String.format("%02x", b));
+
+		return hex.toString();
+	}
+
+	/**
+	 * Writes a long into a byte buffer.
+	 *
+	 * @param buf buffer, at least 8 bytes long.
+	 * @param v   value.
+	 */
+	protected static void putLong(byte[] buf, long v) {
+		for (int i = 0; i < 8; i++)
+			buf[i] = (byte) (v >>> (8 * i));
+	}
+
+	/**
+	 * Gets the result of a given k.
+	 *
+	 * @param key fingerprint.
+	 * @param k   number of clusters.
+	 * @return Returns a copy of the cached result, or null if not found.
+	 */
+	public KResult get(String key, int k) {
+		String name = key + "-k" + k;
+		KResult r = null;
+		Entry entry;
+
+		synchronized (s_memory) {
+			entry = s_memory.get(name);
+		}
+
+		if (entry != null)
+			r = (KResult) entry.result.getObject();
+		if (r != null || m_directory == null)
+			return r;
+
+		/* Disk. */
+		File f = new File(m_directory, name + EXTENSION);
+		if (!f.exists())
+			return null;
+
+		try {
+			r = (KResult) SerializationHelper.read(f.getPath());
+			f.setLastModified(System.currentTimeMillis());
+			putMemory(name, r);
+		}
+		catch (Exception e) {
+			/* Unreadable entry, i.e: old version or partial write. */
+			f.delete();
+			r = null;
+		}
+
+		return r;
+	}
+
+	/**
+	 * Puts the result of a given k. The cache keeps a copy, so later
+	 * changes to the result are not seen by the cache.
+	 *
+	 * @param key fingerprint.
+	 * @param r   result.
+	 */
+	public void put(String key, KResult r) {
+		String name = key + "-k" + r.getK();
+		putMemory(name, r);
+
+		if (m_directory == null)
+			return;
+
+		try {
+			/* Writes to a temporary file first, so readers never see a partial entry. */
+			File tmp = new File(m_directory, name + ".tmp");
+			File f   = new File(m_directory, name + EXTENSION);
+			SerializationHelper.write(tmp.getPath(), r);
+			f.delete();
+			tmp.renameTo(f);
+			evictDisk();
+		}
+		catch (Exception e) {
+			System.err.println("ResultCache: unable to write " + name + ": " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Puts a result in memory, evicting the least recently used ones
+	 * if needed.
+	 *
+	 * @param name entry name.
+	 * @param r    result.
+	 */
+	protected static void putMemory(String name, KResult r) {
+		Entry entry;
+		try {
+			entry = new Entry(r);
+		}
+		catch (Exception e) {
+			System.err.println("ResultCache: unable to keep " + name + ": " + e.getMessage());
+			return;
+		}
+
+		synchronized (s_memory) {
+			Entry old = s_memory.put(name, entry);
+			if (old != null)
+				s_memorySize -= old.size;
+			s_memorySize += entry.size;
+
+			Iterator<Map.Entry<String, Entry>> it = s_memory.entrySet().iterator();
+			while (s_memorySize > DEFAULT_MEMORY_SIZE && it.hasNext()) {
+				Map.Entry<String, Entry> e = it.next();
+				if (e.getValue() == entry)
+					break;
+				s_memorySize -= e.getValue().size;
+				it.remove();
+			}
+		}
+	}
+
+	/**
+	 * Deletes the least recently used results on disk until the
+	 * directory fits into the size bound.
+	 */
+	protected void evictDisk() {
+		File[] files = m_directory.listFiles();
+		if (files == null)
+			return;
+
+		long total = 0;
+		for (File f : files)
+			if (f.getName().endsWith(EXTENSION))
+				total += f.length();
+
+		if (total <= m_maxDiskSize)
+			return;
+
+		Arrays.sort(files, new Comparator<File>() {
+			public int compare(File a, File b) {
+				return Long.compare(a.lastModified(), b.lastModified());
+			}
+		});
+
+		for (int i = 0; i < files.length && total > m_maxDiskSize; i++) {
+			if (!files[i].getName().endsWith(EXTENSION))
+				continue;
+			total -= files[i].length();
+			files[i].delete();
+		}
+	}
+
+	/** Clears the in-memory results. */
+	public static void clearMemory() {
+		synchronized (s_memory) {
+			s_memory.clear();
+			s_memorySize = 0;
+		}
+	}
+}
@@ -0,0 +1,793 @@
+/*
+ * Copyright (C) 2017  Davidson Francis <davidsondfgl@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+/*
+ *    ScoringModel.java
+ *    Written by Davidson Francis
+ */
+
+package weka.clusterers.kvalid;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.io.StringReader;
+
+import weka.clusterers.KValid;
+import weka.core.DistanceFunction;
+import weka.core.EuclideanDistance;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.ManhattanDistance;
+import weka.core.SerializationHelper;
+import weka.core.SparseInstance;
+import weka.core.Utils;
+
+/**
+ * Lean scoring model: only what is needed to assign new instances,
+ * i.e: the centroids, the normalization ranges, the missing values
+ * replacement and the distance type, all of them as primitive arrays,
+ * plus the training header, so data whose attributes differ in name,
+ * type or nominal values (i.e: a CSV, whose nominal codes follow the
+ * order of appearance) is rejected instead of scored with wrong codes.
+ *
+ * The model is saved in a small binary format that loads in a few
+ * milliseconds and assigns exactly as the full KValid model does.
+ *
+ * The model is immutable: its arrays are copied when created and never
+ * written afterwards, so any number of threads may assign instances
+ * concurrently, without locks. Assigning an instance allocates nothing,
+ * its values (missing ones replaced) are read straight from it.
+ *
+ * @author Davidson Francis (davidson.francis@sga.pucminas.br)
+ * @version $Revision: 0001 $
+ */
+public class ScoringModel implements Serializable {
+
+	/** Serialization */
+	static final long serialVersionUID = -507733168493673311L;
+
+	/** File magic: "KVSM". */
+	public static final int MAGIC = 0x4B56534D;
+
+	/** File format version: 2 adds the training header. */
+	public static final int VERSION = 2;
+
+	/** Distance types. */
+	public static final int EUCLIDEAN = 0;
+	public static final int MANHATTAN = 1;
+	public static final int CHEBYSHEV = 2;
+	public static final int COSINE    = 3;
+
+	/** Distance type. */
+	protected final int m_distanceType;
+
+	/** Skip the normalization? */
+	protected final boolean m_dontNormalize;
+
+	/** Nominal attributes. */
+	protected final boolean[] m_nominal;
+
+	/** Attributes used by the distance function. */
+	protected final boolean[] m_active;
+
+	/** Ranges: minimum, maximum and width of each attribute. */
+	protected final double[] m_min;
+	protected final double[] m_max;
+	protected final double[] m_width;
+
+	/** Replacement (mean/mode) for missing values, NaN if none. */
+	protected final double[] m_replacement;
+
+	/** Centroids. */
+	protected final double[][] m_centroids;
+
+	/** Distance from the all-zeros instance to each centroid, for sparse instances. */
+	protected final double[] m_zeroDistance;
+
+	/** Training header, without class, null if not known (version 1 models). */
+	protected final Instances m_header;
+
+	/**
+	 * Creates a new scoring model.
+	 *
+	 * @param distanceType  distance type, EUCLIDEAN, MANHATTAN, CHEBYSHEV or COSINE.
+	 * @param dontNormalize true if the attributes are not normalized.
+	 * @param nominal       nominal attributes.
+	 * @param active        attributes used by the distance function.
+	 * @param ranges        ranges, as returned by NormalizableDistance.
+	 * @param replacement   missing values replacement.
+	 * @param centroids     cluster centroids.
+	 */
+	public ScoringModel(int distanceType, boolean dontNormalize, boolean[] nominal,
+		boolean[] active, double[][] ranges, double[] replacement, double[][] centroids) {
+
+		this(distanceType, dontNormalize, nominal, active, ranges, replacement, centroids, null);
+	}
+
+	/**
+	 * Creates a new scoring model that checks the data header.
+	 *
+	 * @param distanceType  distance type, EUCLIDEAN, MANHATTAN, CHEBYSHEV or COSINE.
+	 * @param dontNormalize true if the attributes are not normalized.
+	 * @param nominal       nominal attributes.
+	 * @param active        attributes used by the distance function.
+	 * @param ranges        ranges, as returned by NormalizableDistance.
+	 * @param replacement   missing values replacement.
+	 * @param centroids     cluster centroids.
+	 * @param header        training header, null to check the number of
+	 *                      attributes only.
+	 */
+	public ScoringModel(int distanceType, boolean dontNormalize, boolean[] nominal,
+		boolean[] active, double[][] ranges, double[] replacement, double[][] centroids,
+		Instances header) {
+
+		this(distanceType, dontNormalize, nominal, active, column(ranges, 0), column(ranges, 1),
+			column(ranges, 2), replacement, centroids, header);
+	}
+
+	/**
+	 * Creates a new scoring model from the ranges split by column, as
+	 * read from the binary format. All the arrays are copied.
+	 *
+	 * @param distanceType  distance type.
+	 * @param dontNormalize true if the attributes are not normalized.
+	 * @param nominal       nominal attributes.
+	 * @param active        attributes used by the distance function.
+	 * @param min           minimum of each attribute.
+	 * @param max           maximum of each attribute.
+	 * @param width         width of each attribute.
+	 * @param replacement   missing values replacement.
+	 * @param centroids     cluster centroids.
+	 * @param header        training header, or null.
+	 */
+	protected ScoringModel(int distanceType, boolean dontNormalize, boolean[] nominal,
+		boolean[] active, double[] min, double[] max, double[] width, double[] replacement,
+		double[][] centroids, Instances header) {
+
+		m_distanceType  = distanceType;
+		m_dontNormalize = dontNormalize;
+		m_nominal       = nominal.clone();
+		m_active        = active.clone();
+		m_min           = min.clone();
+		m_max           = max.clone();
+		m_width         = width.clone();
+		m_replacement   = replacement.clone();
+
+		m_centroids = new double[centroids.length][];
+		for (int i = 0; i < centroids.length; i++)
+			m_centroids[i] = centroids[i].clone();
+
+		if (header != null) {
+			if (header.numAttributes() != nominal.length)
+				throw new IllegalArgumentException("ScoringModel: the header has "
+					+ header.numAttributes() + " attributes, the model " + nominal.length + "!");
+			m_header = new Instances(header, 0);
+			m_header.setClassIndex(-1);
+		}
+		else
+			m_header = null;
+
+		/* Once, so the sparse path never writes to the model. */
+		m_zeroDistance = new double[m_centroids.length];
+		if (m_distanceType == EUCLIDEAN || m_distanceType == MANHATTAN)
+			for (int i = 0; i < m_centroids.length; i++)
+				m_zeroDistance[i] = accumulate(new double[m_centroids[i].length], m_centroids[i]);
+	}
+
+	/**
+	 * Gets a column of the ranges.
+	 *
+	 * @param ranges ranges, as returned by NormalizableDistance.
+	 * @param c      column: 0 for the minimum, 1 the maximum, 2 the width.
+	 * @return Returns the column.
+	 */
+	protected static double[] column(double[][] ranges, int c) {
+		double[] column = new double[ranges.length];
+		for (int i = 0; i < ranges.length; i++)
+			column[i] = ranges[i][c];
+		return column;
+	}
+
+	/**
+	 * Gets the distance type of a given distance function.
+	 *
+	 * @param df distance function.
+	 * @return Returns the distance type, or -1 if not supported.
+	 */
+	public static int distanceType(DistanceFunction df) {
+		if (df instanceof CosineDistance)
+			return COSINE;
+		if (df instanceof KValidChebyshevDistance)
+			return CHEBYSHEV;
+		if (df instanceof ManhattanDistance)
+			return MANHATTAN;
+		if (df instanceof EuclideanDistance)
+			return EUCLIDEAN;
+		return -1;
+	}
+
+	/**
+	 * Returns the number of clusters.
+	 *
+	 * @return Returns the number of clusters.
+	 */
+	public int numberOfClusters() {
+		return m_centroids.length;
+	}
+
+	/**
+	 * Returns the number of attributes expected.
+	 *
+	 * @return Returns the number of attributes.
+	 */
+	public int numAttributes() {
+		return m_nominal.length;
+	}
+
+	/**
+	 * Gets the training header.
+	 *
+	 * @return Returns a copy of the header, or null if not known.
+	 */
+	public Instances getHeader() {
+		return (m_header != null) ? new Instances(m_header, 0) : null;
+	}
+
+	/**
+	 * Checks if a given dataset can be scored by the model: the same
+	 * number of attributes and, if the training header is known, the
+	 * same names, types and nominal values, in the same order. The
+	 * class index is not compared.
+	 *
+	 * @param header header of the data.
+	 * @throws Exception if the data does not match the model.
+	 */
+	public void checkHeader(Instances header) throws Exception {
+		if (header.numAttributes() != numAttributes())
+			throw new Exception("ScoringModel: the data has " + header.numAttributes()
+				+ " attributes, the model expects " + numAttributes() + "!");
+
+		if (m_header == null)
+			return;
+
+		Instances data = new Instances(header, 0);
+		data.setClassIndex(-1);
+		String msg = m_header.equalHeadersMsg(data);
+		if (msg != null)
+			throw new Exception("ScoringModel: the data does not match the training header, "
+				+ msg);
+	}
+
+	/**
+	 * Gets the cluster centroids.
+	 *
+	 * @return Returns a copy of the cluster centroids.
+	 */
+	public double[][] getCentroids() {
+		double[][] centroids = new double[m_centroids.length][];
+		for (int i = 0; i < centroids.length; i++)
+			centroids[i] = m_centroids[i].clone();
+		return centroids;
+	}
+
+	/**
+	 * Classifies a given instance, exactly as SimpleKMeans does.
+	 *
+	 * @param instance the instance to be assigned to a cluster.
+	 * @return Returns the assigned cluster.
+	 */
+	public int clusterInstance(Instance instance) {
+		boolean sparse = isSparse(instance);
+
+		/* Same starting value and tie breaking as SimpleKMeans. */
+		double minDist = Integer.MAX_VALUE;
+		int best = 0;
+
+		for (int i = 0; i < m_centroids.length; i++) {
+			double dist = (sparse) ? accumulateSparse(instance, i)
+				: accumulate(instance, m_centroids[i]);
+			if (dist < minDist) {
+				minDist = dist;
+				best = i;
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * Returns the distance between a given instance and the centroid
+	 * of a given cluster.
+	 *
+	 * @param instance the instance.
+	 * @param cluster  the cluster index.
+	 * @return Returns the distance to the cluster centroid.
+	 */
+	public double distanceToCentroid(Instance instance, int cluster) {
+		double dist = (isSparse(instance)) ? accumulateSparse(instance, cluster)
+			: accumulate(instance, m_centroids[cluster]);
+		if (m_distanceType == EUCLIDEAN)
+			dist = Math.sqrt(dist);
+		return dist;
+	}
+
+	/**
+	 * Computes the distances between a given instance and all the
+	 * centroids, replacing its missing values only once.
+	 *
+	 * @param instance  the instance.
+	 * @param distances output, one distance per cluster.
+	 * @return Returns the assigned cluster, as clusterInstance().
+	 */
+	public int distances(Instance instance, double[] distances) {
+		boolean sparse = isSparse(instance);
+
+		double minDist = Integer.MAX_VALUE;
+		int best = 0;
+
+		for (int i = 0; i < m_centroids.length; i++) {
+			double dist = (sparse) ? accumulateSparse(instance, i)
+				: accumulate(instance, m_centroids[i]);
+			if (dist < minDist) {
+				minDist = dist;
+				best = i;
+			}
+			distances[i] = (m_distanceType == EUCLIDEAN) ? Math.sqrt(dist) : dist;
+		}
+		return best;
+	}
+
+	/**
+	 * Gets the distance type.
+	 *
+	 * @return Returns the distance type, i.e: EUCLIDEAN.
+	 */
+	public int getDistanceType() {
+		return m_distanceType;
+	}
+
+	/**
+	 * Checks if a given instance goes through the sparse path, i.e: it
+	 * is sparse and the distance is a sum of per-attribute terms.
+	 *
+	 * @param instance the instance.
+	 * @return Returns true if sparse.
+	 */
+	protected boolean isSparse(Instance instance) {
+		return instance instanceof SparseInstance
+			&& (m_distanceType == EUCLIDEAN || m_distanceType == MANHATTAN);
+	}
+
+	/**
+	 * Replaces the missing values of a given instance by the
+	 * training means/modes.
+	 *
+	 * @param instance the instance.
+	 * @return Returns the instance values.
+	 */
+	protected double[] replaceMissing(Instance instance) {
+		double[] values = instance.toDoubleArray();
+		for (int j = 0; j < values.length; j++) {
+			if (Utils.isMissingValue(values[j]) && !Double.isNaN(m_replacement[j]))
+				values[j] = m_replacement[j];
+		}
+		return values;
+	}
+
+	/**
+	 * Gets a value of a given instance, the missing ones replaced by
+	 * the training means/modes.
+	 *
+	 * @param instance the instance.
+	 * @param j        attribute index.
+	 * @return Returns the value.
+	 */
+	protected double value(Instance instance, int j) {
+		double v = instance.value(j);
+		if (Utils.isMissingValue(v) && !Double.isNaN(m_replacement[j]))
+			v = m_replacement[j];
+		return v;
+	}
+
+	/**
+	 * Accumulates the distance between an instance and a centroid, as
+	 * accumulate(double[], double[]) over the instance values with the
+	 * missing ones replaced, without copying them.
+	 *
+	 * @param instance the instance.
+	 * @param c        the centroid.
+	 * @return Returns the accumulated distance.
+	 */
+	protected double accumulate(Instance instance, double[] c) {
+		if (m_distanceType == COSINE)
+			return cosine(instance, c);
+
+		double dist = 0.0;
+		for (int j = 0; j < c.length; j++) {
+			if (!m_active[j])
+				continue;
+
+			double diff = difference(j, value(instance, j), c[j]);
+			if (m_distanceType == EUCLIDEAN)
+				dist += diff * diff;
+			else if (m_distanceType == CHEBYSHEV)
+				dist = Math.max(dist, Math.abs(diff));
+			else
+				dist += Math.abs(diff);
+		}
+		return dist;
+	}
+
+	/**
+	 * Computes the cosine distance between an instance and a centroid,
+	 * as cosine(double[], double[]) over the instance values.
+	 *
+	 * @param instance the instance.
+	 * @param c        the centroid.
+	 * @return Returns the cosine distance.
+	 */
+	protected double cosine(Instance instance, double[] c) {
+		double dot = 0.0, normA = 0.0, normB = 0.0;
+		for (int j = 0; j < c.length; j++) {
+			if (!m_active[j] || m_nominal[j])
+				continue;
+
+			double a = value(instance, j);
+			if (Utils.isMissingValue(a) || Utils.isMissingValue(c[j]))
+				continue;
+
+			dot   += a * c[j];
+			normA += a * a;
+			normB += c[j] * c[j];
+		}
+		return CosineDistance.cosineDistance(dot, normA, normB);
+	}
+
+	/**
+	 * Accumulates the distance between two points, without the final
+	 * square root for the Euclidean distance.
+	 *
+	 * @param a first point.
+	 * @param b second point.
+	 * @return Returns the accumulated distance.
+	 */
+	protected double accumulate(double[] a, double[] b) {
+		if (m_distanceType == COSINE)
+			return cosine(a, b);
+
+		double dist = 0.0;
+		for (int j = 0; j < a.length; j++) {
+			if (!m_active[j])
+				continue;
+
+			double diff = difference(j, a[j], b[j]);
+			if (m_distanceType == EUCLIDEAN)
+				dist += diff * diff;
+			else if (m_distanceType == CHEBYSHEV)
+				dist = Math.max(dist, Math.abs(diff));
+			else
+				dist += Math.abs(diff);
+		}
+		return dist;
+	}
+
+	/**
+	 * Computes the cosine distance between two points, over the numeric
+	 * attributes, as CosineDistance does.
+	 *
+	 * @param a first point.
+	 * @param b second point.
+	 * @return Returns the cosine distance.
+	 */
+	protected double cosine(double[] a, double[] b) {
+		double dot = 0.0, normA = 0.0, normB = 0.0;
+		for (int j = 0; j < a.length; j++) {
+			if (!m_active[j] || m_nominal[j] || Utils.isMissingValue(a[j])
+				|| Utils.isMissingValue(b[j]))
+				continue;
+
+			dot   += a[j] * b[j];
+			normA += a[j] * a[j];
+			normB += b[j] * b[j];
+		}
+		return CosineDistance.cosineDistance(dot, normA, normB);
+	}
+
+	/**
+	 * Accumulates the distance between a sparse instance and a centroid
+	 * iterating only over the values stored: the distance from the
+	 * all-zeros instance to the centroid is computed once, and only the
+	 * terms of the stored values are corrected.
+	 *
+	 * @param instance sparse instance.
+	 * @param cluster  the cluster index.
+	 * @return Returns the accumulated distance.
+	 */
+	protected double accumulateSparse(Instance instance, int cluster) {
+		double[] c  = m_centroids[cluster];
+		double dist = m_zeroDistance[cluster];
+
+		for (int p = 0; p < instance.numValues(); p++) {
+			int j = instance.index(p);
+			if (!m_active[j])
+				continue;
+
+			double v = instance.valueSparse(p);
+			if (Utils.isMissingValue(v) && !Double.isNaN(m_replacement[j]))
+				v = m_replacement[j];
+
+			dist += term(j, v, c[j]) - term(j, 0, c[j]);
+		}
+
+		/* Rounding may leave a tiny negative where the points match. */
+		return Math.max(0.0, dist);
+	}
+
+	/**
+	 * Contribution of a given attribute to the accumulated distance.
+	 *
+	 * @param j  attribute index.
+	 * @param v1 first value.
+	 * @param v2 second value.
+	 * @return Returns the term.
+	 */
+	protected double term(int j, double v1, double v2) {
+		double diff = difference(j, v1, v2);
+		return (m_distanceType == EUCLIDEAN) ? diff * diff : Math.abs(diff);
+	}
+
+	/**
+	 * Computes the difference between two values of a given attribute,
+	 * following the same rules of the NormalizableDistance.
+	 *
+	 * @param j  attribute index.
+	 * @param v1 first value.
+	 * @param v2 second value.
+	 * @return Returns the difference.
+	 */
+	protected double difference(int j, double v1, double v2) {
+		boolean miss1 = Utils.isMissingValue(v1);
+		boolean miss2 = Utils.isMissingValue(v2);
+
+		if (m_nominal[j]) {
+			if (miss1 || miss2 || (int) v1 != (int) v2)
+				return 1.0;
+			return 0.0;
+		}
+
+		if (!miss1 && !miss2) {
+			if (m_dontNormalize)
+				return v1 - v2;
+			return norm(v1, j) - norm(v2, j);
+		}
+
+		/* Both missing. */
+		if (miss1 && miss2)
+			return (m_dontNormalize) ? m_width[j] : 1.0;
+
+		/* Only one missing: assumes the farthest value. */
+		double diff = (miss2) ? v1 : v2;
+		if (!m_dontNormalize) {
+			diff = norm(diff, j);
+			if (diff < 0.5)
+				diff = 1.0 - diff;
+			return diff;
+		}
+
+		if (m_max[j] - diff > diff - m_min[j])
+			return m_max[j] - diff;
+		return diff - m_min[j];
+	}
+
+	/**
+	 * Normalizes a given value.
+	 *
+	 * @param x value.
+	 * @param j attribute index.
+	 * @return Returns the normalized value.
+	 */
+	protected double norm(double x, int j) {
+		if (m_width[j] == 0.0)
+			return 0.0;
+		return (x - m_min[j]) / m_width[j];
+	}
+
+	/**
+	 * Writes the model in the compact binary format.
+	 *
+	 * @param stream output stream.
+	 * @throws IOException if the model could not be written.
+	 */
+	public void write(OutputStream stream) throws IOException {
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream));
+		int numAttributes = m_nominal.length;
+
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		out.writeInt(m_distanceType);
+		out.writeBoolean(m_dontNormalize);
+
+		out.writeInt(numAttributes);
+		for (int j = 0; j < numAttributes; j++) {
+			out.writeBoolean(m_nominal[j]);
+			out.writeBoolean(m_active[j]);
+			out.writeDouble(m_min[j]);
+			out.writeDouble(m_max[j]);
+			out.writeDouble(m_width[j]);
+			out.writeDouble(m_replacement[j]);
+		}
+
+		out.writeInt(m_centroids.length);
+		for (int i = 0; i < m_centroids.length; i++)
+			for (int j = 0; j < numAttributes; j++)
+				out.writeDouble(m_centroids[i][j]);
+
+		/* Header as ARFF, its length may exceed writeUTF's 64K. */
+		out.writeBoolean(m_header != null);
+		if (m_header != null) {
+			byte[] header = m_header.toString().getBytes("UTF-8");
+			out.writeInt(header.length);
+			out.write(header);
+		}
+
+		out.flush();
+	}
+
+	/**
+	 * Reads a model in the compact binary format.
+	 *
+	 * @param stream input stream.
+	 * @return Returns the model read.
+	 * @throws IOException if the stream does not contain a valid model.
+	 */
+	public static ScoringModel read(InputStream stream) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(stream));
+
+		if (in.readInt() != MAGIC)
+			throw new IOException("ScoringModel: not a KValid scoring model!");
+		int version = in.readInt();
+		if (version < 1 || version > VERSION)
+			throw new IOException("ScoringModel: unsupported model version!");
+
+		int distanceType = in.readInt();
+		if (distanceType < EUCLIDEAN || distanceType > COSINE)
+			throw new IOException("ScoringModel: unsupported distance type!");
+		boolean dontNormalize = in.readBoolean();
+
+		int numAttributes = in.readInt();
+		boolean[] nominal    = new boolean[numAttributes];
+		boolean[] active     = new boolean[numAttributes];
+		double[] min         = new double[numAttributes];
+		double[] max         = new double[numAttributes];
+		double[] width       = new double[numAttributes];
+		double[] replacement = new double[numAttributes];
+
+		for (int j = 0; j < numAttributes; j++) {
+			nominal[j]     = in.readBoolean();
+			active[j]      = in.readBoolean();
+			min[j]         = in.readDouble();
+			max[j]         = in.readDouble();
+			width[j]       = in.readDouble();
+			replacement[j] = in.readDouble();
+		}
+
+		int k = in.readInt();
+		double[][] centroids = new double[k][numAttributes];
+		for (int i = 0; i < k; i++)
+			for (int j = 0; j < numAttributes; j++)
+				centroids[i][j] = in.readDouble();
+
+		Instances header = null;
+		if (version >= 2 && in.readBoolean()) {
+			byte[] arff = new byte[in.readInt()];
+			in.readFully(arff);
+			header = new Instances(new BufferedReader(new StringReader(new String(arff, "UTF-8"))));
+		}
+
+		return new ScoringModel(distanceType, dontNormalize, nominal, active, min, max, width,
+			replacement, centroids, header);
+	}
+
+	/**
+	 * Saves the model to a file.
+	 *
+	 * @param fileName file name.
+	 * @throws IOException if the file could not be written.
+	 */
+	public void save(String fileName) throws IOException {
+		OutputStream out = new FileOutputStream(fileName);
+		try {
+			write(out);
+		}
+		finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Loads a model from a file.
+	 *
+	 * @param fileName file name.
+	 * @return Returns the model loaded.
+	 * @throws IOException if the file could not be read.
+	 */
+	public static ScoringModel load(String fileName) throws IOException {
+		InputStream in = new FileInputStream(fileName);
+		try {
+			return read(in);
+		}
+		finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Loads either a lean scoring model or a serialized KValid, converting
+	 * the latter.
+	 *
+	 * @param fileName file name.
+	 * @return Returns the scoring model.
+	 * @throws Exception if the file does not contain a valid model.
+	 */
+	public static ScoringModel loadAny(String fileName) throws Exception {
+		DataInputStream in = new DataInputStream(new FileInputStream(fileName));
+		int magic;
+		try {
+			magic = in.readInt();
+		}
+		finally {
+			in.close();
+		}
+
+		if (magic == MAGIC)
+			return load(fileName);
+
+		return ((KValid) SerializationHelper.read(fileName)).getScoringModel();
+	}
+
+	/**
+	 * Main method: exports a serialized KValid as a lean scoring model.
+	 *
+	 * @param args -l <KValid model> -d <scoring model>
+	 */
+	public static void main(String[] args) {
+		try {
+			String in  = Utils.getOption('l', args);
+			String out = Utils.getOption('d', args);
+
+			if (in.length() == 0 || out.length() == 0) {
+				System.err.println("Usage: ScoringModel -l <KValid model> -d <scoring model>");
+				return;
+			}
+
+			Utils.checkForRemainingOptions(args);
+			((KValid) SerializationHelper.read(in)).getScoringModel().save(out);
+		}
+		catch (Exception e) {
+			e.printStackTrace();
+			System.exit(1);
+		}
+	}
+}
@@ -0,0 +1,316 @@
+/*
+ * Copyright (C) 2017  Davidson Francis <davidsondfgl@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+/*
+ *    ShardedEvaluator.java
+ *    Written by Davidson Francis
+ */
+
+package weka.clusterers.kvalid;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.SerializationHelper;
+import weka.core.Utils;
+import weka.core.converters.AbstractFileLoader;
+
+/**
+ * Evaluates a model over a dataset split in files (shards) that no
+ * single JVM could hold: each shard is streamed by a local worker
+ * process, which returns the PartialState of its shard, and the states
+ * are merged into the exact global statistics.
+ *
+ * The workers run in parallel, at most a given number at a time, and
+ * talk to the driver through serialized states in temporary files: the
+ * initial state (model and sample) goes in, the shard state comes out.
+ * The states are merged in the shard order, so the result does not
+ * depend on which worker finishes first.
+ *
+ * @author Davidson Francis (davidson.francis@sga.pucminas.br)
+ * @version $Revision: 0001 $
+ */
+public class ShardedEvaluator {
+
+	/** Model evaluated. */
+	protected ScoringModel m_model;
+
+	/** Maximum number of worker processes at a time. */
+	protected int m_numWorkers;
+
+	/** Maximum heap of each worker, i.e: 2g, empty for the JVM default. */
+	protected String m_workerHeap = "";
+
+	/** Time spent in the last evaluation, in nanoseconds. */
+	protected long m_elapsedTime;
+
+	/**
+	 * Creates a new evaluator.
+	 *
+	 * @param model      model evaluated.
+	 * @param numWorkers maximum number of worker processes at a time.
+	 */
+	public ShardedEvaluator(ScoringModel model, int numWorkers) {
+		m_model      = model;
+		m_numWorkers = Math.max(1, numWorkers);
+	}
+
+	/**
+	 * Sets the maximum heap of each worker.
+	 *
+	 * @param heap maximum heap, as given to -Xmx, empty for the default.
+	 */
+	public void setWorkerHeap(String heap) {
+		m_workerHeap = (heap == null) ? "" : heap;
+	}
+
+	/**
+	 * Evaluates the model over the shards. With a sample, the shards are
+	 * read twice: once to draw the sample, once for its silhouette.
+	 *
+	 * @param shards     shard files, ARFF or CSV.
+	 * @param sampleSize size of the silhouette sample, 0 for none.
+	 * @param seed       seed of the sample.
+	 * @return Returns the merged state.
+	 * @throws Exception if some worker failed.
+	 */
+	public PartialState evaluate(String[] shards, int sampleSize, long seed) throws Exception {
+		long start = System.nanoTime();
+
+		PartialState initial = new PartialState(m_model);
+		if (sampleSize > 0)
+			initial.setSampleCapacity(sampleSize, seed);
+
+		PartialState result = run(shards, initial);
+
+		if (sampleSize > 0) {
+			initial = new PartialState(m_model);
+			initial.setSample(result.getSample());
+			result = run(shards, initial);
+		}
+
+		m_elapsedTime = System.nanoTime() - start;
+		return result;
+	}
+
+	/**
+	 * Runs one worker per shard, all starting from the same state, and
+	 * merges their states.
+	 *
+	 * @param shards  shard files.
+	 * @param initial initial state.
+	 * @return Returns the merged state.
+	 * @throws Exception if some worker failed.
+	 */
+	protected PartialState run(String[] shards, PartialState initial) throws Exception {
+		final File in = File.createTempFile("kvalid-state", ".in");
+		final File[] out = new File[shards.length];
+		ExecutorService workers = Executors.newFixedThreadPool(Math.min(m_numWorkers, shards.length));
+		List<Future<Void>> done = new ArrayList<Future<Void>>(shards.length);
+
+		try {
+			SerializationHelper.write(in.getPath(), initial);
+
+			for (int i = 0; i < shards.length; i++) {
+				out[i] = File.createTempFile("kvalid-state", ".out");
+				final List<String> command = workerCommand(in, shards[i], i, out[i]);
+
+				done.add(workers.submit(new Callable<Void>() {
+					public Void call() throws Exception {
+						Process p = new ProcessBuilder(command).inheritIO().start();
+						try {
+							if (p.waitFor() != 0)
+								throw new Exception("ShardedEvaluator: worker failed, exit status "
+									+ p.exitValue() + ": " + command);
+						}
+						finally {
+							p.destroy();
+						}
+						return null;
+					}
+				}));
+			}
+
+			/* Merged in the shard order, one state in memory at a time. */
+			PartialState result = null;
+			for (int i = 0; i < shards.length; i++) {
+				try {
+					done.get(i).get();
+				}
+				catch (ExecutionException e) {
+					if (e.getCause() instanceof Exception)
+						throw (Exception) e.getCause();
+					throw e;
+				}
+
+				PartialState state = (PartialState) SerializationHelper.read(out[i].getPath());
+				result = (result == null) ? state : result.merge(state);
+			}
+			return result;
+		}
+		finally {
+			workers.shutdownNow();
+			in.delete();
+			for (int i = 0; i < out.length; i++)
+				if (out[i] != null)
+					out[i].delete();
+		}
+	}
+
+	/**
+	 * Gets the command line of a worker, running this same class with
+	 * the same Java and classpath.
+	 *
+	 * @param in    initial state file.
+	 * @param shard shard file.
+	 * @param part  shard index.
+	 * @param out   shard state file.
+	 * @return Returns the command line.
+	 */
+	protected List<String> workerCommand(File in, String shard, int part, File out) {
+		List<String> command = new ArrayList<String>();
+		command.add(System.getProperty("java.home") + File.separator + "bin"
+			+ File.separator + "java");
+		if (m_workerHeap.length() > 0)
+			command.add("-Xmx" + m_workerHeap);
+		command.add("-cp");
+		command.add(System.getProperty("java.class.path"));
+		command.add(ShardedEvaluator.class.getName());
+		command.add("-worker");
+		command.add("-state");
+		command.add(in.getPath());
+		command.add("-i");
+		command.add(shard);
+		command.add("-part");
+		command.add("" + part);
+		command.add("-o");
+		command.add(out.getPath());
+		return command;
+	}
+
+	/**
+	 * Worker: streams a shard into a copy of the initial state.
+	 *
+	 * @param state initial state, already read.
+	 * @param shard shard file.
+	 * @param part  shard index.
+	 * @return Returns the state of the shard.
+	 * @throws Exception if the shard could not be read.
+	 */
+	public static PartialState evaluateShard(PartialState state, String shard, int part)
+		throws Exception {
+
+		AbstractFileLoader loader = StreamScorer.getLoader(shard);
+		Instances header = loader.getStructure();
+		try {
+			state.m_model.checkHeader(header);
+		}
+		catch (Exception e) {
+			throw new Exception("ShardedEvaluator: " + shard + ": " + e.getMessage(), e);
+		}
+
+		state.startPart(part);
+		Instance inst;
+		while ((inst = loader.getNextInstance(header)) != null)
+			state.add(inst);
+		return state;
+	}
+
+	/**
+	 * Gets the time spent in the last evaluation.
+	 *
+	 * @return Returns the elapsed time, in nanoseconds.
+	 */
+	public long getElapsedTime() {
+		return m_elapsedTime;
+	}
+
+	/**
+	 * Main method, use -h to list all parameters.
+	 *
+	 * @param args command line arguments.
+	 */
+	public static void main(String[] args) {
+		try {
+			if (args.length == 0 || Utils.getFlag('h', args)) {
+				System.err.println("Usage: ShardedEvaluator -l <KValid or scoring model>"
+					+ " -i <shard1,shard2,...> [-workers <n>] [-sample <n>] [-seed <n>]"
+					+ " [-worker-heap <size>]");
+				return;
+			}
+
+			/* Worker process, started by the driver. */
+			if (Utils.getFlag("worker", args)) {
+				String stateFile = Utils.getOption("state", args);
+				String shard     = Utils.getOption('i', args);
+				int part         = Integer.parseInt(Utils.getOption("part", args));
+				String outFile   = Utils.getOption('o', args);
+				Utils.checkForRemainingOptions(args);
+
+				PartialState state = (PartialState) SerializationHelper.read(stateFile);
+				SerializationHelper.write(outFile, evaluateShard(state, shard, part));
+				return;
+			}
+
+			String modelFile = Utils.getOption('l', args);
+			String shards    = Utils.getOption('i', args);
+
+			if (modelFile.length() == 0 || shards.length() == 0)
+				throw new Exception("ShardedEvaluator: both the model (-l) and shards (-i) "
+					+ "are required!");
+
+			String temp;
+			int workers = Runtime.getRuntime().availableProcessors();
+			if ((temp = Utils.getOption("workers", args)).length() > 0)
+				workers = Integer.parseInt(temp);
+
+			int sample = 0;
+			if ((temp = Utils.getOption("sample", args)).length() > 0)
+				sample = Integer.parseInt(temp);
+
+			long seed = 1;
+			if ((temp = Utils.getOption("seed", args)).length() > 0)
+				seed = Long.parseLong(temp);
+
+			ShardedEvaluator evaluator = new ShardedEvaluator(ScoringModel.loadAny(modelFile),
+				workers);
+			evaluator.setWorkerHeap(Utils.getOption("worker-heap", args));
+			Utils.checkForRemainingOptions(args);
+
+			String[] files = shards.split(",");
+			PartialState state = evaluator.evaluate(files, sample, seed);
+
+			System.out.println("=== " + files.length + " shards ===\n");
+			System.out.println(state);
+			System.err.println("Evaluated in " + String.format(Locale.US, "%.3f",
+				evaluator.getElapsedTime() / 1e9) + " s");
+		}
+		catch (Exception e) {
+			e.printStackTrace();
+			System.exit(1);
+		}
+	}
+}
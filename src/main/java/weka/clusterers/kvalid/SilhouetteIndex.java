@@ -22,9 +22,13 @@
 
 package weka.clusterers.kvalid;
 
+import java.io.IOException;
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.TimeoutException;
 
 import weka.core.DistanceFunction;
 import weka.core.Instance;
@@ -36,26 +40,202 @@ import weka.clusterers.AbstractClusterer;
  * similar an object is to its own cluster compared to
  * other clusters.
  *
+ * By default, b(i) is the mean distance to the cluster of the nearest
+ * other centroid, as KValid always did. With all the clusters, b(i) is
+ * the smallest mean distance to any other cluster, as defined by
+ * Rousseeuw; a single pass over the other points sums the distances to
+ * each cluster, so a(i) and b(i) still cost O(n). In both cases the
+ * means are divided by the number of points averaged, s(i) is 0 in a
+ * single point cluster, and the silhouette of a cluster is the mean of
+ * its points.
+ *
  * @author Davidson Francis (davidson.francis@sga.pucminas.br)
  * @version $Revision: 0001 $
  */
 public class SilhouetteIndex implements Serializable, ClusterEvaluator {
 
 	/** Serialization */
-	static final long serialVersionUID = -305533168492651330L;
+	static final long serialVersionUID = 4170093861745315028L;
 
 	/** Clusters SI. */
-	protected ArrayList<Double> m_clustersSilhouette;
+	protected double[] m_clustersSilhouette;
 
 	/** Global SI. */
 	protected double m_globalSilhouette;
 
+	/** Time spent assigning the instances to the clusters, in nanoseconds. */
+	protected long m_assignmentTime;
+
+	/** Time spent in the silhouette loop, in nanoseconds. */
+	protected long m_evaluationTime;
+
+	/** Number of distance evaluations. */
+	protected long m_distanceCalls;
+
+	/** Size of the largest cluster. */
+	protected int m_maxClusterSize;
+
+	/** Number of points sampled, 0 to evaluate all of them. */
+	protected int m_sampleSize = 0;
+
+	/** Seed of the sample. */
+	protected long m_seed = 1;
+
+	/** Simplified silhouette, i.e: distances to the centroids only?. */
+	protected boolean m_simplified = false;
+
+	/** b(i) over all the other clusters, not just the nearest centroid one?. */
+	protected boolean m_allClusters = false;
+
+	/** Deadline (System.nanoTime) to finish the evaluation, if any. */
+	protected transient long m_deadline;
+
+	/** Has deadline?. */
+	protected transient boolean m_hasDeadline = false;
+
+	/** Preprocessed data, for the distances between points. */
+	protected transient DataSnapshot m_snapshot;
+
+	/** Per-point output, if any. */
+	protected transient SilhouetteWriter m_writer;
+
+	/** Cluster of each instance, given instead of the clusterer, if any. */
+	protected transient int[] m_assignments;
+
 	/** Default constructor. */
 	public SilhouetteIndex() {
-		m_clustersSilhouette = new ArrayList<Double>();
+		m_clustersSilhouette = new double[0];
 		m_globalSilhouette = 0.0;
 	}
 
+	/**
+	 * Sets a deadline to finish the evaluation; evaluate() gives up
+	 * once it is reached.
+	 *
+	 * @param deadline deadline, as given by System.nanoTime().
+	 */
+	public void setDeadline(long deadline) {
+		m_deadline    = deadline;
+		m_hasDeadline = true;
+	}
+
+	/**
+	 * Sets the preprocessed training data: when it covers the dataset
+	 * and distance function evaluated, the distances between points are
+	 * taken from its matrix instead of the distance function.
+	 *
+	 * @param snapshot preprocessed data, null for none.
+	 */
+	public void setSnapshot(DataSnapshot snapshot) {
+		m_snapshot = snapshot;
+	}
+
+	/**
+	 * Streams the silhouette of each point evaluated, with its a(i),
+	 * b(i) and neighbouring cluster, to a given writer.
+	 *
+	 * @param writer per-point output, null for none.
+	 */
+	public void setPointsWriter(SilhouetteWriter writer) {
+		m_writer = writer;
+	}
+
+	/**
+	 * Sets the cluster of each instance, i.e: precomputed assignments;
+	 * the clusterer is then not used, and may be null.
+	 *
+	 * @param assignments cluster of each instance, null for none.
+	 */
+	public void setAssignments(int[] assignments) {
+		m_assignments = assignments;
+	}
+
+	/**
+	 * Evaluates only a random sample of the points, each one still
+	 * compared against all the others. The silhouette of each cluster
+	 * is extrapolated from its share of the sample.
+	 *
+	 * @param sampleSize number of points, 0 to evaluate all of them.
+	 * @param seed       seed of the sample.
+	 */
+	public void setSampleSize(int sampleSize, long seed) {
+		m_sampleSize = sampleSize;
+		m_seed       = seed;
+	}
+
+	/**
+	 * Gets the sample size.
+	 *
+	 * @return Returns the number of points sampled, 0 if all.
+	 */
+	public int getSampleSize() {
+		return m_sampleSize;
+	}
+
+	/**
+	 * Enables/Disables the simplified silhouette: the mean distances
+	 * to the points of a cluster are replaced by the distance to its
+	 * centroid, so each point costs O(k) instead of O(n).
+	 *
+	 * @param simplified Enables/Disables the simplified silhouette.
+	 */
+	public void setSimplified(boolean simplified) {
+		m_simplified = simplified;
+	}
+
+	/**
+	 * Gets the simplified option.
+	 *
+	 * @return Returns true if the simplified silhouette is used.
+	 */
+	public boolean getSimplified() {
+		return m_simplified;
+	}
+
+	/**
+	 * Enables/Disables the b(i) over all the other clusters, i.e: the
+	 * smallest mean distance to the points of another cluster, instead
+	 * of the mean distance to the cluster of the nearest centroid.
+	 *
+	 * @param allClusters Enables/Disables the b(i) over all the clusters.
+	 */
+	public void setAllClusters(boolean allClusters) {
+		m_allClusters = allClusters;
+	}
+
+	/**
+	 * Gets the all clusters option.
+	 *
+	 * @return Returns true if b(i) is taken over all the other clusters.
+	 */
+	public boolean getAllClusters() {
+		return m_allClusters;
+	}
+
+	/**
+	 * Checks if this is the exact silhouette, i.e: not sampled nor
+	 * simplified.
+	 *
+	 * @return Returns true if exact, false otherwise.
+	 */
+	public boolean isExact() {
+		return !m_simplified && m_sampleSize <= 0;
+	}
+
+	/**
+	 * Checks if the evaluation should stop, i.e: the thread was
+	 * interrupted or the deadline was reached.
+	 *
+	 * @throws InterruptedException if the thread was interrupted.
+	 * @throws TimeoutException if the deadline was reached.
+	 */
+	protected void checkStop() throws InterruptedException, TimeoutException {
+		if (Thread.currentThread().isInterrupted())
+			throw new InterruptedException("SilhouetteIndex: interrupted!");
+		if (m_hasDeadline && System.nanoTime() - m_deadline > 0)
+			throw new TimeoutException("SilhouetteIndex: deadline reached!");
+	}
+
 	/**
 	 * Evaluates the clusterer quality, using the Silhouette-Index
 	 * algorithm.
@@ -67,8 +247,11 @@ public class SilhouetteIndex implements Serializable, ClusterEvaluator {
 	public void evaluate(AbstractClusterer clusterer, Instances centroids,
 		Instances instances, DistanceFunction distanceFunction) throws Exception {
 
-		if (clusterer == null || instances == null)
+		if ((clusterer == null && m_assignments == null) || instances == null)
 			throw new Exception("SilhouetteIndex: the clusterer or instances are null!");
+		if (m_assignments != null && m_assignments.length != instances.size())
+			throw new Exception("SilhouetteIndex: " + m_assignments.length
+				+ " assignments given for " + instances.size() + " instances!");
 
 		/*
 		 * Attributes each instance to your centroid.
@@ -78,6 +261,8 @@ public class SilhouetteIndex implements Serializable, ClusterEvaluator {
 		 * of classify again. As long as I do not know how to accomplish
 		 * that, I'll classify again.
 		 */
+		long time = System.nanoTime();
+
 		ArrayList<Instance>[] clusteredInstances =
 			(ArrayList<Instance>[]) new ArrayList<?>[centroids.size()];
 
@@ -86,19 +271,59 @@ public class SilhouetteIndex implements Serializable, ClusterEvaluator {
 			clusteredInstances[i] = new ArrayList<Instance>();
 
 		/* Fills. */
-		for (int i = 0; i < instances.size(); i++)
-			clusteredInstances[ clusterer.clusterInstance( instances.get(i) ) ]
-				.add( instances.get(i) );
+		int[] assigned = new int[instances.size()];
+		for (int i = 0; i < instances.size(); i++) {
+			assigned[i] = (m_assignments != null) ? m_assignments[i]
+				: clusterer.clusterInstance( instances.get(i) );
+			clusteredInstances[ assigned[i] ].add( instances.get(i) );
+		}
+
+		/* Rows of each cluster points, in the dataset. */
+		int[][] rows = new int[centroids.size()][];
+		int[] fill = new int[centroids.size()];
+
+		for (int i = 0; i < rows.length; i++)
+			rows[i] = new int[clusteredInstances[i].size()];
+		for (int i = 0; i < assigned.length; i++)
+			rows[assigned[i]][fill[assigned[i]]++] = i;
+
+		/* Distances between points from the snapshot, if it has them. */
+		DataSnapshot snapshot = null;
+		if (m_snapshot != null && m_snapshot.covers(instances, distanceFunction))
+			snapshot = m_snapshot;
+
+		m_distanceCalls  = (long) instances.size() * centroids.size();
+		m_maxClusterSize = 0;
+		for (int i = 0; i < clusteredInstances.length; i++)
+			m_maxClusterSize = Math.max(m_maxClusterSize, clusteredInstances[i].size());
+
+		m_assignmentTime = System.nanoTime() - time;
+		time = System.nanoTime();
+
+		/* Sampling rate, all the points unless sampled. */
+		double rate = 1.0;
+		if (!m_simplified && m_sampleSize > 0 && m_sampleSize < instances.size())
+			rate = (double) m_sampleSize / instances.size();
+
+		Random rand = new Random(m_seed);
+		double[] clustersSilhouette = new double[clusteredInstances.length];
+		double[] sums = new double[clusteredInstances.length];
+		int k = centroids.size();
 
 		/* For each centroid. */
 		for (int i = 0; i < clusteredInstances.length; i++) {
 			double centroidSilhouetteIndex = 0.0;
+			int size = clusteredInstances[i].size();
+
+			/* Points evaluated, all of them or a sample of the cluster. */
+			int[] points = samplePoints(size, rate, rand);
 
 			/* 
 			 * Calculate the distance between a given point to the others
 			 * within the same centroid.
 			 */
-			for (int j = 0; j < clusteredInstances[i].size(); j++) {
+			for (int p = 0; p < points.length; p++) {
+				int j = points[p];
 				double pointSilhouetteIndex = 0.0;
 				double meanDistSameC  = 0.0;
 				double meanDistOtherC = 0.0;
@@ -106,15 +331,42 @@ public class SilhouetteIndex implements Serializable, ClusterEvaluator {
 				/* My reference point. */
 				Instance i1 = clusteredInstances[i].get(j);
 
+				/* Each point costs O(n), so checks if time is over. */
+				checkStop();
+
+				/* Distances to the centroids only. */
+				if (m_simplified) {
+					centroidSilhouetteIndex += simplifiedSilhouette(i1, rows[i][j], i, centroids,
+						distanceFunction);
+					continue;
+				}
+
+				/* Mean distances to every cluster, in a single pass. */
+				if (m_allClusters) {
+					centroidSilhouetteIndex += allClustersSilhouette(i1, i, j, clusteredInstances,
+						rows, snapshot, distanceFunction, sums);
+					continue;
+				}
+
+				/* Alone in the cluster: s(i) is 0. */
+				if (size == 1) {
+					if (m_writer != null)
+						m_writer.write(k, rows[i][j], i, Double.NaN, Double.NaN, -1, 0.0);
+					continue;
+				}
+
 				/* For each other point, in the same centroid.. */
-				for (int k = 0; k < clusteredInstances[i].size(); k++) {
+				for (int q = 0; q < clusteredInstances[i].size(); q++) {
 					/* Different point. */
-					if (k == j)
+					if (q == j)
 						continue;
 
 					/* Gets the distance between p1 and p2. */
-					Instance i2 = clusteredInstances[i].get(k);
-					meanDistSameC += distanceFunction.distance(i1, i2);
+					if (snapshot != null)
+						meanDistSameC += snapshot.distance(rows[i][j], rows[i][q]);
+					else
+						meanDistSameC += distanceFunction.distance(i1,
+							clusteredInstances[i].get(q));
 				}
 
 				/* Mean. */
@@ -122,63 +374,275 @@ public class SilhouetteIndex implements Serializable, ClusterEvaluator {
 
 				/* Get the nearest cluster to the point j. */
 				double minDistance = Double.MAX_VALUE;
-				int minCentroid = 0;
+				int minCentroid = -1;
 
-				for (int k = 0; k < centroids.size(); k++) {
-					/* Other clusters, ;-). */
-					if (k == i)
+				for (int q = 0; q < centroids.size(); q++) {
+					/* Other clusters, ;-), with some point. */
+					if (q == i || clusteredInstances[q].isEmpty())
 						continue;
 
 					/* Distance. */
-					Instance i2 = centroids.get(k);
+					Instance i2 = centroids.get(q);
 					double distance = distanceFunction.distance(i1, i2);
 
 					/* Checks if is lower. */
 					if (distance < minDistance) {
 						minDistance = distance;
-						minCentroid = k;
+						minCentroid = q;
 					}
 				}
 
+				/* No other cluster: s(i) is 0. */
+				if (minCentroid < 0) {
+					if (m_writer != null)
+						m_writer.write(k, rows[i][j], i, meanDistSameC, Double.NaN, -1, 0.0);
+					continue;
+				}
+
 				/*
 				 * We already know which cluster is closest, so now we have to go
 				 * through this cluster and get the average distance from all points
 				 * to point p1.
 				 */
-				for (int k = 0; k < clusteredInstances[minCentroid].size(); k++) {
+				for (int q = 0; q < clusteredInstances[minCentroid].size(); q++) {
 					/* Gets the distance between p1 and p2. */
-					Instance i2 = clusteredInstances[minCentroid].get(k);
-
-					/* Distance. */
-					meanDistOtherC += distanceFunction.distance(i1, i2);
+					if (snapshot != null)
+						meanDistOtherC += snapshot.distance(rows[i][j], rows[minCentroid][q]);
+					else
+						meanDistOtherC += distanceFunction.distance(i1,
+							clusteredInstances[minCentroid].get(q));
 				}
 
 				/* Mean. */
-				meanDistOtherC /= (clusteredInstances[minCentroid].size() - 1);
+				meanDistOtherC /= clusteredInstances[minCentroid].size();
+
+				m_distanceCalls += clusteredInstances[i].size() - 1
+					+ centroids.size() - 1 + clusteredInstances[minCentroid].size();
 
 				/* Now, we calculate the silhouette index, \o/. */
-				pointSilhouetteIndex = (meanDistOtherC - meanDistSameC) / 
-					Math.max( meanDistSameC, meanDistOtherC );
+				double max = Math.max( meanDistSameC, meanDistOtherC );
+				pointSilhouetteIndex = (max > 0) ? (meanDistOtherC - meanDistSameC) / max : 0.0;
+
+				if (m_writer != null)
+					m_writer.write(k, rows[i][j], i, meanDistSameC, meanDistOtherC, minCentroid,
+						pointSilhouetteIndex);
 
 				/* Sum to the centroid silhouette. */
 				centroidSilhouetteIndex += pointSilhouetteIndex;
 			}
 
-			centroidSilhouetteIndex /= (clusteredInstances[i].size() - 1);
+			/* Extrapolates the sample to the whole cluster. */
+			if (points.length > 0 && points.length < size)
+				centroidSilhouetteIndex *= (double) size / points.length;
+
+			if (size > 0)
+				centroidSilhouetteIndex /= size;
+
 			m_globalSilhouette += centroidSilhouetteIndex;
 
-			m_clustersSilhouette.add( centroidSilhouetteIndex );
+			clustersSilhouette[i] = centroidSilhouetteIndex;
+		}
+
+		m_clustersSilhouette = clustersSilhouette;
+		m_globalSilhouette /= clustersSilhouette.length;
+		m_evaluationTime = System.nanoTime() - time;
+	}
+
+	/**
+	 * Silhouette of a point with b(i) over all the other clusters: the
+	 * distances to all the other points are summed per cluster, in a
+	 * single pass, and the smallest mean of the other clusters is b(i).
+	 *
+	 * @param inst               the point.
+	 * @param cluster            its cluster.
+	 * @param index              its index within the cluster.
+	 * @param clusteredInstances points of each cluster.
+	 * @param rows               indexes of the points of each cluster, in
+	 *                           the dataset.
+	 * @param snapshot           preprocessed data, null if it does not
+	 *                           cover the dataset.
+	 * @param distanceFunction   distance function.
+	 * @param sums               buffer for the distance sums, one per
+	 *                           cluster.
+	 * @return Returns the silhouette of the point.
+	 * @throws IOException if the point could not be written.
+	 */
+	protected double allClustersSilhouette(Instance inst, int cluster, int index,
+		ArrayList<Instance>[] clusteredInstances, int[][] rows, DataSnapshot snapshot,
+		DistanceFunction distanceFunction, double[] sums) throws IOException {
+
+		int row = rows[cluster][index];
+
+		for (int c = 0; c < clusteredInstances.length; c++) {
+			ArrayList<Instance> points = clusteredInstances[c];
+			double sum = 0.0;
+
+			for (int q = 0; q < points.size(); q++) {
+				if (c == cluster && q == index)
+					continue;
+
+				if (snapshot != null)
+					sum += snapshot.distance(row, rows[c][q]);
+				else
+					sum += distanceFunction.distance(inst, points.get(q));
+			}
+			sums[c] = sum;
+			m_distanceCalls += (c == cluster) ? points.size() - 1 : points.size();
+		}
+
+		int size = clusteredInstances[cluster].size();
+
+		/* Nearest other cluster, by mean distance; empty clusters have none. */
+		double b = Double.NaN;
+		int neighbour = -1;
+		for (int c = 0; c < clusteredInstances.length; c++) {
+			if (c == cluster || clusteredInstances[c].isEmpty())
+				continue;
+
+			double mean = sums[c] / clusteredInstances[c].size();
+			if (neighbour < 0 || mean < b) {
+				b = mean;
+				neighbour = c;
+			}
+		}
+
+		/* s(i) is 0 alone in a cluster, or without any other cluster. */
+		double a = (size > 1) ? sums[cluster] / (size - 1) : Double.NaN;
+		double silhouette = 0.0;
+		if (size > 1 && neighbour >= 0) {
+			double max = Math.max(a, b);
+			silhouette = (max > 0) ? (b - a) / max : 0.0;
+		}
+
+		if (m_writer != null)
+			m_writer.write(clusteredInstances.length, row, cluster, a, b, neighbour, silhouette);
+		return silhouette;
+	}
+
+	/**
+	 * Picks the points of a cluster to be evaluated.
+	 *
+	 * @param size cluster size.
+	 * @param rate sampling rate, 1 for all the points.
+	 * @param rand random number generator.
+	 * @return Returns the indexes of the points, within the cluster.
+	 */
+	protected static int[] samplePoints(int size, double rate, Random rand) {
+		int[] points = new int[size];
+		for (int i = 0; i < size; i++)
+			points[i] = i;
+
+		if (rate >= 1.0 || size == 0)
+			return points;
+
+		/* Partial Fisher-Yates: the first m positions hold the sample. */
+		int m = (int) Math.min(size, Math.max(1, Math.round(size * rate)));
+		for (int i = 0; i < m; i++) {
+			int j = i + rand.nextInt(size - i);
+			int t = points[i];
+			points[i] = points[j];
+			points[j] = t;
+		}
+		return Arrays.copyOf(points, m);
+	}
+
+	/**
+	 * Simplified silhouette of a point: the distance to its own centroid
+	 * against the distance to the nearest other centroid.
+	 *
+	 * @param inst             the point.
+	 * @param row              its index in the dataset.
+	 * @param cluster          its cluster.
+	 * @param centroids        cluster centroids.
+	 * @param distanceFunction distance function.
+	 * @return Returns the silhouette of the point.
+	 * @throws IOException if the point could not be written.
+	 */
+	protected double simplifiedSilhouette(Instance inst, int row, int cluster,
+		Instances centroids, DistanceFunction distanceFunction) throws IOException {
+
+		double own   = distanceFunction.distance(inst, centroids.get(cluster));
+		double other = Double.MAX_VALUE;
+		int neighbour = -1;
+
+		for (int k = 0; k < centroids.size(); k++) {
+			if (k == cluster)
+				continue;
+
+			double distance = distanceFunction.distance(inst, centroids.get(k));
+			if (distance < other) {
+				other     = distance;
+				neighbour = k;
+			}
 		}
 
-		m_globalSilhouette /= m_clustersSilhouette.size();
+		m_distanceCalls += centroids.size();
+
+		double max = Math.max(own, other);
+		double silhouette = (max > 0) ? (other - own) / max : 0.0;
+
+		if (m_writer != null)
+			m_writer.write(centroids.size(), row, cluster, own, (neighbour < 0) ? Double.NaN : other,
+				neighbour, silhouette);
+		return silhouette;
+	}
+
+	/**
+	 * Gets the time spent assigning the instances to the clusters.
+	 *
+	 * @return Returns the assignment time, in nanoseconds.
+	 */
+	public long getAssignmentTime() {
+		return m_assignmentTime;
+	}
+
+	/**
+	 * Gets the time spent in the silhouette loop.
+	 *
+	 * @return Returns the evaluation time, in nanoseconds.
+	 */
+	public long getEvaluationTime() {
+		return m_evaluationTime;
+	}
+
+	/**
+	 * Gets the number of distance evaluations, assignment included.
+	 *
+	 * @return Returns the number of distance evaluations.
+	 */
+	public long getDistanceCalls() {
+		return m_distanceCalls;
+	}
+
+	/**
+	 * Gets the size of the largest cluster, i.e: the largest bucket
+	 * walked by the silhouette loop.
+	 *
+	 * @return Returns the size of the largest cluster.
+	 */
+	public int getMaxClusterSize() {
+		return m_maxClusterSize;
 	}
 
 	/**
 	 * Gets the silhouetteIndex for all clusters.
 	 *
-	 * @return Returns the clusters Silhouette-Index.
+	 * @return Returns the clusters Silhouette-Index, as a new list.
 	 */
 	public ArrayList<Double> getClustersSilhouette() {
+		ArrayList<Double> clusters = new ArrayList<Double>(m_clustersSilhouette.length);
+		for (double si : m_clustersSilhouette)
+			clusters.add(si);
+		return clusters;
+	}
+
+	/**
+	 * Gets the silhouetteIndex for all clusters, without boxing. The
+	 * array is the one kept by the index, not to be modified.
+	 *
+	 * @return Returns the clusters Silhouette-Index.
+	 */
+	public double[] getClustersSilhouetteValues() {
 		return m_clustersSilhouette;
 	}
 
@@ -222,8 +686,8 @@ public class SilhouetteIndex implements Serializable, ClusterEvaluator {
 	 	StringBuffer description = new StringBuffer("");
 
 		/* Clusters. */
-		for (int i = 0; i < m_clustersSilhouette.size(); i++) {
-			double si = m_clustersSilhouette.get(i);
+		for (int i = 0; i < m_clustersSilhouette.length; i++) {
+			double si = m_clustersSilhouette[i];
 			description.append("   Cluster " + i + ": " + String.format(Locale.US, "%.4f", si)
 				+ ", veredict: " + evalSilhouette(si) + "\n");
 		}
@@ -231,6 +695,11 @@ public class SilhouetteIndex implements Serializable, ClusterEvaluator {
 		description.append("   Mean: " + String.format(Locale.US, "%.4f", m_globalSilhouette)
 			+ ", veredict: " + evalSilhouette(m_globalSilhouette));
 
+		if (m_simplified)
+			description.append("\n   (simplified silhouette, distances to the centroids)");
+		else if (m_sampleSize > 0)
+			description.append("\n   (estimated from a sample of " + m_sampleSize + " points)");
+
 		return description.toString();
 	 }
 }
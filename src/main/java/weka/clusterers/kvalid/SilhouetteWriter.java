@@ -0,0 +1,152 @@
+/*
+ * Copyright (C) 2017  Davidson Francis <davidsondfgl@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+/*
+ *    SilhouetteWriter.java
+ *    Written by Davidson Francis
+ */
+
+package weka.clusterers.kvalid;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Streams the silhouette of each point to a file, as it is computed:
+ * the number of clusters, the point index in the dataset, its cluster,
+ * a(i), b(i), the neighbouring cluster and s(i). Nothing is kept in
+ * memory, so it works for any dataset size.
+ *
+ * The file is written as ARFF if its name ends with '.arff', CSV
+ * otherwise. Values not defined, i.e: a(i) of a single point cluster,
+ * are written as '?', the missing value of both Weka loaders.
+ *
+ * @author Davidson Francis (davidson.francis@sga.pucminas.br)
+ * @version $Revision: 0001 $
+ */
+public class SilhouetteWriter implements Closeable {
+
+	/** Columns written. */
+	public static final String[] COLUMNS =
+		{ "k", "instance", "cluster", "a", "b", "neighbour", "silhouette" };
+
+	/** Output. */
+	protected Writer m_out;
+
+	/** Line being written. */
+	protected final StringBuilder m_line = new StringBuilder(96);
+
+	/** Number of points written. */
+	protected long m_numPoints;
+
+	/**
+	 * Creates a given file and writes its header.
+	 *
+	 * @param file output file, ARFF if it ends with '.arff', CSV otherwise.
+	 * @throws IOException if the file could not be created.
+	 */
+	public SilhouetteWriter(File file) throws IOException {
+		m_out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file),
+			StandardCharsets.UTF_8), 1 << 16);
+
+		if (file.getName().toLowerCase().endsWith(".arff")) {
+			m_out.write("@relation silhouettes\n\n");
+			for (String c : COLUMNS)
+				m_out.write("@attribute " + c + " numeric\n");
+			m_out.write("\n@data\n");
+		}
+		else {
+			m_out.write(String.join(",", COLUMNS));
+			m_out.write('\n');
+		}
+	}
+
+	/**
+	 * Writes the silhouette of a point.
+	 *
+	 * @param k          number of clusters.
+	 * @param instance   point index in the dataset.
+	 * @param cluster    point cluster.
+	 * @param a          mean distance to its own cluster, or the distance
+	 *                   to its centroid.
+	 * @param b          mean distance to the neighbouring cluster, or the
+	 *                   distance to its centroid.
+	 * @param neighbour  neighbouring cluster, -1 if none.
+	 * @param silhouette point silhouette.
+	 * @throws IOException if the line could not be written.
+	 */
+	public void write(int k, int instance, int cluster, double a, double b, int neighbour,
+		double silhouette) throws IOException {
+
+		StringBuilder line = m_line;
+		line.setLength(0);
+		line.append(k).append(',').append(instance).append(',').append(cluster).append(',');
+		append(line, a).append(',');
+		append(line, b).append(',');
+
+		if (neighbour < 0)
+			line.append('?');
+		else
+			line.append(neighbour);
+
+		line.append(',');
+		append(line, silhouette).append('\n');
+
+		m_out.append(line);
+		m_numPoints++;
+	}
+
+	/**
+	 * Appends a value, '?' if not defined.
+	 *
+	 * @param line  line being written.
+	 * @param value value.
+	 * @return Returns the line.
+	 */
+	protected static StringBuilder append(StringBuilder line, double value) {
+		if (Double.isNaN(value) || Double.isInfinite(value))
+			return line.append('?');
+		return line.append(value);
+	}
+
+	/**
+	 * Gets the number of points written so far.
+	 *
+	 * @return Returns the number of points.
+	 */
+	public long getNumPoints() {
+		return m_numPoints;
+	}
+
+	/**
+	 * Flushes and closes the file.
+	 *
+	 * @throws IOException if the file could not be closed.
+	 */
+	@Override
+	public void close() throws IOException {
+		if (m_out != null)
+			m_out.close();
+		m_out = null;
+	}
+}
@@ -0,0 +1,349 @@
+/*
+ * Copyright (C) 2017  Davidson Francis <davidsondfgl@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+/*
+ *    SparseDistances.java
+ *    Written by Davidson Francis
+ */
+
+package weka.clusterers.kvalid;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.SparseInstance;
+
+/**
+ * Distances between sparse instances in O(nnz) instead of O(d).
+ *
+ * Sparse against dense (i.e: a cluster centroid): the distance is a sum
+ * of per-attribute terms, and the attributes not stored in the sparse
+ * instance are all zero. So, the distance between the all-zeros instance
+ * and the dense point, its 'base', is computed once per dense point and
+ * each distance only corrects the terms of the values actually stored:
+ *
+ * <pre>
+ * d(x, c) = base(c) + sum over stored j of (term(j, x_j, c_j) - term(j, 0, c_j))
+ * </pre>
+ *
+ * The terms are the distance function own ones, so normalization,
+ * nominal and missing values follow exactly the same rules. The bases
+ * are kept by identity of the dense point and released once it is
+ * garbage collected; the dense points must not change afterwards, and
+ * the ranges may only change in place through clear() (i.e: the
+ * distance update(Instance) of an incremental training).
+ *
+ * Sparse against sparse, when all the attributes are numeric: the
+ * offsets of the normalization cancel out, so the merge over the stored
+ * values only scales them by the precomputed 1 / width of each attribute.
+ *
+ * @author Davidson Francis (davidson.francis@sga.pucminas.br)
+ * @version $Revision: 0001 $
+ */
+public class SparseDistances {
+
+	/**
+	 * Per-attribute term of a distance function.
+	 */
+	public interface Terms {
+
+		/**
+		 * Contribution of a given attribute to the distance.
+		 *
+		 * @param j  attribute index.
+		 * @param v1 first value.
+		 * @param v2 second value.
+		 * @return Returns the term.
+		 */
+		double term(int j, double v1, double v2);
+	}
+
+	/**
+	 * Base of a dense point, or attribute scales, valid for a given
+	 * ranges/attributes setup.
+	 */
+	protected static class Entry {
+
+		/** Ranges the entry was computed with. */
+		protected final Object ranges;
+
+		/** Ranges version the entry was computed with. */
+		protected final int version;
+
+		/** Active attributes the entry was computed with. */
+		protected final boolean[] active;
+
+		/** Distance between the all-zeros instance and the point. */
+		protected final double base;
+
+		/** Scale of each attribute, null if some active attribute is not numeric. */
+		protected final double[] scale;
+
+		/**
+		 * Creates a new entry.
+		 *
+		 * @param ranges  ranges.
+		 * @param version ranges version.
+		 * @param active  active attributes.
+		 * @param base    base, 0 for the scales.
+		 * @param scale   attribute scales, null for a base.
+		 */
+		protected Entry(Object ranges, int version, boolean[] active, double base,
+			double[] scale) {
+
+			this.ranges  = ranges;
+			this.version = version;
+			this.active  = active;
+			this.base    = base;
+			this.scale   = scale;
+		}
+
+		/**
+		 * Checks if the entry was computed with a given setup.
+		 *
+		 * @param ranges  ranges.
+		 * @param version ranges version.
+		 * @param active  active attributes.
+		 * @return Returns true if the entry is still valid.
+		 */
+		protected boolean matches(Object ranges, int version, boolean[] active) {
+			return this.ranges == ranges && this.version == version && this.active == active;
+		}
+	}
+
+	/** Bases, by identity of the dense point. */
+	protected final Map<Instance, Entry> m_bases =
+		Collections.synchronizedMap(new WeakHashMap<Instance, Entry>());
+
+	/** Attribute scales, with the setup they were computed with. */
+	protected volatile Entry m_scales;
+
+	/** Version of the ranges, bumped each time they change in place. */
+	protected volatile int m_version;
+
+	/**
+	 * Calculates the distance between two instances, in O(nnz) when at
+	 * least one of them is sparse, without any final transformation
+	 * (i.e: the Euclidean square root).
+	 *
+	 * @param first         first instance.
+	 * @param second        second instance.
+	 * @param data          dataset header.
+	 * @param active        active attributes.
+	 * @param ranges        current ranges.
+	 * @param dontNormalize true if the attributes are not normalized.
+	 * @param manhattan     true for the Manhattan distance, false for Euclidean.
+	 * @param terms         distance terms.
+	 * @return Returns the accumulated distance, or NaN if the distance
+	 *         function has to compute it itself: both instances dense, or
+	 *         both sparse with nominal attributes or missing values.
+	 */
+	public double distance(Instance first, Instance second, Instances data, boolean[] active,
+		double[][] ranges, boolean dontNormalize, boolean manhattan, Terms terms) {
+
+		if (isMixed(first, second))
+			return mixedDistance(first, second, active, data.classIndex(), ranges, terms);
+		if (isSparse(first, second))
+			return sparseDistance(first, second, data, active, ranges, dontNormalize, manhattan);
+		return Double.NaN;
+	}
+
+	/**
+	 * Checks if one instance is sparse and the other dense.
+	 *
+	 * @param first  first instance.
+	 * @param second second instance.
+	 * @return Returns true if only one of them is sparse.
+	 */
+	public static boolean isMixed(Instance first, Instance second) {
+		return (first instanceof SparseInstance) != (second instanceof SparseInstance);
+	}
+
+	/**
+	 * Checks if both instances are sparse.
+	 *
+	 * @param first  first instance.
+	 * @param second second instance.
+	 * @return Returns true if both are sparse.
+	 */
+	public static boolean isSparse(Instance first, Instance second) {
+		return first instanceof SparseInstance && second instanceof SparseInstance;
+	}
+
+	/**
+	 * Computes the distance between a sparse and a dense instance,
+	 * without any final transformation (i.e: the Euclidean square root).
+	 *
+	 * @param first      first instance.
+	 * @param second     second instance, one of them sparse.
+	 * @param active     active attributes.
+	 * @param classIndex class index, -1 if none.
+	 * @param ranges     current ranges, to invalidate the bases.
+	 * @param terms      distance terms.
+	 * @return Returns the accumulated distance.
+	 */
+	public double mixedDistance(Instance first, Instance second, boolean[] active,
+		int classIndex, Object ranges, Terms terms) {
+
+		Instance sparse = (first instanceof SparseInstance) ? first : second;
+		Instance dense  = (sparse == first) ? second : first;
+
+		double dist = base(dense, active, classIndex, ranges, terms);
+
+		for (int p = 0; p < sparse.numValues(); p++) {
+			int j = sparse.index(p);
+			if (j == classIndex || !active[j])
+				continue;
+
+			double c = dense.value(j);
+			dist += terms.term(j, sparse.valueSparse(p), c) - terms.term(j, 0, c);
+		}
+
+		/* Rounding may leave a tiny negative where the points match. */
+		return Math.max(0.0, dist);
+	}
+
+	/**
+	 * Gets the base of a dense point, computing it if needed.
+	 *
+	 * @param dense      dense point.
+	 * @param active     active attributes.
+	 * @param classIndex class index, -1 if none.
+	 * @param ranges     current ranges.
+	 * @param terms      distance terms.
+	 * @return Returns the distance between the all-zeros instance and the point.
+	 */
+	protected double base(Instance dense, boolean[] active, int classIndex, Object ranges,
+		Terms terms) {
+
+		int version = m_version;
+		Entry e = m_bases.get(dense);
+		if (e != null && e.matches(ranges, version, active))
+			return e.base;
+
+		double base = 0.0;
+		for (int j = 0; j < dense.numAttributes(); j++)
+			if (j != classIndex && active[j])
+				base += terms.term(j, 0, dense.value(j));
+
+		m_bases.put(dense, new Entry(ranges, version, active, base, null));
+		return base;
+	}
+
+	/**
+	 * Computes the distance between two sparse instances, without any
+	 * final transformation (i.e: the Euclidean square root).
+	 *
+	 * @param first         first instance.
+	 * @param second        second instance.
+	 * @param data          dataset header.
+	 * @param active        active attributes.
+	 * @param ranges        current ranges.
+	 * @param dontNormalize true if the attributes are not normalized.
+	 * @param manhattan     true for the Manhattan distance, false for Euclidean.
+	 * @return Returns the accumulated distance, or NaN if some active
+	 *         attribute is not numeric or some value is missing.
+	 */
+	public double sparseDistance(Instance first, Instance second, Instances data,
+		boolean[] active, double[][] ranges, boolean dontNormalize, boolean manhattan) {
+
+		double[] scale = scales(data, active, ranges, dontNormalize);
+		if (scale == null)
+			return Double.NaN;
+
+		int n1 = first.numValues();
+		int n2 = second.numValues();
+		int numAttributes = scale.length;
+		double dist = 0.0;
+
+		for (int p1 = 0, p2 = 0; p1 < n1 || p2 < n2;) {
+			int i1 = (p1 < n1) ? first.index(p1) : numAttributes;
+			int i2 = (p2 < n2) ? second.index(p2) : numAttributes;
+			int j;
+			double diff;
+
+			if (i1 == i2) {
+				j = i1;
+				diff = first.valueSparse(p1++) - second.valueSparse(p2++);
+			}
+			else if (i1 < i2) {
+				j = i1;
+				diff = first.valueSparse(p1++);
+			}
+			else {
+				j = i2;
+				diff = -second.valueSparse(p2++);
+			}
+
+			/* Class and inactive attributes have scale 0. */
+			diff *= scale[j];
+			if (diff != diff)
+				return Double.NaN;
+
+			dist += (manhattan) ? Math.abs(diff) : diff * diff;
+		}
+		return dist;
+	}
+
+	/**
+	 * Gets the scale of each attribute: 1 / width, 0 for the attributes
+	 * not used.
+	 *
+	 * @param data          dataset header.
+	 * @param active        active attributes.
+	 * @param ranges        current ranges.
+	 * @param dontNormalize true if the attributes are not normalized.
+	 * @return Returns the scales, or null if some active attribute is
+	 *         not numeric.
+	 */
+	protected double[] scales(Instances data, boolean[] active, double[][] ranges,
+		boolean dontNormalize) {
+
+		int version = m_version;
+		Entry e = m_scales;
+		if (e != null && e.matches(ranges, version, active))
+			return e.scale;
+
+		double[] scale = new double[data.numAttributes()];
+		for (int j = 0; j < scale.length && scale != null; j++) {
+			if (j == data.classIndex() || !active[j])
+				continue;
+			if (!data.attribute(j).isNumeric())
+				scale = null;
+			else if (dontNormalize)
+				scale[j] = 1.0;
+			else if (ranges[j][2] != 0.0)
+				scale[j] = 1.0 / ranges[j][2];
+		}
+
+		m_scales = new Entry(ranges, version, active, 0.0, scale);
+		return scale;
+	}
+
+	/**
+	 * Forgets all the bases and scales, to be called whenever the ranges
+	 * change in place.
+	 */
+	public void clear() {
+		m_version++;
+		m_scales = null;
+		m_bases.clear();
+	}
+}
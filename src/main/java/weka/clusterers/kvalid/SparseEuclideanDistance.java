@@ -0,0 +1,151 @@
+/*
+ * Copyright (C) 2017  Davidson Francis <davidsondfgl@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+/*
+ *    SparseEuclideanDistance.java
+ *    Written by Davidson Francis
+ */
+
+package weka.clusterers.kvalid;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+
+import weka.core.EuclideanDistance;
+import weka.core.Instance;
+import weka.core.SparseInstance;
+import weka.core.neighboursearch.PerformanceStats;
+
+/**
+ * EuclideanDistance that iterates only over the non-zero values when one or
+ * both instances are sparse, see SparseDistances. Dense pairs, and sparse
+ * ones with nominal attributes or missing values, go through the
+ * EuclideanDistance itself.
+ *
+ * @author Davidson Francis (davidson.francis@sga.pucminas.br)
+ * @version $Revision: 0001 $
+ */
+public class SparseEuclideanDistance extends EuclideanDistance
+	implements SparseDistances.Terms {
+
+	/** Serialization */
+	static final long serialVersionUID = -1480427593011294571L;
+
+	/** Bases of the dense points and attribute scales. */
+	protected transient SparseDistances m_cache = new SparseDistances();
+
+	/**
+	 * Creates a copy of a given distance function, options included.
+	 *
+	 * @param df distance function.
+	 * @throws Exception if the options could not be copied.
+	 */
+	public SparseEuclideanDistance(EuclideanDistance df) throws Exception {
+		setOptions(df.getOptions());
+	}
+
+	/**
+	 * Returns a string describing this object.
+	 *
+	 * @return a description of the evaluator suitable for displaying in
+	 *         the explorer/experimenter gui
+	 */
+	@Override
+	public String globalInfo() {
+		return super.globalInfo() + "\n\nSparse instances in O(nnz).";
+	}
+
+	/**
+	 * Calculates the distance between two instances, in O(nnz) when
+	 * at least one of them is sparse.
+	 *
+	 * @param first       the first instance.
+	 * @param second      the second instance.
+	 * @param cutOffValue if the distance being calculated becomes larger
+	 *                    than cutOffValue then the rest of the calculation
+	 *                    is discarded.
+	 * @param stats       the performance stats object.
+	 * @return the distance between the two given instances or
+	 *         Double.POSITIVE_INFINITY if the distance being calculated
+	 *         becomes larger than cutOffValue.
+	 */
+	@Override
+	public double distance(Instance first, Instance second, double cutOffValue,
+		PerformanceStats stats) {
+
+		if (stats == null && (first instanceof SparseInstance
+			|| second instanceof SparseInstance)) {
+
+			validate();
+			double dist = m_cache.distance(first, second, m_Data, m_ActiveIndices, m_Ranges,
+				m_DontNormalize, false, this);
+
+			/* NaN: nominal attributes or missing values. */
+			if (dist == dist)
+				return (dist > cutOffValue) ? Double.POSITIVE_INFINITY : dist;
+		}
+		return super.distance(first, second, cutOffValue, stats);
+	}
+
+	/**
+	 * Updates the ranges given a new instance, forgetting the bases and
+	 * scales computed with the old ones.
+	 *
+	 * @param ins the new instance.
+	 */
+	@Override
+	public void update(Instance ins) {
+		super.update(ins);
+		m_cache.clear();
+	}
+
+	/**
+	 * Updates the ranges given a new instance, forgetting the bases and
+	 * scales computed with the old ones.
+	 *
+	 * @param instance the new instance.
+	 */
+	@Override
+	public void updateRanges(Instance instance) {
+		super.updateRanges(instance);
+		m_cache.clear();
+	}
+
+	/**
+	 * Contribution of a given attribute to the distance.
+	 *
+	 * @param j  attribute index.
+	 * @param v1 first value.
+	 * @param v2 second value.
+	 * @return Returns the term.
+	 */
+	public double term(int j, double v1, double v2) {
+		return updateDistance(0.0, difference(j, v1, v2));
+	}
+
+	/**
+	 * Recreates the bases cache, which is not serialized.
+	 *
+	 * @param in input stream.
+	 * @throws IOException if the object could not be read.
+	 * @throws ClassNotFoundException if some class was not found.
+	 */
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+		in.defaultReadObject();
+		m_cache = new SparseDistances();
+	}
+}
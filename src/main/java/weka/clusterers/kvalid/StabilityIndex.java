@@ -0,0 +1,467 @@
+/*
+ * Copyright (C) 2017  Davidson Francis <davidsondfgl@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+/*
+ *    StabilityIndex.java
+ *    Written by Davidson Francis
+ */
+
+package weka.clusterers.kvalid;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import weka.clusterers.AbstractClusterer;
+import weka.clusterers.SimpleKMeans;
+import weka.core.DistanceFunction;
+import weka.core.EuclideanDistance;
+import weka.core.Instances;
+import weka.core.ManhattanDistance;
+import weka.core.SelectedTag;
+
+/**
+ * Bootstrap stability of a k-means: the clusterer is trained again on
+ * B bootstrap resamples of the data, taken in pairs, and each pair is
+ * scored by the Adjusted Rand Index (ARI) of its two clusterings over
+ * the points drawn in both. A k that recovers the structure of the data
+ * gives the same partition whatever the resample, i.e: a mean ARI close
+ * to 1.
+ *
+ * The pairs are trained in parallel. A resample is only an array of row
+ * indices over the shared dataset, and the instances of its training
+ * set share the values of the dataset ones, so a pair in flight costs
+ * O(n) small objects and at most one pair per thread is in flight: the
+ * memory does not grow with B. Each pair draws its indices from its own
+ * generator, seeded by the seed, k and the pair number, so the result
+ * does not depend on the number of threads or their scheduling.
+ *
+ * @author Davidson Francis (davidson.francis@sga.pucminas.br)
+ * @version $Revision: 0001 $
+ */
+public class StabilityIndex implements Serializable, ClusterEvaluator {
+
+	/** Serialization */
+	static final long serialVersionUID = -2861447053717390725L;
+
+	/** Number of bootstrap resamples. */
+	protected int m_numResamples = 20;
+
+	/** Seed of the resamples. */
+	protected long m_seed = 1;
+
+	/** ARI of each pair of resamples. */
+	protected double[] m_scores;
+
+	/** Mean ARI. */
+	protected double m_mean;
+
+	/** Standard deviation of the ARI. */
+	protected double m_stdDev;
+
+	/** Mean fraction of the points drawn in both resamples of a pair. */
+	protected double m_overlap;
+
+	/** Time spent in the evaluation, in nanoseconds. */
+	protected long m_evaluationTime;
+
+	/** Number of threads, 0 for the available processors. */
+	protected transient int m_numThreads = 0;
+
+	/** Deadline (System.nanoTime) to finish the evaluation, if any. */
+	protected transient long m_deadline;
+
+	/** Has deadline?. */
+	protected transient boolean m_hasDeadline = false;
+
+	/**
+	 * Sets the number of bootstrap resamples, rounded up to an even
+	 * number, since they are compared in pairs.
+	 *
+	 * @param numResamples number of resamples, at least 2.
+	 * @param seed         seed of the resamples.
+	 * @throws Exception if there are less than 2 resamples.
+	 */
+	public void setNumResamples(int numResamples, long seed) throws Exception {
+		if (numResamples < 2)
+			throw new Exception("StabilityIndex: at least 2 resamples are needed!");
+
+		m_numResamples = numResamples + (numResamples & 1);
+		m_seed         = seed;
+	}
+
+	/**
+	 * Gets the number of bootstrap resamples.
+	 *
+	 * @return Returns the number of resamples.
+	 */
+	public int getNumResamples() {
+		return m_numResamples;
+	}
+
+	/**
+	 * Gets the seed of the resamples.
+	 *
+	 * @return Returns the seed.
+	 */
+	public long getSeed() {
+		return m_seed;
+	}
+
+	/**
+	 * Sets the number of threads training the resamples.
+	 *
+	 * @param numThreads number of threads, 0 for the available processors.
+	 */
+	public void setNumThreads(int numThreads) {
+		m_numThreads = numThreads;
+	}
+
+	/**
+	 * Sets a deadline to finish the evaluation; evaluate() gives up
+	 * with a TimeoutException once it is reached.
+	 *
+	 * @param deadline deadline, as given by System.nanoTime().
+	 */
+	public void setDeadline(long deadline) {
+		m_deadline    = deadline;
+		m_hasDeadline = true;
+	}
+
+	/**
+	 * Evaluates the stability of a SimpleKMeans: its settings are used
+	 * to train every resample.
+	 *
+	 * @param clusterer        SimpleKMeans built.
+	 * @param centroids        cluster centroids (not used).
+	 * @param instances        dataset, without missing values.
+	 * @param distanceFunction distance function.
+	 * @throws InterruptedException if the thread was interrupted.
+	 * @throws TimeoutException if the deadline was reached.
+	 * @throws Exception if some resample could not be trained.
+	 */
+	@Override
+	public void evaluate(AbstractClusterer clusterer, Instances centroids,
+		final Instances instances, final DistanceFunction distanceFunction) throws Exception {
+
+		if (!(clusterer instanceof SimpleKMeans))
+			throw new Exception("StabilityIndex: only SimpleKMeans is supported!");
+
+		final SimpleKMeans template = (SimpleKMeans) clusterer;
+		long time = System.nanoTime();
+
+		int numPairs = m_numResamples / 2;
+		int threads  = (m_numThreads > 0) ? m_numThreads
+			: Runtime.getRuntime().availableProcessors();
+
+		ExecutorService workers = Executors.newFixedThreadPool(Math.min(threads, numPairs));
+		ArrayList<Future<double[]>> pairs = new ArrayList<Future<double[]>>(numPairs);
+
+		m_scores = new double[numPairs];
+		double overlap = 0;
+
+		try {
+			for (int p = 0; p < numPairs; p++) {
+				final long seed = pairSeed(template.getNumClusters(), p);
+				pairs.add(workers.submit(new Callable<double[]>() {
+					public double[] call() throws Exception {
+						return scorePair(template, instances, distanceFunction, seed);
+					}
+				}));
+			}
+
+			/* Collected in order, so the sums do not depend on the scheduling. */
+			for (int p = 0; p < numPairs; p++) {
+				double[] score = waitFor(pairs.get(p));
+				m_scores[p] = score[0];
+				overlap    += score[1];
+			}
+		}
+		finally {
+			workers.shutdownNow();
+		}
+
+		double sum = 0, sumSq = 0;
+		for (int p = 0; p < numPairs; p++)
+			sum += m_scores[p];
+
+		m_mean = sum / numPairs;
+		for (int p = 0; p < numPairs; p++)
+			sumSq += (m_scores[p] - m_mean) * (m_scores[p] - m_mean);
+
+		m_stdDev  = (numPairs > 1) ? Math.sqrt(sumSq / (numPairs - 1)) : 0;
+		m_overlap = overlap / numPairs;
+		m_evaluationTime = System.nanoTime() - time;
+	}
+
+	/**
+	 * Gets the seed of a pair of resamples, mixing the seed, k and the
+	 * pair number.
+	 *
+	 * @param k number of clusters.
+	 * @param p pair number.
+	 * @return Returns the seed of the pair.
+	 */
+	protected long pairSeed(int k, int p) {
+		return m_seed * 0x9E3779B97F4A7C15L + ((long) k << 32) + p;
+	}
+
+	/**
+	 * Waits for a pair, giving up at the deadline or on interruption.
+	 *
+	 * @param f pair being trained.
+	 * @return Returns the ARI and the overlap of the pair.
+	 * @throws InterruptedException if the thread was interrupted.
+	 * @throws TimeoutException if the deadline was reached.
+	 * @throws Exception if the pair could not be trained.
+	 */
+	protected double[] waitFor(Future<double[]> f) throws Exception {
+		try {
+			if (!m_hasDeadline)
+				return f.get();
+
+			long left = m_deadline - System.nanoTime();
+			if (left <= 0)
+				throw new TimeoutException("StabilityIndex: deadline reached!");
+			return f.get(left, TimeUnit.NANOSECONDS);
+		}
+		catch (TimeoutException e) {
+			throw new TimeoutException("StabilityIndex: deadline reached!");
+		}
+		catch (ExecutionException e) {
+			if (e.getCause() instanceof Exception)
+				throw (Exception) e.getCause();
+			throw e;
+		}
+	}
+
+	/**
+	 * Trains a pair of resamples and scores the agreement of their
+	 * clusterings over the points drawn in both.
+	 *
+	 * @param template         clusterer whose settings are used.
+	 * @param data             dataset.
+	 * @param distanceFunction distance function.
+	 * @param seed             seed of the pair.
+	 * @return Returns the ARI and the fraction of points in both resamples.
+	 * @throws Exception if a resample could not be trained.
+	 */
+	protected static double[] scorePair(SimpleKMeans template, Instances data,
+		DistanceFunction distanceFunction, long seed) throws Exception {
+
+		int n = data.numInstances();
+		Random rand = new Random(seed);
+
+		int[] first  = new int[n];
+		int[] second = new int[n];
+		for (int i = 0; i < n; i++)
+			first[i] = rand.nextInt(n);
+		for (int i = 0; i < n; i++)
+			second[i] = rand.nextInt(n);
+
+		int[] labels = train(template, data, distanceFunction, first);
+
+		/* Cluster of each point in the first resample, -1 if not drawn. */
+		int[] cluster = new int[n];
+		Arrays.fill(cluster, -1);
+		for (int i = 0; i < n; i++)
+			cluster[first[i]] = labels[i];
+
+		first  = null;
+		labels = train(template, data, distanceFunction, second);
+
+		int k = template.getNumClusters();
+		long[][] table = new long[k][k];
+		long common = 0;
+
+		/* Contingency table of the points in both, each counted once. */
+		for (int i = 0; i < n; i++) {
+			int c = cluster[second[i]];
+			if (c < 0)
+				continue;
+
+			table[c][labels[i]]++;
+			cluster[second[i]] = -1;
+			common++;
+		}
+
+		return new double[] { adjustedRandIndex(table, common), common / (double) n };
+	}
+
+	/**
+	 * Trains a copy of the clusterer over a resample.
+	 *
+	 * @param template         clusterer whose settings are used.
+	 * @param data             dataset.
+	 * @param distanceFunction distance function.
+	 * @param rows             rows of the resample.
+	 * @return Returns the cluster of each row of the resample.
+	 * @throws Exception if the resample could not be trained.
+	 */
+	protected static int[] train(SimpleKMeans template, Instances data,
+		DistanceFunction distanceFunction, int[] rows) throws Exception {
+
+		/* Instances.add() makes shallow copies: the values stay shared. */
+		Instances resample = new Instances(data, rows.length);
+		for (int i = 0; i < rows.length; i++)
+			resample.add(data.instance(rows[i]));
+
+		SimpleKMeans skmeans = new SimpleKMeans();
+		skmeans.setInitializationMethod(new SelectedTag(template.getInitializationMethod()
+			.getSelectedTag().getID(), SimpleKMeans.TAGS_SELECTION));
+		skmeans.setSeed(template.getSeed());
+		skmeans.setNumClusters(template.getNumClusters());
+		skmeans.setMaxIterations(template.getMaxIterations());
+		skmeans.setDistanceFunction(copyDistance(distanceFunction));
+		skmeans.setDontReplaceMissingValues(true);
+		skmeans.setPreserveInstancesOrder(true);
+		skmeans.buildClusterer(resample);
+
+		return skmeans.getAssignments();
+	}
+
+	/**
+	 * Copies a distance function, options included, but not its data:
+	 * each resample normalizes over its own points.
+	 *
+	 * @param df distance function.
+	 * @return Returns a new distance function.
+	 * @throws Exception if the distance function could not be copied.
+	 */
+	protected static DistanceFunction copyDistance(DistanceFunction df) throws Exception {
+		if (df instanceof SparseEuclideanDistance)
+			return new SparseEuclideanDistance((EuclideanDistance) df);
+		if (df instanceof SparseManhattanDistance)
+			return new SparseManhattanDistance((ManhattanDistance) df);
+
+		DistanceFunction copy = df.getClass().getDeclaredConstructor().newInstance();
+		copy.setOptions(df.getOptions());
+		return copy;
+	}
+
+	/**
+	 * Computes the Adjusted Rand Index of two partitions, given their
+	 * contingency table. Two trivial (single cluster) partitions agree.
+	 *
+	 * @param table contingency table.
+	 * @param n     number of points.
+	 * @return Returns the ARI, 1 for identical partitions.
+	 */
+	public static double adjustedRandIndex(long[][] table, long n) {
+		double index = 0, rows = 0, cols = 0;
+
+		for (int i = 0; i < table.length; i++) {
+			long sum = 0;
+			for (int j = 0; j < table[i].length; j++) {
+				index += pairs(table[i][j]);
+				sum   += table[i][j];
+			}
+			rows += pairs(sum);
+		}
+
+		for (int j = 0; table.length > 0 && j < table[0].length; j++) {
+			long sum = 0;
+			for (int i = 0; i < table.length; i++)
+				sum += table[i][j];
+			cols += pairs(sum);
+		}
+
+		double expected = (n < 2) ? 0 : rows * cols / pairs(n);
+		double max      = (rows + cols) / 2;
+
+		if (max == expected)
+			return 1;
+		return (index - expected) / (max - expected);
+	}
+
+	/**
+	 * Gets the number of pairs of a given number of points.
+	 *
+	 * @param n number of points.
+	 * @return Returns n choose 2.
+	 */
+	protected static double pairs(long n) {
+		return n * (n - 1) / 2.0;
+	}
+
+	/**
+	 * Gets the ARI of each pair of resamples.
+	 *
+	 * @return Returns the scores.
+	 */
+	public double[] getScores() {
+		return m_scores;
+	}
+
+	/**
+	 * Gets the mean ARI over the pairs of resamples.
+	 *
+	 * @return Returns the mean ARI.
+	 */
+	public double getMean() {
+		return m_mean;
+	}
+
+	/**
+	 * Gets the standard deviation of the ARI over the pairs.
+	 *
+	 * @return Returns the standard deviation.
+	 */
+	public double getStdDev() {
+		return m_stdDev;
+	}
+
+	/**
+	 * Gets the mean fraction of the points drawn in both resamples
+	 * of a pair, about 0.4 for bootstrap resamples.
+	 *
+	 * @return Returns the mean overlap.
+	 */
+	public double getOverlap() {
+		return m_overlap;
+	}
+
+	/**
+	 * Gets the time spent in the evaluation.
+	 *
+	 * @return Returns the evaluation time, in nanoseconds.
+	 */
+	public long getEvaluationTime() {
+		return m_evaluationTime;
+	}
+
+	/**
+	 * Returns a string describing the results.
+	 *
+	 * @return a string describing the stability.
+	 */
+	@Override
+	public String toString() {
+		return String.format(Locale.US, "   Mean ARI: %.4f, std. dev.: %.4f\n"
+			+ "   (%d pairs of bootstrap resamples, %.1f%% of the points in both)",
+			m_mean, m_stdDev, m_scores.length, 100 * m_overlap);
+	}
+}
@@ -0,0 +1,358 @@
+/*
+ * Copyright (C) 2017  Davidson Francis <davidsondfgl@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+/*
+ *    StreamScorer.java
+ *    Written by Davidson Francis
+ */
+
+package weka.clusterers.kvalid;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.Utils;
+import weka.core.converters.AbstractFileLoader;
+import weka.core.converters.ArffLoader;
+import weka.core.converters.CSVLoader;
+import weka.core.converters.IncrementalConverter;
+
+/**
+ * Streaming scorer: labels an ARFF/CSV file of any size against a
+ * trained KValid model.
+ *
+ * The file is read incrementally and split in batches; the batches are
+ * assigned in parallel against the lean scoring model, which is read-only
+ * and can be shared by all the workers, and written back in the original
+ * order as soon as they are ready. Since only a
+ * bounded number of batches can be in flight, the memory used does not
+ * depend on the file size.
+ *
+ * @author Davidson Francis (davidson.francis@sga.pucminas.br)
+ * @version $Revision: 0001 $
+ */
+public class StreamScorer {
+
+	/** Default batch size. */
+	public static final int DEFAULT_BATCH_SIZE = 1000;
+
+	/** Marks the end of the stream for the writer stage. */
+	protected static final Future<ScoredBatch> END_OF_STREAM =
+		new FutureTask<ScoredBatch>(new Callable<ScoredBatch>() {
+			public ScoredBatch call() { return null; }
+		});
+
+	/** Trained model. */
+	protected ScoringModel m_model;
+
+	/** Number of worker threads. */
+	protected int m_numThreads;
+
+	/** Number of instances per batch. */
+	protected int m_batchSize;
+
+	/** Number of rows scored by the last run. */
+	protected long m_rowsScored;
+
+	/** Elapsed time of the last run, in nanoseconds. */
+	protected long m_elapsedTime;
+
+	/**
+	 * Scored batch, i.e: the cluster and the distance to its centroid
+	 * of each instance in the batch.
+	 */
+	protected static class ScoredBatch {
+
+		/** Index of the first row of the batch. */
+		long firstRow;
+
+		/** Assigned clusters. */
+		int[] clusters;
+
+		/** Distances to the assigned centroids. */
+		double[] distances;
+
+		/** Output lines of the batch, formatted by the worker. */
+		StringBuilder lines;
+	}
+
+	/**
+	 * Creates a new scorer for a given model.
+	 *
+	 * @param model      trained scoring model.
+	 * @param numThreads number of worker threads.
+	 * @param batchSize  number of instances per batch.
+	 */
+	public StreamScorer(ScoringModel model, int numThreads, int batchSize) {
+		m_model      = model;
+		m_numThreads = Math.max(1, numThreads);
+		m_batchSize  = Math.max(1, batchSize);
+	}
+
+	/**
+	 * Scores all the instances provided by a loader, writing one CSV line
+	 * (row, cluster, distance) per instance in the given writer.
+	 *
+	 * @param loader incremental loader already pointing to the source.
+	 * @param out    output writer.
+	 * @return Returns the number of rows scored.
+	 * @throws Exception if the source could not be read or scored.
+	 */
+	public long score(AbstractFileLoader loader, final Writer out) throws Exception {
+		if (!(loader instanceof IncrementalConverter))
+			throw new Exception("StreamScorer: " + loader.getClass().getName()
+				+ " cannot read incrementally!");
+
+		Instances structure = loader.getStructure();
+		m_model.checkHeader(structure);
+
+		/* Bounded window of batches in flight, that keeps the memory constant. */
+		final BlockingQueue<Future<ScoredBatch>> pending =
+			new ArrayBlockingQueue<Future<ScoredBatch>>(2 * m_numThreads);
+
+		ExecutorService workers = Executors.newFixedThreadPool(m_numThreads);
+		ExecutorService writer  = Executors.newSingleThreadExecutor();
+
+		/* Writer stage: writes the batches back in the reading order. */
+		Future<Void> written = writer.submit(new Callable<Void>() {
+			public Void call() throws Exception {
+				Future<ScoredBatch> f;
+				while ((f = pending.take()) != END_OF_STREAM) {
+					out.append(f.get().lines);
+				}
+				out.flush();
+				return null;
+			}
+		});
+
+		long start = System.nanoTime();
+		long rows  = 0;
+
+		try {
+			out.write("row,cluster,distance\n");
+
+			/* Reader stage. */
+			Instance inst = loader.getNextInstance(structure);
+			while (inst != null) {
+				final ArrayList<Instance> batch = new ArrayList<Instance>(m_batchSize);
+				final long firstRow = rows;
+
+				while (inst != null && batch.size() < m_batchSize) {
+					batch.add(inst);
+					inst = loader.getNextInstance(structure);
+				}
+				rows += batch.size();
+
+				/* Scoring stage. */
+				Future<ScoredBatch> f = workers.submit(new Callable<ScoredBatch>() {
+					public ScoredBatch call() throws Exception {
+						return scoreBatch(batch, firstRow);
+					}
+				});
+
+				/* Blocks while the writer is behind. */
+				if (!enqueue(pending, f, written))
+					break;
+			}
+			enqueue(pending, END_OF_STREAM, written);
+			written.get();
+		}
+		finally {
+			workers.shutdownNow();
+			writer.shutdownNow();
+		}
+
+		m_elapsedTime = System.nanoTime() - start;
+		m_rowsScored  = rows;
+		return rows;
+	}
+
+	/**
+	 * Enqueues a batch for the writer stage, waiting while the queue
+	 * is full.
+	 *
+	 * @param pending batches waiting to be written.
+	 * @param f       batch to be enqueued.
+	 * @param written writer stage.
+	 * @return Returns false if the writer stage has already stopped.
+	 * @throws InterruptedException if interrupted while waiting.
+	 */
+	protected boolean enqueue(BlockingQueue<Future<ScoredBatch>> pending,
+		Future<ScoredBatch> f, Future<Void> written) throws InterruptedException {
+
+		while (!pending.offer(f, 100, TimeUnit.MILLISECONDS)) {
+			if (written.isDone())
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Scores a single batch.
+	 *
+	 * @param batch    instances to be scored.
+	 * @param firstRow index of the first row of the batch.
+	 * @return Returns the scored batch.
+	 * @throws Exception if some instance could not be scored.
+	 */
+	protected ScoredBatch scoreBatch(ArrayList<Instance> batch, long firstRow) {
+
+		ScoredBatch b = new ScoredBatch();
+		b.firstRow  = firstRow;
+		b.clusters  = new int[batch.size()];
+		b.distances = new double[batch.size()];
+
+		b.lines     = new StringBuilder(32 * batch.size());
+
+		for (int i = 0; i < batch.size(); i++) {
+			b.clusters[i]  = m_model.clusterInstance(batch.get(i));
+			b.distances[i] = m_model.distanceToCentroid(batch.get(i), b.clusters[i]);
+
+			b.lines.append(firstRow + i).append(',').append(b.clusters[i]).append(',');
+			appendFixed(b.lines, b.distances[i]);
+			b.lines.append('\n');
+		}
+		return b;
+	}
+
+	/**
+	 * Appends a value with 6 decimals, as String.format("%.6f") does
+	 * (half up, from the exact binary value), without its parsing and
+	 * allocations. Values that are negative, too large or too close to
+	 * a tie for the fast path go through String.format.
+	 *
+	 * @param text  text to append to.
+	 * @param value value.
+	 */
+	protected static void appendFixed(StringBuilder text, double value) {
+		/* Below 1e9, value * 1e6 is off by less than 1e-6 from the exact product. */
+		double scaled = value * 1e6;
+		double fraction = scaled - Math.floor(scaled);
+
+		if (!(value >= 0 && value < 1e9) || Double.doubleToRawLongBits(value) < 0
+			|| Math.abs(fraction - 0.5) < 1e-6) {
+			text.append(String.format(Locale.US, "%.6f", value));
+			return;
+		}
+
+		long units = (long) Math.floor(scaled + 0.5);
+		long decimals = units % 1000000;
+		text.append(units / 1000000).append('.');
+		for (long d = 100000; d > decimals && d > 1; d /= 10)
+			text.append('0');
+		text.append(decimals);
+	}
+
+	/**
+	 * Gets the throughput of the last run.
+	 *
+	 * @return Returns the throughput, in rows per second.
+	 */
+	public double getThroughput() {
+		if (m_elapsedTime == 0)
+			return 0.0;
+		return m_rowsScored / (m_elapsedTime / 1e9);
+	}
+
+	/**
+	 * Gets an incremental loader for a given ARFF or CSV file.
+	 *
+	 * @param fileName file name.
+	 * @return Returns the loader, already pointing to the file.
+	 * @throws Exception if the file could not be opened.
+	 */
+	public static AbstractFileLoader getLoader(String fileName) throws Exception {
+		AbstractFileLoader loader;
+
+		if (fileName.toLowerCase().endsWith(".csv"))
+			loader = new CSVLoader();
+		else
+			loader = new ArffLoader();
+
+		loader.setSource(new File(fileName));
+		return loader;
+	}
+
+	/**
+	 * Main method, use -h to list all parameters.
+	 *
+	 * @param args command line arguments.
+	 */
+	public static void main(String[] args) {
+		try {
+			if (args.length == 0 || Utils.getFlag('h', args)) {
+				System.err.println("Usage: StreamScorer -l <KValid or scoring model> -i <arff/csv file>"
+					+ " [-o <output csv>] [-threads <n>] [-batch <n>]");
+				return;
+			}
+
+			String modelFile = Utils.getOption('l', args);
+			String inputFile = Utils.getOption('i', args);
+			String outFile   = Utils.getOption('o', args);
+
+			if (modelFile.length() == 0 || inputFile.length() == 0)
+				throw new Exception("StreamScorer: both the model (-l) and input (-i) are required!");
+
+			int threads = Runtime.getRuntime().availableProcessors();
+			String temp = Utils.getOption("threads", args);
+			if (temp.length() > 0)
+				threads = Integer.parseInt(temp);
+
+			int batch = DEFAULT_BATCH_SIZE;
+			temp = Utils.getOption("batch", args);
+			if (temp.length() > 0)
+				batch = Integer.parseInt(temp);
+
+			Utils.checkForRemainingOptions(args);
+
+			/* Either a serialized KValid or a lean scoring model. */
+			ScoringModel model = ScoringModel.loadAny(modelFile);
+
+			AbstractFileLoader loader = getLoader(inputFile);
+
+			Writer out = new BufferedWriter(new OutputStreamWriter((outFile.length() > 0)
+				? new FileOutputStream(outFile) : System.out, "UTF-8"), 1 << 16);
+
+			StreamScorer scorer = new StreamScorer(model, threads, batch);
+			long rows = scorer.score(loader, out);
+			out.close();
+
+			System.err.println("Scored " + rows + " rows in "
+				+ String.format(Locale.US, "%.3f", scorer.m_elapsedTime / 1e9) + " s ("
+				+ String.format(Locale.US, "%.1f", scorer.getThroughput()) + " rows/s)");
+		}
+		catch (Exception e) {
+			e.printStackTrace();
+			System.exit(1);
+		}
+	}
+}
@@ -1,4 +1,4 @@
 /**
  * Auxiliar classes for the KValid package.
  */
-package weka.clusterers.KValid;
+package weka.clusterers.kvalid;
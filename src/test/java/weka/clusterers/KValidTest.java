@@ -19,8 +19,52 @@
 
 package weka.clusterers;
 
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.PrintWriter;
+import java.io.RandomAccessFile;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+import javax.imageio.ImageIO;
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.w3c.dom.Document;
+
 import weka.clusterers.AbstractClustererTest;
 import weka.clusterers.Clusterer;
+import weka.clusterers.kvalid.BatchRunner;
+import weka.clusterers.kvalid.CosineDistance;
+import weka.clusterers.kvalid.DataSnapshot;
+import weka.clusterers.kvalid.GaussianBlobs;
+import weka.clusterers.kvalid.GraphPlotter;
+import weka.clusterers.kvalid.KResult;
+import weka.clusterers.kvalid.KValidChebyshevDistance;
+import weka.clusterers.kvalid.LabelEvaluator;
+import weka.clusterers.kvalid.PartialState;
+import weka.clusterers.kvalid.QualityMonitor;
+import weka.clusterers.kvalid.ResultCache;
+import weka.clusterers.kvalid.ScoringModel;
+import weka.clusterers.kvalid.SilhouetteIndex;
+import weka.clusterers.kvalid.SparseEuclideanDistance;
+import weka.clusterers.kvalid.SparseManhattanDistance;
+import weka.clusterers.kvalid.StabilityIndex;
+import weka.clusterers.kvalid.StreamScorer;
+import weka.core.Attribute;
+import weka.core.ChebyshevDistance;
+import weka.core.DenseInstance;
+import weka.core.NormalizableDistance;
+import weka.core.EuclideanDistance;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.ManhattanDistance;
+import weka.core.SelectedTag;
+import weka.core.SparseInstance;
 
 import junit.framework.Test;
 import junit.framework.TestSuite;
@@ -44,6 +88,860 @@ public class KValidTest
 		return new KValid();
 	}
 
+	/**
+	 * Gaussian blobs with a nominal attribute that follows the blob, and
+	 * some missing values in every attribute.
+	 *
+	 * @param n     number of instances.
+	 * @param blobs number of blobs.
+	 * @return Returns the dataset.
+	 */
+	protected Instances blobsWithMissing(int n, int blobs) {
+		Instances data = GaussianBlobs.generate(n, 3, blobs, 7);
+
+		ArrayList<String> values = new ArrayList<String>();
+		for (int c = 0; c < blobs; c++)
+			values.add("b" + c);
+		data.insertAttributeAt(new Attribute("blob", values), data.numAttributes());
+
+		int nominal = data.numAttributes() - 1;
+		for (int i = 0; i < n; i++) {
+			Instance inst = data.instance(i);
+			inst.setValue(nominal, (i % 10 == 0) ? (i / 10) % blobs : i % blobs);
+			if (i % 7 == 3)
+				inst.setMissing(i % data.numAttributes());
+		}
+		return data;
+	}
+
+	/**
+	 * Builds KValid for a single k, with the Silhouette-Index.
+	 *
+	 * @param data        training data.
+	 * @param k           number of clusters.
+	 * @param allClusters b(i) over all the other clusters?.
+	 * @return Returns the clusterer.
+	 * @throws Exception if the clusterer could not be built.
+	 */
+	protected KValid build(Instances data, int k, boolean allClusters) throws Exception {
+		KValid kvalid = new KValid();
+		kvalid.setNumClusters(k);
+		kvalid.setAllClusters(allClusters);
+		kvalid.buildClusterer(data);
+		return kvalid;
+	}
+
+	/**
+	 * Gets the result of the selected k.
+	 *
+	 * @param kvalid clusterer built.
+	 * @return Returns the result.
+	 */
+	protected KResult result(KValid kvalid) {
+		for (KResult r : kvalid.getResults())
+			if (r != null && r.getK() == kvalid.getNumClusters())
+				return r;
+		fail("No result for the selected k");
+		return null;
+	}
+
+	/**
+	 * Silhouette as Rousseeuw defines it, by brute force: a(i) and b(i)
+	 * are the mean distances to the own cluster and to the nearest other
+	 * one, a point alone in its cluster scores 0, and the index is the
+	 * mean of the clusters means, as the SilhouetteIndex reports it.
+	 *
+	 * @param data        dataset, without missing values.
+	 * @param assignments cluster of each instance.
+	 * @param k           number of clusters.
+	 * @return Returns the silhouette.
+	 */
+	protected double referenceSilhouette(Instances data, int[] assignments, int k) {
+		EuclideanDistance df = new EuclideanDistance(data);
+		int[] sizes = new int[k];
+		for (int i = 0; i < assignments.length; i++)
+			sizes[assignments[i]]++;
+
+		double[] clusters = new double[k];
+		for (int i = 0; i < data.numInstances(); i++) {
+			double[] sums = new double[k];
+			for (int j = 0; j < data.numInstances(); j++)
+				if (i != j)
+					sums[assignments[j]] += df.distance(data.instance(i), data.instance(j));
+
+			int own = assignments[i];
+			double b = Double.MAX_VALUE;
+			for (int c = 0; c < k; c++)
+				if (c != own && sizes[c] > 0)
+					b = Math.min(b, sums[c] / sizes[c]);
+
+			if (sizes[own] < 2 || b == Double.MAX_VALUE)
+				continue;
+
+			double a = sums[own] / (sizes[own] - 1);
+			clusters[own] += (b - a) / Math.max(a, b);
+		}
+
+		double global = 0;
+		for (int c = 0; c < k; c++)
+			if (sizes[c] > 0)
+				global += clusters[c] / sizes[c];
+		return global / k;
+	}
+
+	/**
+	 * The scoring model assigns as the clusterer, missing values included.
+	 */
+	public void testScoringModelAssignsAsClusterer() throws Exception {
+		Instances data = blobsWithMissing(300, 3);
+		KValid kvalid = build(data, 3, false);
+		ScoringModel model = kvalid.getScoringModel();
+
+		for (int i = 0; i < data.numInstances(); i++)
+			assertEquals("Instance " + i + ": " + data.instance(i),
+				kvalid.clusterInstance(data.instance(i)),
+				model.clusterInstance(data.instance(i)));
+	}
+
+	/**
+	 * The silhouette over all the clusters is the one of Rousseeuw.
+	 */
+	public void testAllClustersSilhouetteMatchesReference() throws Exception {
+		Instances data = GaussianBlobs.generate(240, 2, 3, 11);
+
+		/* One cluster more than blobs, so the nearest centroid is not always b(i). */
+		for (int k = 2; k <= 4; k++) {
+			KValid kvalid = build(data, k, true);
+
+			int[] assignments = new int[data.numInstances()];
+			for (int i = 0; i < assignments.length; i++)
+				assignments[i] = kvalid.clusterInstance(data.instance(i));
+
+			assertEquals("k = " + k, referenceSilhouette(data, assignments, k),
+				result(kvalid).getSilhouette().getGlobalSilhouette(), 1e-9);
+		}
+	}
+
+	/**
+	 * The states of the shards merge into the state of the whole data.
+	 */
+	public void testPartialStateMergeMatchesSinglePass() throws Exception {
+		Instances data = blobsWithMissing(300, 3);
+		KValid kvalid = build(data, 3, true);
+		ScoringModel model = kvalid.getScoringModel();
+		int shards = 3;
+
+		/* First pass: the sample, as large as the data, so exact. */
+		List<PartialState> states = new ArrayList<PartialState>();
+		for (int s = 0; s < shards; s++) {
+			PartialState state = new PartialState(model);
+			state.setSampleCapacity(data.numInstances(), 1);
+			state.startPart(s);
+			for (int i = s; i < data.numInstances(); i += shards)
+				state.add(data.instance(i));
+			states.add(state);
+		}
+		double[][] sample = PartialState.merge(states).getSample();
+		assertEquals(data.numInstances(), sample.length);
+
+		/* Second pass, over the shards and over the whole data. */
+		PartialState single = new PartialState(model);
+		single.setSample(sample);
+		single.startPart(0);
+		for (int i = 0; i < data.numInstances(); i++)
+			single.add(data.instance(i));
+
+		states.clear();
+		for (int s = 0; s < shards; s++) {
+			PartialState state = new PartialState(model);
+			state.setSample(sample);
+			state.startPart(s);
+			for (int i = data.numInstances() - 1 - s; i >= 0; i -= shards)
+				state.add(data.instance(i));
+			states.add(state);
+		}
+		PartialState merged = PartialState.merge(states);
+
+		assertTrue(Arrays.equals(single.getCounts(), merged.getCounts()));
+		assertEquals(single.getSquaredError(), merged.getSquaredError(), 1e-9);
+		assertEquals(kvalid.getSquaredError(), merged.getSquaredError(), 1e-9);
+		assertEquals(single.getSimplifiedSilhouette(), merged.getSimplifiedSilhouette(), 1e-9);
+
+		double[][] means = single.getMeans();
+		double[][] mergedMeans = merged.getMeans();
+		for (int c = 0; c < means.length; c++)
+			for (int j = 0; j < means[c].length; j++)
+				assertEquals(means[c][j], mergedMeans[c][j], 1e-9);
+
+		for (boolean allClusters : new boolean[] { false, true })
+			assertEquals(single.getSampledSilhouette(allClusters),
+				merged.getSampledSilhouette(allClusters), 1e-9);
+
+		/* A sample of all the points gives the exact silhouette. */
+		assertEquals(result(kvalid).getSilhouette().getGlobalSilhouette(),
+			merged.getSampledSilhouette(true), 1e-9);
+	}
+
+	/**
+	 * The labels of the clusterer evaluate as the clusterer itself.
+	 */
+	public void testLabelEvaluatorReproducesKValid() throws Exception {
+		Instances data = blobsWithMissing(300, 3);
+
+		for (boolean allClusters : new boolean[] { false, true }) {
+			KValid kvalid = build(data, 3, allClusters);
+
+			double[] labels = new double[data.numInstances()];
+			for (int i = 0; i < labels.length; i++)
+				labels[i] = kvalid.clusterInstance(data.instance(i));
+
+			LabelEvaluator evaluator = new LabelEvaluator();
+			evaluator.setSilhouette(0, 1, false, allClusters);
+			evaluator.evaluate(data, labels);
+
+			SilhouetteIndex si = result(kvalid).getSilhouette();
+			assertEquals(kvalid.getSquaredError(), evaluator.getSquaredError(), 1e-9);
+			assertEquals(si.getGlobalSilhouette(),
+				evaluator.getSilhouette().getGlobalSilhouette(), 1e-9);
+
+			double[] clusters = si.getClustersSilhouetteValues();
+			double[] evaluated = evaluator.getSilhouette().getClustersSilhouetteValues();
+			for (int c = 0; c < clusters.length; c++)
+				assertEquals(clusters[c], evaluated[c], 1e-9);
+		}
+	}
+
+	/**
+	 * Given centroids must have the attributes of the data once the label
+	 * is removed: the ones of the data evaluate, and the ones that still
+	 * have the label attribute are rejected.
+	 */
+	public void testLabelEvaluatorChecksCentroidsHeader() throws Exception {
+		Instances data = GaussianBlobs.generate(90, 3, 3, 17);
+		Instances centroids = new Instances(data, 0, 3);
+
+		data.insertAttributeAt(new Attribute("label"), data.numAttributes());
+		int label = data.numAttributes() - 1;
+		for (int i = 0; i < data.numInstances(); i++)
+			data.instance(i).setValue(label, i % 3);
+
+		LabelEvaluator evaluator = new LabelEvaluator();
+		evaluator.setCentroids(centroids);
+		evaluator.evaluate(data, label);
+		assertSame(centroids, evaluator.getCentroids());
+
+		evaluator.setCentroids(new Instances(data, 0, 3));
+		try {
+			evaluator.evaluate(data, label);
+			fail("Centroids with the label attribute accepted");
+		}
+		catch (Exception e) {
+			assertTrue(e.getMessage(), e.getMessage().startsWith("LabelEvaluator: the centroids"));
+		}
+	}
+
+	/**
+	 * Checks the distances taken from a snapshot against the distance
+	 * function itself, for the four distances it supports, over data with
+	 * nominal attributes and missing values and over numeric data.
+	 *
+	 * @param singlePrecision float matrix?.
+	 * @param offHeap         off-heap matrix?.
+	 * @throws Exception if a snapshot could not be built.
+	 */
+	protected void checkSnapshotDistances(boolean singlePrecision, boolean offHeap)
+		throws Exception {
+		Instances[] datasets = { blobsWithMissing(90, 3), GaussianBlobs.generate(90, 4, 3, 29) };
+
+		for (Instances data : datasets) {
+			NormalizableDistance[] distances = { new EuclideanDistance(), new ManhattanDistance(),
+				new KValidChebyshevDistance(), new CosineDistance() };
+
+			for (NormalizableDistance df : distances) {
+				DataSnapshot snapshot = new DataSnapshot(data);
+				snapshot.setSinglePrecision(singlePrecision);
+				snapshot.setOffHeap(offHeap);
+				assertTrue(snapshot.prepare(df));
+				assertEquals(offHeap, snapshot.getOffHeapSize() > 0);
+				assertEquals(singlePrecision, snapshot.getRoundingError() > 0);
+
+				Instances values = snapshot.getData();
+				double tolerance = 1e-12 + snapshot.getDistanceErrorBound();
+				for (int a = 0; a < values.numInstances(); a += 3) {
+					for (int b = 0; b < values.numInstances(); b += 5) {
+						assertEquals(df.getClass().getSimpleName() + " " + a + "-" + b,
+							df.distance(values.instance(a), values.instance(b)),
+							snapshot.distance(a, b), tolerance);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Distances from the double precision matrix.
+	 */
+	public void testSnapshotDistances() throws Exception {
+		checkSnapshotDistances(false, false);
+	}
+
+	/**
+	 * Distances from the float matrix, within its error bound.
+	 */
+	public void testFloatSnapshotDistances() throws Exception {
+		checkSnapshotDistances(true, false);
+	}
+
+	/**
+	 * Distances from the off-heap matrix, in double and single precision.
+	 */
+	public void testOffHeapSnapshotDistances() throws Exception {
+		checkSnapshotDistances(false, true);
+		checkSnapshotDistances(true, true);
+	}
+
+	/**
+	 * The Chebyshev distance KValid uses gives Weka's one; the cosine one
+	 * is 1 - cos(x, y) for dense and sparse rows alike, and the clustering
+	 * with it does not depend on the length of the rows.
+	 */
+	public void testChebyshevAndCosineDistances() throws Exception {
+		Instances mixed = blobsWithMissing(60, 3);
+		ChebyshevDistance weka = new ChebyshevDistance(mixed);
+		KValidChebyshevDistance chebyshev = new KValidChebyshevDistance(mixed);
+		for (int a = 0; a < mixed.numInstances(); a += 2)
+			for (int b = 1; b < mixed.numInstances(); b += 3)
+				assertEquals(weka.distance(mixed.instance(a), mixed.instance(b)),
+					chebyshev.distance(mixed.instance(a), mixed.instance(b)), 1e-12);
+
+		Instances data = GaussianBlobs.generate(60, 4, 3, 31);
+		CosineDistance cosine = new CosineDistance(data);
+		for (int a = 0; a < data.numInstances(); a += 2) {
+			for (int b = 1; b < data.numInstances(); b += 3) {
+				double[] x = data.instance(a).toDoubleArray();
+				double[] y = data.instance(b).toDoubleArray();
+				double dot = 0, nx = 0, ny = 0;
+				for (int j = 0; j < x.length; j++) {
+					dot += x[j] * y[j];
+					nx  += x[j] * x[j];
+					ny  += y[j] * y[j];
+				}
+				double expected = 1 - dot / Math.sqrt(nx * ny);
+				assertEquals(expected, cosine.distance(data.instance(a), data.instance(b)), 1e-12);
+				assertEquals(expected, cosine.distance(new SparseInstance(data.instance(a)),
+					new SparseInstance(data.instance(b))), 1e-12);
+			}
+		}
+
+		/* Rows scaled by 1 to 7: same partition and silhouette. */
+		Instances scaled = new Instances(data);
+		for (int i = 0; i < scaled.numInstances(); i++)
+			for (int j = 0; j < scaled.numAttributes(); j++)
+				scaled.instance(i).setValue(j, data.instance(i).value(j) * (1 + i % 7));
+
+		KValid plain = new KValid();
+		plain.setNumClusters(3);
+		plain.setDistanceFunction(new CosineDistance());
+		KValid longer = (KValid) AbstractClusterer.makeCopy(plain);
+		plain.buildClusterer(data);
+		longer.buildClusterer(scaled);
+
+		for (int i = 0; i < data.numInstances(); i++)
+			assertEquals(plain.clusterInstance(data.instance(i)),
+				longer.clusterInstance(scaled.instance(i)));
+		assertEquals(result(plain).getSilhouette().getGlobalSilhouette(),
+			result(longer).getSilhouette().getGlobalSilhouette(), 1e-9);
+	}
+
+	/**
+	 * Checks that a sparse distance gives the distance it extends, for
+	 * sparse against dense and sparse against sparse instances, while
+	 * the ranges are updated instance by instance.
+	 *
+	 * @param plain  distance extended, computed over every attribute.
+	 * @param sparse sparse distance.
+	 */
+	protected void checkSparseDistance(NormalizableDistance plain, NormalizableDistance sparse) {
+		Instances data = GaussianBlobs.generate(40, 6, 2, 5);
+		Instances sparseData = new Instances(data, data.numInstances());
+
+		/* Half of the values zero, the last rows far outside the first ranges. */
+		for (int i = 0; i < data.numInstances(); i++) {
+			Instance inst = data.instance(i);
+			for (int j = 0; j < inst.numAttributes(); j++) {
+				if ((i + j) % 2 == 0)
+					inst.setValue(j, 0);
+				else if (i >= 20)
+					inst.setValue(j, inst.value(j) * (i - 15));
+			}
+			sparseData.add(new SparseInstance(inst));
+		}
+
+		plain.setInstances(new Instances(sparseData, 0, 20));
+		sparse.setInstances(new Instances(sparseData, 0, 20));
+		Instance centroid = new DenseInstance(1.0, new double[] { 1, -2, 3, 0, 5, -1 });
+
+		for (int i = 20; i <= sparseData.numInstances(); i++) {
+			for (int p = 0; p < i; p++) {
+				Instance inst = sparseData.instance(p);
+				assertEquals("Mixed, after " + i, plain.distance(inst, centroid),
+					sparse.distance(inst, centroid), 1e-9);
+				assertEquals("Sparse, after " + i, plain.distance(inst, sparseData.instance(0)),
+					sparse.distance(inst, sparseData.instance(0)), 1e-9);
+			}
+
+			if (i < sparseData.numInstances()) {
+				plain.update(sparseData.instance(i));
+				sparse.update(sparseData.instance(i));
+			}
+		}
+	}
+
+	/**
+	 * The sparse distances give the distances they extend, even after
+	 * the ranges are updated by an incremental training.
+	 */
+	public void testSparseDistancesFollowRangeUpdates() throws Exception {
+		checkSparseDistance(new EuclideanDistance(),
+			new SparseEuclideanDistance(new EuclideanDistance()));
+		checkSparseDistance(new ManhattanDistance(),
+			new SparseManhattanDistance(new ManhattanDistance()));
+	}
+
+	/**
+	 * Builds KValid incrementally, from an empty dataset.
+	 *
+	 * @param data instances added, in order.
+	 * @param k    number of clusters.
+	 * @return Returns the clusterer.
+	 * @throws Exception if the clusterer could not be built.
+	 */
+	protected KValid buildIncrementally(Instances data, int k) throws Exception {
+		KValid kvalid = new KValid();
+		kvalid.setNumClusters(k);
+		kvalid.buildClusterer(new Instances(data, 0));
+		for (int i = 0; i < data.numInstances(); i++)
+			kvalid.updateClusterer(data.instance(i));
+		kvalid.updateFinished();
+		return kvalid;
+	}
+
+	/**
+	 * The incremental training is a single sequential k-means pass from
+	 * the first k distinct instances, while the batch one iterates from
+	 * random seeds until it converges, so Weka's equality check, which
+	 * only warns, does not apply. Checks instead that the incremental
+	 * model is complete and, on well separated blobs, finds the same
+	 * partition as the batch one.
+	 */
+	@Override
+	public void testUpdatingEquality() {
+		try {
+			Instances data = GaussianBlobs.generate(600, 4, 3, 3);
+			KValid batch = build(data, 3, false);
+			KValid incremental = buildIncrementally(data, 3);
+
+			assertEquals(data.numInstances(), incremental.getNumUpdates());
+			assertEquals(3, incremental.numberOfClusters());
+
+			/* Same partition, up to the cluster numbers. */
+			int[] map = { -1, -1, -1 };
+			for (int i = 0; i < data.numInstances(); i++) {
+				int u = incremental.clusterInstance(data.instance(i));
+				int b = batch.clusterInstance(data.instance(i));
+				if (map[u] < 0)
+					map[u] = b;
+				assertEquals("Instance " + i, map[u], b);
+			}
+		}
+		catch (Exception e) {
+			fail("Incremental training failed: " + e);
+		}
+	}
+
+	/**
+	 * The squared error kept by the updates is the one of the final
+	 * centroids, over every instance in the cluster it was added to.
+	 */
+	public void testUpdatedSquaredErrorIsExact() throws Exception {
+		Instances data = GaussianBlobs.generate(400, 3, 3, 9);
+		Instances first = new Instances(data, 0, 200);
+		KValid kvalid = build(first, 3, false);
+
+		int[] assignments = new int[data.numInstances()];
+		for (int i = 0; i < first.numInstances(); i++)
+			assignments[i] = kvalid.clusterInstance(data.instance(i));
+		for (int i = first.numInstances(); i < data.numInstances(); i++) {
+			assignments[i] = kvalid.clusterInstance(data.instance(i));
+			kvalid.updateClusterer(data.instance(i));
+		}
+		assertEquals(200, kvalid.getNumUpdates());
+
+		/* Ranges of the first instances, as the batch build normalized them. */
+		EuclideanDistance df = new EuclideanDistance(first);
+		double[][] centroids = kvalid.getScoringModel().getCentroids();
+		double sse = 0;
+		for (int i = 0; i < data.numInstances(); i++) {
+			double dist = df.distance(data.instance(i),
+				new DenseInstance(1.0, centroids[assignments[i]]));
+			sse += dist * dist;
+		}
+		assertEquals(sse, kvalid.getSquaredError(), 1e-9 * sse);
+	}
+
+	/**
+	 * Builds a KValid cascade, from k = 2 to 5, with a checkpoint file.
+	 *
+	 * @param data   training data.
+	 * @param file   checkpoint file.
+	 * @param resume resume from the checkpoint?.
+	 * @return Returns the clusterer.
+	 * @throws Exception if the clusterer could not be built.
+	 */
+	protected KValid buildCheckpointed(Instances data, File file, boolean resume)
+		throws Exception {
+		KValid kvalid = new KValid();
+		kvalid.setCascade(true);
+		kvalid.setMinimumK(2);
+		kvalid.setMaximumK(5);
+		kvalid.setCheckpointFile(file.getPath());
+		kvalid.setResume(resume);
+		kvalid.buildClusterer(data);
+		return kvalid;
+	}
+
+	/**
+	 * A checkpoint cut in the middle of its last record resumes from the
+	 * complete records, and only the last k is computed again.
+	 */
+	public void testCheckpointResumesAfterTruncation() throws Exception {
+		Instances data = GaussianBlobs.generate(200, 2, 3, 19);
+		File file = File.createTempFile("kvalid", ".ckpt");
+		file.deleteOnExit();
+
+		KValid first = buildCheckpointed(data, file, false);
+		long length = file.length();
+
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		raf.setLength(length - 10);
+		raf.close();
+
+		KValid resumed = buildCheckpointed(data, file, true);
+		KResult[] before = first.getResults();
+		KResult[] after = resumed.getResults();
+
+		/* Same elapsed times: read back, not computed again. */
+		for (int i = 0; i < before.length - 1; i++)
+			assertEquals(before[i].getElapsedTime(), after[i].getElapsedTime());
+		for (int i = 0; i < before.length; i++)
+			assertEquals(before[i].getSquaredError(), after[i].getSquaredError(), 0);
+
+		/* Truncated record dropped and the last k appended again. */
+		assertEquals(length, file.length());
+		assertEquals(first.numberOfClusters(), resumed.numberOfClusters());
+		file.delete();
+	}
+
+	/**
+	 * With a time budget, the cascade goes coarse-to-fine so a partial
+	 * run spans the whole range; a budget over before the first k fails
+	 * the build, and one long enough changes nothing.
+	 */
+	public void testTimeBudgetOrderAndSkipping() throws Exception {
+		Instances data = GaussianBlobs.generate(150, 2, 3, 23);
+		KValid kvalid = new KValid();
+		kvalid.setCascade(true);
+		kvalid.setMinimumK(2);
+		kvalid.setMaximumK(10);
+		kvalid.buildClusterer(data);
+
+		KValid budgeted = (KValid) AbstractClusterer.makeCopy(kvalid);
+		budgeted.setTimeBudget(3600);
+		int[] order = budgeted.evaluationOrder(2, 10);
+		assertEquals(2, order[0]);
+		assertEquals(10, order[1]);
+		assertEquals(6, order[2]);
+		int[] sorted = order.clone();
+		Arrays.sort(sorted);
+		for (int i = 0; i < sorted.length; i++)
+			assertEquals(i + 2, sorted[i]);
+
+		budgeted.buildClusterer(data);
+		assertEquals(kvalid.numberOfClusters(), budgeted.numberOfClusters());
+		for (int i = 0; i < kvalid.getResults().length; i++)
+			assertEquals(kvalid.getResults()[i].getSquaredError(),
+				budgeted.getResults()[i].getSquaredError(), 0);
+
+		budgeted.setTimeBudget(1e-9);
+		try {
+			budgeted.buildClusterer(data);
+			fail("Built with no k evaluated");
+		}
+		catch (Exception e) {
+			assertTrue(e.getMessage(), e.getMessage().contains("before any k"));
+		}
+	}
+
+	/**
+	 * The monitor keeps quiet over data like the training one, keeps the
+	 * sums of the window as a fresh window would, and raises the signal
+	 * once, when the stream drifts away from the centroids.
+	 */
+	public void testQualityMonitorSignal() throws Exception {
+		Instances data = GaussianBlobs.generate(600, 3, 3, 37);
+		KValid kvalid = build(data, 3, false);
+
+		QualityMonitor monitor = new QualityMonitor(kvalid.getScoringModel());
+		monitor.setWindowSize(200);
+		monitor.setMinCount(100);
+		monitor.evaluate(null, null, data, null);
+
+		for (int i = 0; i < data.numInstances(); i++)
+			assertFalse("Instance " + i, monitor.add(data.instance(i), i));
+		assertFalse(monitor.isDegraded());
+		assertEquals(200, monitor.getWindowCount());
+
+		/* Same window, from scratch. */
+		QualityMonitor last = new QualityMonitor(kvalid.getScoringModel());
+		last.setWindowSize(200);
+		for (int i = 400; i < data.numInstances(); i++)
+			last.add(data.instance(i), i);
+		assertEquals(last.getMeanError(), monitor.getMeanError(), 1e-12);
+		assertEquals(last.getMeanSilhouette(), monitor.getMeanSilhouette(), 1e-12);
+
+		/* Blobs three times as spread: a single signal. */
+		int signals = 0;
+		for (int i = 0; i < data.numInstances(); i++) {
+			Instance drifted = (Instance) data.instance(i).copy();
+			for (int j = 0; j < drifted.numAttributes(); j++)
+				drifted.setValue(j, 3 * drifted.value(j));
+			if (monitor.add(drifted, data.numInstances() + i))
+				signals++;
+		}
+		assertEquals(1, signals);
+		assertTrue(monitor.isDegraded());
+	}
+
+	/**
+	 * The ARI of small contingency tables, and a bootstrap stability that
+	 * depends on the seed only, not on the number of threads, even for
+	 * an unstable k.
+	 */
+	public void testStabilityIndexIsDeterministic() throws Exception {
+		assertEquals(1.0, StabilityIndex.adjustedRandIndex(new long[][] { { 2, 0 }, { 0, 2 } }, 4), 1e-12);
+		assertEquals(1.0, StabilityIndex.adjustedRandIndex(new long[][] { { 0, 2 }, { 2, 0 } }, 4), 1e-12);
+		assertEquals(0.0, StabilityIndex.adjustedRandIndex(new long[][] { { 2, 0 }, { 1, 1 } }, 4), 1e-12);
+
+		Instances data = GaussianBlobs.generate(300, 2, 3, 41);
+		double[] scores = null;
+
+		for (int threads : new int[] { 1, 2, 5 }) {
+			KValid kvalid = new KValid();
+			kvalid.setNumClusters(5);
+			kvalid.setValidationMethod(new SelectedTag(KValid.STABILITY, KValid.VALIDATION_SELECTION));
+			kvalid.setNumResamples(8);
+			kvalid.setNumThreads(threads);
+			kvalid.buildClusterer(data);
+
+			StabilityIndex st = result(kvalid).getStability();
+			/* One score per pair, not all equal for a k that splits the blobs. */
+			assertEquals(4, st.getScores().length);
+			if (scores == null) {
+				scores = st.getScores();
+				assertTrue(st.getStdDev() > 0);
+			}
+			else
+				assertTrue("Threads: " + threads, Arrays.equals(scores, st.getScores()));
+		}
+	}
+
+	/**
+	 * Writes a dataset to a temporary ARFF file.
+	 *
+	 * @param data dataset.
+	 * @return Returns the file, deleted on exit.
+	 * @throws Exception if the file could not be written.
+	 */
+	protected File writeArff(Instances data) throws Exception {
+		File file = File.createTempFile("kvalid", ".arff");
+		file.deleteOnExit();
+		FileWriter out = new FileWriter(file);
+		out.write(data.toString());
+		out.close();
+		return file;
+	}
+
+	/**
+	 * The scorer assigns every row as the clusterer does, and data whose
+	 * header does not match the training one is rejected.
+	 */
+	public void testStreamScorerChecksHeader() throws Exception {
+		Instances data = GaussianBlobs.generate(250, 3, 3, 43);
+		KValid kvalid = build(data, 3, false);
+		ScoringModel model = kvalid.getScoringModel();
+
+		StringWriter out = new StringWriter();
+		StreamScorer scorer = new StreamScorer(model, 3, 40);
+		assertEquals(250, scorer.score(StreamScorer.getLoader(writeArff(data).getPath()), out));
+
+		/* CSV header, then a row per instance. */
+		String[] lines = out.toString().split("\n");
+		assertEquals("row,cluster,distance", lines[0]);
+		assertEquals(251, lines.length);
+		for (int i = 0; i < 250; i++) {
+			String[] fields = lines[i + 1].split(",");
+			assertEquals(i, Integer.parseInt(fields[0]));
+			assertEquals(kvalid.clusterInstance(data.instance(i)), Integer.parseInt(fields[1]));
+		}
+
+		Instances renamed = new Instances(data);
+		renamed.renameAttribute(1, "other");
+		try {
+			scorer.score(StreamScorer.getLoader(writeArff(renamed).getPath()), new StringWriter());
+			fail("Renamed attribute accepted");
+		}
+		catch (Exception e) {
+			assertTrue(e.getMessage(), e.getMessage().startsWith("ScoringModel: the data does not match"));
+		}
+
+		Instances fewer = new Instances(data, 0);
+		fewer.deleteAttributeAt(2);
+		try {
+			model.checkHeader(fewer);
+			fail("Missing attribute accepted");
+		}
+		catch (Exception e) {
+			assertTrue(e.getMessage(), e.getMessage().startsWith("ScoringModel: the data has 2"));
+		}
+	}
+
+	/**
+	 * The cascade graph is saved without a display: as a well-formed SVG
+	 * with a point per k, or as a PNG of the plotter size.
+	 */
+	public void testGraphExport() throws Exception {
+		Instances data = GaussianBlobs.generate(150, 2, 3, 47);
+		File svg = File.createTempFile("kvalid", ".svg");
+		File png = File.createTempFile("kvalid", ".png");
+		svg.deleteOnExit();
+		png.deleteOnExit();
+
+		for (File file : new File[] { svg, png }) {
+			KValid kvalid = new KValid();
+			kvalid.setCascade(true);
+			kvalid.setMinimumK(2);
+			kvalid.setMaximumK(5);
+			kvalid.setGraphFile(file.getPath());
+			kvalid.buildClusterer(data);
+		}
+
+		Document doc = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(svg);
+		assertEquals("svg", doc.getDocumentElement().getNodeName());
+		assertEquals(4, doc.getElementsByTagName("circle").getLength());
+
+		BufferedImage image = ImageIO.read(png);
+		assertNotNull(image);
+		assertEquals(GraphPlotter.WIDTH, image.getWidth());
+		assertEquals(GraphPlotter.HEIGHT, image.getHeight());
+
+		svg.delete();
+		png.delete();
+	}
+
+	/**
+	 * The batch summary has a line per job, in the manifest order, with
+	 * the options of each job; a dataset that cannot be read fails its
+	 * own line only.
+	 */
+	public void testBatchRunnerSummary() throws Exception {
+		File dir = Files.createTempDirectory("kvalid").toFile();
+		Instances three = GaussianBlobs.generate(150, 2, 3, 53);
+		Instances two = GaussianBlobs.generate(100, 2, 2, 59);
+
+		File[] files = { new File(dir, "a.arff"), new File(dir, "b.arff"),
+			new File(dir, "c.arff"), new File(dir, "jobs.txt") };
+		String[] contents = { three.toString(), "not an ARFF file", two.toString(),
+			"# Datasets\na.arff\nb.arff\nc.arff -N 2\n" };
+		for (int i = 0; i < files.length; i++) {
+			FileWriter out = new FileWriter(files[i]);
+			out.write(contents[i]);
+			out.close();
+		}
+
+		StringWriter summary = new StringWriter();
+		BatchRunner runner = new BatchRunner(new String[] { "-N", "3" }, 2);
+		assertEquals(1, runner.run(BatchRunner.readJobs(files[3].getPath()),
+			new PrintWriter(summary)));
+		assertEquals(1, runner.getFailures());
+
+		String[] lines = summary.toString().split("\r?\n");
+		assertEquals(4, lines.length);
+		assertEquals(BatchRunner.HEADER, lines[0]);
+
+		/* Same silhouette as KValid alone, bestK from the job options. */
+		String[] a = lines[1].split(",");
+		assertEquals(files[0].getPath(), a[0]);
+		assertEquals("3", a[5]);
+		assertEquals(String.format(Locale.US, "%.6g",
+			result(build(three, 3, false)).getSilhouette().getGlobalSilhouette()), a[6]);
+		assertEquals("ok", a[a.length - 1]);
+
+		assertTrue(lines[2], lines[2].startsWith(files[1].getPath() + ",,,"));
+		assertTrue(lines[2], lines[2].contains("error: "));
+
+		String[] c = lines[3].split(",");
+		assertEquals("2", c[5]);
+		assertEquals("ok", c[c.length - 1]);
+
+		for (File file : files)
+			file.delete();
+		dir.delete();
+	}
+
+	/**
+	 * The cache hands out copies: changing a result, once put or once
+	 * got, never reaches the other KValid instances. The key separates
+	 * the datasets and the options that change the results.
+	 */
+	public void testResultCacheKeepsCopies() throws Exception {
+		Instances data = GaussianBlobs.generate(200, 2, 3, 13);
+		ResultCache.clearMemory();
+
+		KValid first = new KValid();
+		first.setNumClusters(3);
+		first.setUseCache(true);
+		first.buildClusterer(data);
+		KResult built = result(first);
+		double elapsed = built.getElapsedTime();
+		built.setElapsedTime(-1);
+
+		/* Same data and options: reused, untouched by the change above. */
+		KValid second = (KValid) AbstractClusterer.makeCopy(first);
+		second.buildClusterer(data);
+		KResult reused = result(second);
+		assertNotSame(built, reused);
+		assertEquals(elapsed, reused.getElapsedTime(), 0);
+		assertEquals(built.getSquaredError(), reused.getSquaredError(), 0);
+		assertEquals(built.getSilhouette().getGlobalSilhouette(),
+			reused.getSilhouette().getGlobalSilhouette(), 0);
+
+		String key = ResultCache.fingerprint(data, first.getCacheOptions());
+		ResultCache cache = new ResultCache(null, 0);
+		reused.setElapsedTime(-2);
+		assertEquals(elapsed, cache.get(key, 3).getElapsedTime(), 0);
+		assertNull(cache.get(key, 4));
+
+		/* Other options, or other data, other keys. */
+		KValid seeded = new KValid();
+		seeded.setNumClusters(3);
+		seeded.setSeed(first.getSeed() + 1);
+		assertFalse(key.equals(ResultCache.fingerprint(data, seeded.getCacheOptions())));
+
+		Instances changed = new Instances(data);
+		changed.instance(0).setValue(0, changed.instance(0).value(0) + 1e-9);
+		assertFalse(key.equals(ResultCache.fingerprint(changed, first.getCacheOptions())));
+	}
+
 	public static Test suite() {
 		return new TestSuite(KValidTest.class);
 	}
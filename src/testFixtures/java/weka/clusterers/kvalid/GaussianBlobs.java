@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2017  Davidson Francis <davidsondfgl@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ */
+
+/*
+ *    GaussianBlobs.java
+ *    Written by Davidson Francis
+ */
+
+package weka.clusterers.kvalid;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+import weka.core.Attribute;
+import weka.core.DenseInstance;
+import weka.core.Instances;
+
+/**
+ * Synthetic datasets made of isotropic Gaussian blobs, used to measure
+ * KValid on known data. The same seed always gives the same dataset.
+ *
+ * @author Davidson Francis (davidson.francis@sga.pucminas.br)
+ * @version $Revision: 0001 $
+ */
+public class GaussianBlobs {
+
+	/** Range of the blob centers, in each dimension. */
+	public static final double CENTER_RANGE = 10.0;
+
+	/** Standard deviation of each blob. */
+	public static final double STD_DEV = 1.0;
+
+	/**
+	 * Generates a dataset.
+	 *
+	 * @param n     number of instances.
+	 * @param d     number of (numeric) attributes.
+	 * @param blobs number of blobs.
+	 * @param seed  random seed.
+	 * @return Returns the dataset, without class attribute.
+	 */
+	public static Instances generate(int n, int d, int blobs, long seed) {
+		Random rand = new Random(seed);
+
+		ArrayList<Attribute> atts = new ArrayList<Attribute>(d);
+		for (int j = 0; j < d; j++)
+			atts.add(new Attribute("x" + j));
+
+		Instances data = new Instances("blobs-n" + n + "-d" + d + "-k" + blobs, atts, n);
+
+		/* Blob centers. */
+		double[][] centers = new double[blobs][d];
+		for (int c = 0; c < blobs; c++)
+			for (int j = 0; j < d; j++)
+				centers[c][j] = (rand.nextDouble() * 2 - 1) * CENTER_RANGE;
+
+		for (int i = 0; i < n; i++) {
+			double[] values = new double[d];
+			double[] center = centers[i % blobs];
+
+			for (int j = 0; j < d; j++)
+				values[j] = center[j] + rand.nextGaussian() * STD_DEV;
+
+			data.add(new DenseInstance(1.0, values));
+		}
+
+		return data;
+	}
+}